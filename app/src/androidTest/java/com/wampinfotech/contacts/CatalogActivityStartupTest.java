@@ -0,0 +1,156 @@
+package com.wampinfotech.contacts;
+
+import android.app.Instrumentation;
+import android.content.ContentValues;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.rule.ActivityTestRule;
+import android.support.test.runner.AndroidJUnit4;
+import android.support.v7.widget.RecyclerView;
+import android.util.Log;
+
+import com.wampinfotech.contacts.data.ContactContract.ContactEntry;
+import com.wampinfotech.contacts.data.ContactSnapshotFile;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Times the launch of {@link CatalogActivity} up to its first drawn row, once from the
+ * database and once from the snapshot of the first screen the last launch saved.
+ * <p>
+ * The instrumentation starts the app's process just before the tests, so the provider is still
+ * warming the database up when the first launch begins, as on a cold start. The process start
+ * itself isn't part of the time; for that, time {@code adb shell am start -W} after
+ * {@code adb shell am force-stop}, as described in CatalogActivity. Each time is reported as
+ * an instrumentation status under {@link #STATUS_FIRST_ROW_MILLIS}, and logged.
+ */
+@RunWith(AndroidJUnit4.class)
+public class CatalogActivityStartupTest {
+
+    private static final String LOG_TAG = CatalogActivityStartupTest.class.getSimpleName();
+
+    /**
+     * Key of where the first row came from in the instrumentation status. Type: String
+     */
+    private static final String STATUS_SOURCE = "source";
+
+    /**
+     * Key of the time to the first drawn row in the instrumentation status. Type: long
+     */
+    private static final String STATUS_FIRST_ROW_MILLIS = "first_row_millis";
+
+    /**
+     * Longest time to the first drawn row that passes, far above a phone's, so that only a
+     * launch that waits for something it shouldn't fails
+     */
+    private static final long FIRST_ROW_BUDGET_MILLIS = 2000;
+
+    /**
+     * Longest time to wait for the first row, or for the snapshot to be saved
+     */
+    private static final long TIMEOUT_MILLIS = 10000;
+
+    private static final long POLL_MILLIS = 5;
+
+    @Rule
+    public final ActivityTestRule<CatalogActivity> mActivityRule =
+            new ActivityTestRule<>(CatalogActivity.class, false, false);
+
+    private Instrumentation mInstrumentation;
+
+    private Uri mContactUri;
+
+    @Before
+    public void setUp() {
+        mInstrumentation = InstrumentationRegistry.getInstrumentation();
+        ContentValues values = new ContentValues();
+        values.put(ContactEntry.COLUMN_CONTACT_NAME, "Cold Start");
+        values.put(ContactEntry.COLUMN_CONTACT_EMAIL, "cold.start@example.com");
+        values.put(ContactEntry.COLUMN_CONTACT_GENDER, ContactEntry.GENDER.UNKNOWN.ordinal());
+        values.put(ContactEntry.COLUMN_CONTACT_NUMBER, "9000000000");
+        mContactUri = mInstrumentation.getTargetContext().getContentResolver()
+                .insert(ContactEntry.CONTENT_URI, values);
+        assertNotNull(mContactUri);
+    }
+
+    @After
+    public void tearDown() {
+        mInstrumentation.getTargetContext().getContentResolver().delete(mContactUri, null, null);
+    }
+
+    /**
+     * Launch the catalog with no snapshot saved, so its first row comes from the database.
+     */
+    @Test
+    public void firstRowFromDatabase() throws Exception {
+        // The insert made the provider drop the snapshot already; make sure of it
+        File snapshot = ContactSnapshotFile.get(mInstrumentation.getTargetContext());
+        snapshot.delete();
+
+        reportFirstRow("database", timeFirstRow());
+    }
+
+    /**
+     * Launch the catalog once so it saves the first screen, then time the launch that shows it.
+     */
+    @Test
+    public void firstRowFromSnapshot() throws Exception {
+        File snapshot = ContactSnapshotFile.get(mInstrumentation.getTargetContext());
+        timeFirstRow();
+        long deadline = SystemClock.uptimeMillis() + TIMEOUT_MILLIS;
+        while (!snapshot.exists()) {
+            assertTrue("The first screen wasn't saved", SystemClock.uptimeMillis() < deadline);
+            SystemClock.sleep(POLL_MILLIS);
+        }
+        mActivityRule.finishActivity();
+
+        reportFirstRow("snapshot", timeFirstRow());
+    }
+
+    /**
+     * Launch the catalog and return the time until its list has laid out its first row, which
+     * is drawn in the same frame.
+     */
+    private long timeFirstRow() {
+        long start = SystemClock.uptimeMillis();
+        CatalogActivity activity = mActivityRule.launchActivity(null);
+        final RecyclerView list = activity.findViewById(R.id.list_view);
+        final boolean[] drawn = new boolean[1];
+        while (true) {
+            mInstrumentation.runOnMainSync(new Runnable() {
+                @Override
+                public void run() {
+                    // Rows are only added as children once they are bound and laid out
+                    drawn[0] = list.getChildCount() != 0 && !list.isLayoutRequested();
+                }
+            });
+            long elapsed = SystemClock.uptimeMillis() - start;
+            if (drawn[0]) {
+                return elapsed;
+            }
+            assertTrue("No row drawn after " + elapsed + " ms", elapsed < TIMEOUT_MILLIS);
+            SystemClock.sleep(POLL_MILLIS);
+        }
+    }
+
+    private void reportFirstRow(String source, long millis) {
+        Log.i(LOG_TAG, "First row from the " + source + " drawn " + millis + " ms after launch");
+        Bundle status = new Bundle();
+        status.putString(STATUS_SOURCE, source);
+        status.putLong(STATUS_FIRST_ROW_MILLIS, millis);
+        mInstrumentation.sendStatus(0, status);
+        assertTrue("First row from the " + source + " took " + millis + " ms",
+                millis <= FIRST_ROW_BUDGET_MILLIS);
+    }
+}
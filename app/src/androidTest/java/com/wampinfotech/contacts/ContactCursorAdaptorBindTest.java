@@ -0,0 +1,284 @@
+package com.wampinfotech.contacts;
+
+import android.app.Instrumentation;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.os.Bundle;
+import android.os.Debug;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.support.v7.util.ListUpdateCallback;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.util.Log;
+import android.view.ContextThemeWrapper;
+
+import com.wampinfotech.contacts.data.ContactContract.ContactEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Times the binding of the rows of {@link ContactCursorAdaptor} and counts the objects it
+ * allocates per scroll frame, with every page already loaded, as while scrolling through pages
+ * that are open.
+ * <p>
+ * A frame of a fast fling brings {@link #ROWS_PER_FRAME} new rows into view, each bound into a
+ * recycled holder. The objects allocated on the main thread during those binds are counted with
+ * the allocation counters of the runtime. The median and the 90th percentile of the time per
+ * bind, and the mean and the largest number of allocations per frame, are reported as an
+ * instrumentation status under {@link #STATUS_BIND_MEDIAN_MICROS},
+ * {@link #STATUS_BIND_P90_MICROS}, {@link #STATUS_FRAME_ALLOCATIONS_MEAN} and
+ * {@link #STATUS_FRAME_ALLOCATIONS_MAX}, and logged.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ContactCursorAdaptorBindTest {
+
+    private static final String LOG_TAG = ContactCursorAdaptorBindTest.class.getSimpleName();
+
+    /**
+     * Key of the median time to bind a row in the instrumentation status. Type: long
+     */
+    private static final String STATUS_BIND_MEDIAN_MICROS = "bind_median_micros";
+
+    /**
+     * Key of the 90th percentile of the time to bind a row in the instrumentation status.
+     * Type: long
+     */
+    private static final String STATUS_BIND_P90_MICROS = "bind_p90_micros";
+
+    /**
+     * Key of the mean number of objects allocated per frame in the instrumentation status.
+     * Type: double
+     */
+    private static final String STATUS_FRAME_ALLOCATIONS_MEAN = "frame_allocations_mean";
+
+    /**
+     * Key of the largest number of objects allocated in a frame in the instrumentation status.
+     * Type: int
+     */
+    private static final String STATUS_FRAME_ALLOCATIONS_MAX = "frame_allocations_max";
+
+    /**
+     * Email of every other contact the test inserts
+     */
+    private static final String EMAIL = "bind.test@example.com";
+
+    /**
+     * Number of rows scrolled through, in open pages of the paging source
+     */
+    private static final int ROWS = 4 * ContactPagingSource.PAGE_SIZE;
+
+    /**
+     * Number of rows that come into view in a frame of a fast fling
+     */
+    private static final int ROWS_PER_FRAME = 3;
+
+    /**
+     * Number of times the rows are scrolled through before measuring, for the JIT and the
+     * column indexes of the reader
+     */
+    private static final int WARM_UP_PASSES = 3;
+
+    /**
+     * Number of times the rows are scrolled through while measuring
+     */
+    private static final int PASSES = 10;
+
+    /**
+     * Number of holders the rows are bound into, in turn, as in a recycled list on screen
+     */
+    private static final int HOLDERS = 12;
+
+    /**
+     * Longest median time to bind a row that passes, far above a phone's, so that only a bind
+     * that reads from the database or inflates views fails
+     */
+    private static final long BIND_BUDGET_MICROS = 1000;
+
+    /**
+     * Longest time to wait for the pages to be loaded
+     */
+    private static final long TIMEOUT_MILLIS = 10000;
+
+    private static final long POLL_MILLIS = 5;
+
+    private Instrumentation mInstrumentation;
+
+    private ContentResolver mResolver;
+
+    private ContactPagingSource mPagingSource;
+
+    private File mSnapshotFile;
+
+    @Before
+    public void setUp() {
+        mInstrumentation = InstrumentationRegistry.getInstrumentation();
+        mResolver = mInstrumentation.getTargetContext().getContentResolver();
+
+        ContentValues[] rows = new ContentValues[ROWS];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = new ContentValues();
+            rows[i].put(ContactEntry.COLUMN_CONTACT_NAME, "Bind Test " + i);
+            // Every other contact has no email, so both branches of the bind are timed
+            rows[i].put(ContactEntry.COLUMN_CONTACT_EMAIL, i % 2 == 0 ? EMAIL : "");
+            rows[i].put(ContactEntry.COLUMN_CONTACT_GENDER, ContactEntry.GENDER.UNKNOWN.ordinal());
+            rows[i].put(ContactEntry.COLUMN_CONTACT_NUMBER, "9000000000");
+        }
+        assertEquals(ROWS, mResolver.bulkInsert(ContactEntry.CONTENT_URI, rows));
+
+        // The source keeps its snapshot apart from the catalog's
+        mSnapshotFile = new File(mInstrumentation.getTargetContext().getCacheDir(), LOG_TAG);
+    }
+
+    @After
+    public void tearDown() {
+        if (mPagingSource != null) {
+            mInstrumentation.runOnMainSync(new Runnable() {
+                @Override
+                public void run() {
+                    mPagingSource.close();
+                }
+            });
+        }
+        mSnapshotFile.delete();
+        mResolver.delete(ContactEntry.CONTENT_URI, ContactEntry.COLUMN_CONTACT_NAME + " LIKE 'Bind Test %'",
+                null);
+    }
+
+    /**
+     * Load the pages of the first rows, then scroll through them frame by frame, binding the
+     * rows of every frame into recycled holders.
+     */
+    @Test
+    public void bindRows() {
+        final Context context = new ContextThemeWrapper(mInstrumentation.getTargetContext(), R.style.AppTheme);
+        final ContactCursorAdaptor[] adaptor = new ContactCursorAdaptor[1];
+        final ContactCursorAdaptor.ContactViewHolder[] holders = new ContactCursorAdaptor.ContactViewHolder[HOLDERS];
+        mInstrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mPagingSource = new ContactPagingSource(mResolver, new IgnoredUpdates(), mSnapshotFile);
+                adaptor[0] = new ContactCursorAdaptor(context, mPagingSource, null);
+                RecyclerView parent = new RecyclerView(context);
+                parent.setLayoutManager(new LinearLayoutManager(context));
+                for (int i = 0; i < holders.length; i++) {
+                    holders[i] = adaptor[0].onCreateViewHolder(parent, 0);
+                }
+                mPagingSource.start();
+            }
+        });
+        awaitPages();
+
+        final long[] bindNanos = new long[PASSES * ROWS];
+        final int frames = (ROWS + ROWS_PER_FRAME - 1) / ROWS_PER_FRAME;
+        final int[] frameAllocations = new int[PASSES * frames];
+        mInstrumentation.runOnMainSync(new Runnable() {
+            @Override
+            @SuppressWarnings("deprecation")
+            public void run() {
+                for (int pass = 0; pass < WARM_UP_PASSES; pass++) {
+                    for (int position = 0; position < ROWS; position++) {
+                        adaptor[0].onBindViewHolder(holders[position % HOLDERS], position);
+                    }
+                }
+
+                // The counters are per thread, and only the binds run between reset and read
+                Debug.startAllocCounting();
+                try {
+                    for (int pass = 0; pass < PASSES; pass++) {
+                        for (int frame = 0; frame < frames; frame++) {
+                            Debug.resetThreadAllocCount();
+                            int end = Math.min(ROWS, (frame + 1) * ROWS_PER_FRAME);
+                            for (int position = frame * ROWS_PER_FRAME; position < end; position++) {
+                                long start = System.nanoTime();
+                                adaptor[0].onBindViewHolder(holders[position % HOLDERS], position);
+                                bindNanos[pass * ROWS + position] = System.nanoTime() - start;
+                            }
+                            frameAllocations[pass * frames + frame] = Debug.getThreadAllocCount();
+                        }
+                    }
+                } finally {
+                    Debug.stopAllocCounting();
+                }
+            }
+        });
+
+        Arrays.sort(bindNanos);
+        long medianMicros = bindNanos[bindNanos.length / 2] / 1000;
+        long p90Micros = bindNanos[bindNanos.length * 9 / 10] / 1000;
+        long totalAllocations = 0;
+        int maxAllocations = 0;
+        for (int allocations : frameAllocations) {
+            totalAllocations += allocations;
+            maxAllocations = Math.max(maxAllocations, allocations);
+        }
+        double meanAllocations = (double) totalAllocations / frameAllocations.length;
+
+        Log.i(LOG_TAG, "Bind median " + medianMicros + " us, p90 " + p90Micros + " us; allocations per frame of "
+                + ROWS_PER_FRAME + " rows mean " + meanAllocations + ", max " + maxAllocations);
+        Bundle status = new Bundle();
+        status.putLong(STATUS_BIND_MEDIAN_MICROS, medianMicros);
+        status.putLong(STATUS_BIND_P90_MICROS, p90Micros);
+        status.putDouble(STATUS_FRAME_ALLOCATIONS_MEAN, meanAllocations);
+        status.putInt(STATUS_FRAME_ALLOCATIONS_MAX, maxAllocations);
+        mInstrumentation.sendStatus(0, status);
+        assertTrue("Binding a row took " + medianMicros + " us", medianMicros <= BIND_BUDGET_MICROS);
+    }
+
+    /**
+     * Wait until the paging source has loaded the pages of the first {@link #ROWS} rows.
+     * Asking for a row that isn't loaded fetches its page.
+     */
+    private void awaitPages() {
+        final boolean[] loaded = new boolean[1];
+        long deadline = SystemClock.uptimeMillis() + TIMEOUT_MILLIS;
+        while (true) {
+            mInstrumentation.runOnMainSync(new Runnable() {
+                @Override
+                public void run() {
+                    loaded[0] = mPagingSource.getCount() >= ROWS;
+                    for (int position = 0; loaded[0] && position < ROWS; position += ContactPagingSource.PAGE_SIZE) {
+                        loaded[0] = mPagingSource.moveToPosition(position) != null;
+                    }
+                }
+            });
+            if (loaded[0]) {
+                return;
+            }
+            assertTrue("Pages not loaded after " + TIMEOUT_MILLIS + " ms", SystemClock.uptimeMillis() < deadline);
+            SystemClock.sleep(POLL_MILLIS);
+        }
+    }
+
+    /**
+     * Ignores the list updates, since there is no list to update.
+     */
+    private static final class IgnoredUpdates implements ListUpdateCallback {
+        @Override
+        public void onInserted(int position, int count) {
+        }
+
+        @Override
+        public void onRemoved(int position, int count) {
+        }
+
+        @Override
+        public void onMoved(int fromPosition, int toPosition) {
+        }
+
+        @Override
+        public void onChanged(int position, int count, Object payload) {
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.wampinfotech.contacts.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.wampinfotech.contacts.data.ContactContract.ContactEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Checks that the contact cache of {@link ContactProvider} never keeps a row older than the
+ * last committed write, even while another thread reads the same contact through the cache.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ContactProviderCacheTest {
+
+    /**
+     * Number of batches raced against the reader
+     */
+    private static final int ROUNDS = 200;
+
+    /**
+     * Writes to another contact after the raced update in every batch, which keeps the batch
+     * open long enough for the reader to fetch the contact from the database in the meantime
+     */
+    private static final int PADDING_OPERATIONS = 50;
+
+    private ContentResolver mResolver;
+
+    private Uri mContactUri;
+
+    private Uri mPaddingUri;
+
+    @Before
+    public void setUp() {
+        mResolver = InstrumentationRegistry.getTargetContext().getContentResolver();
+        mContactUri = insertContact("Cache Race");
+        mPaddingUri = insertContact("Cache Race Padding");
+    }
+
+    @After
+    public void tearDown() {
+        mResolver.delete(mContactUri, null, null);
+        mResolver.delete(mPaddingUri, null, null);
+    }
+
+    /**
+     * Update the contact in batches while another thread keeps reading it. Once a batch has
+     * returned, reading the contact must show its update.
+     */
+    @Test
+    public void batchUpdateIsNotHiddenByConcurrentRead() throws Exception {
+        final AtomicBoolean done = new AtomicBoolean();
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (!done.get()) {
+                    readName(mContactUri);
+                }
+            }
+        });
+        reader.start();
+
+        try {
+            for (int round = 0; round < ROUNDS; round++) {
+                String name = "Cache Race " + round;
+                ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+                operations.add(ContentProviderOperation.newUpdate(mContactUri)
+                        .withValue(ContactEntry.COLUMN_CONTACT_NAME, name)
+                        .build());
+                for (int i = 0; i < PADDING_OPERATIONS; i++) {
+                    operations.add(ContentProviderOperation.newUpdate(mPaddingUri)
+                            .withValue(ContactEntry.COLUMN_CONTACT_NAME, "Cache Race Padding " + i)
+                            .build());
+                }
+                mResolver.applyBatch(ContactContract.CONTENT_AUTHORITY, operations);
+
+                assertEquals("Stale contact cached in round " + round, name, readName(mContactUri));
+            }
+        } finally {
+            done.set(true);
+            reader.join();
+        }
+    }
+
+    private Uri insertContact(String name) {
+        ContentValues values = new ContentValues();
+        values.put(ContactEntry.COLUMN_CONTACT_NAME, name);
+        values.put(ContactEntry.COLUMN_CONTACT_EMAIL, "cache.race@example.com");
+        values.put(ContactEntry.COLUMN_CONTACT_GENDER, ContactEntry.GENDER.UNKNOWN.ordinal());
+        values.put(ContactEntry.COLUMN_CONTACT_NUMBER, "9000000000");
+        Uri uri = mResolver.insert(ContactEntry.CONTENT_URI, values);
+        assertNotNull(uri);
+        return uri;
+    }
+
+    /**
+     * Returns the name of the contact at the given URI, read through the cache of the provider.
+     */
+    private String readName(Uri uri) {
+        Cursor cursor = mResolver.query(uri, new String[]{ContactEntry.COLUMN_CONTACT_NAME}, null, null, null);
+        try {
+            return cursor != null && cursor.moveToFirst() ? cursor.getString(0) : null;
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+    }
+}
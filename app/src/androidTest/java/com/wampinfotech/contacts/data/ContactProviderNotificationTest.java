@@ -0,0 +1,235 @@
+package com.wampinfotech.contacts.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.ContentObserver;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.wampinfotech.contacts.data.ContactContract.ContactEntry;
+import com.wampinfotech.contacts.data.ContactContract.GroupEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Checks that every write or batch to {@link ContactProvider} sends a single notification for
+ * the contacts it changes, whatever the number of rows, and that the notified URI names the
+ * changed contacts.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ContactProviderNotificationTest {
+
+    /**
+     * Email of every contact the test writes, so they can be selected and cleaned up together
+     */
+    private static final String EMAIL = "notification.test@example.com";
+
+    /**
+     * Number of rows written by the bulk insert and the batch
+     */
+    private static final int BATCH_SIZE = 20;
+
+    /**
+     * Longest wait for the expected notifications to arrive
+     */
+    private static final long TIMEOUT_MILLIS = 5000;
+
+    /**
+     * Time to wait after the expected notifications for any extra ones
+     */
+    private static final long QUIET_MILLIS = 500;
+
+    private ContentResolver mResolver;
+
+    private UriRecorder mContacts;
+
+    private UriRecorder mGroups;
+
+    @Before
+    public void setUp() {
+        mResolver = InstrumentationRegistry.getTargetContext().getContentResolver();
+        mContacts = new UriRecorder();
+        mGroups = new UriRecorder();
+        mResolver.registerContentObserver(ContactEntry.CONTENT_URI, true, mContacts);
+        mResolver.registerContentObserver(GroupEntry.CONTENT_URI, true, mGroups);
+    }
+
+    @After
+    public void tearDown() {
+        mResolver.unregisterContentObserver(mContacts);
+        mResolver.unregisterContentObserver(mGroups);
+        mResolver.delete(ContactEntry.CONTENT_URI, ContactEntry.COLUMN_CONTACT_EMAIL + "=?", new String[]{EMAIL});
+    }
+
+    @Test
+    public void insertNotifiesOnce() {
+        Uri uri = mResolver.insert(ContactEntry.CONTENT_URI, contactValues("Notify Insert"));
+        assertNotNull(uri);
+
+        List<Uri> changes = mContacts.await(1);
+        assertEquals(1, changes.size());
+        assertArrayEquals(new long[]{ContentUris.parseId(uri)}, ContactEntry.getChangedIds(changes.get(0)));
+
+        // A new contact isn't in any group
+        assertEquals(0, mGroups.await(0).size());
+    }
+
+    @Test
+    public void updateByIdNotifiesOnce() {
+        Uri uri = insertContact("Notify Update");
+
+        ContentValues values = new ContentValues();
+        values.put(ContactEntry.COLUMN_CONTACT_NAME, "Notify Update 2");
+        assertEquals(1, mResolver.update(uri, values, null, null));
+
+        List<Uri> changes = mContacts.await(1);
+        assertEquals(1, changes.size());
+        assertArrayEquals(new long[]{ContentUris.parseId(uri)}, ContactEntry.getChangedIds(changes.get(0)));
+    }
+
+    @Test
+    public void updateBySelectionNotifiesOnce() {
+        long[] ids = new long[3];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = ContentUris.parseId(insertContact("Notify Selection " + i));
+        }
+
+        ContentValues values = new ContentValues();
+        values.put(ContactEntry.COLUMN_CONTACT_NAME, "Notify Selection");
+        assertEquals(ids.length, mResolver.update(ContactEntry.CONTENT_URI, values,
+                ContactEntry.COLUMN_CONTACT_EMAIL + "=?", new String[]{EMAIL}));
+
+        List<Uri> changes = mContacts.await(1);
+        assertEquals(1, changes.size());
+        long[] changedIds = ContactEntry.getChangedIds(changes.get(0));
+        assertNotNull(changedIds);
+        assertEquals(ids.length, changedIds.length);
+    }
+
+    @Test
+    public void bulkInsertNotifiesOnce() {
+        ContentValues[] rows = new ContentValues[BATCH_SIZE];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = contactValues("Notify Bulk " + i);
+        }
+        assertEquals(BATCH_SIZE, mResolver.bulkInsert(ContactEntry.CONTENT_URI, rows));
+
+        List<Uri> changes = mContacts.await(1);
+        assertEquals(1, changes.size());
+        long[] changedIds = ContactEntry.getChangedIds(changes.get(0));
+        assertNotNull(changedIds);
+        assertEquals(BATCH_SIZE, changedIds.length);
+        assertEquals(0, mGroups.await(0).size());
+    }
+
+    @Test
+    public void applyBatchNotifiesOnce() throws Exception {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            Uri uri = insertContact("Notify Batch " + i);
+            operations.add(ContentProviderOperation.newUpdate(uri)
+                    .withValue(ContactEntry.COLUMN_CONTACT_NAME, "Notify Batch " + i + " edited")
+                    .build());
+        }
+        mResolver.applyBatch(ContactContract.CONTENT_AUTHORITY, operations);
+
+        List<Uri> changes = mContacts.await(1);
+        assertEquals(1, changes.size());
+        long[] changedIds = ContactEntry.getChangedIds(changes.get(0));
+        assertNotNull(changedIds);
+        assertEquals(BATCH_SIZE, changedIds.length);
+    }
+
+    /**
+     * Insert a contact and wait for its notification, so it isn't counted with the write under
+     * test.
+     */
+    private Uri insertContact(String name) {
+        Uri uri = mResolver.insert(ContactEntry.CONTENT_URI, contactValues(name));
+        assertNotNull(uri);
+        mContacts.await(1);
+        mContacts.clear();
+        return uri;
+    }
+
+    private static ContentValues contactValues(String name) {
+        ContentValues values = new ContentValues();
+        values.put(ContactEntry.COLUMN_CONTACT_NAME, name);
+        values.put(ContactEntry.COLUMN_CONTACT_EMAIL, EMAIL);
+        values.put(ContactEntry.COLUMN_CONTACT_GENDER, ContactEntry.GENDER.UNKNOWN.ordinal());
+        values.put(ContactEntry.COLUMN_CONTACT_NUMBER, "9000000000");
+        return values;
+    }
+
+    /**
+     * Records the URI of every onChange() call, which arrive on a binder thread.
+     */
+    private static final class UriRecorder extends ContentObserver {
+
+        private final ArrayList<Uri> mUris = new ArrayList<>();
+
+        UriRecorder() {
+            super(null);
+        }
+
+        @Override
+        public void onChange(boolean selfChange) {
+            onChange(selfChange, null);
+        }
+
+        @Override
+        public void onChange(boolean selfChange, Uri uri) {
+            synchronized (this) {
+                mUris.add(uri);
+                notifyAll();
+            }
+        }
+
+        /**
+         * Wait for the given number of notifications, then a little longer for any extra
+         * ones, and return all of them.
+         */
+        synchronized List<Uri> await(int count) {
+            long deadline = SystemClock.uptimeMillis() + TIMEOUT_MILLIS;
+            while (mUris.size() < count && SystemClock.uptimeMillis() < deadline) {
+                waitUntil(deadline);
+            }
+            long quietEnd = SystemClock.uptimeMillis() + QUIET_MILLIS;
+            while (SystemClock.uptimeMillis() < quietEnd) {
+                waitUntil(quietEnd);
+            }
+            return new ArrayList<>(mUris);
+        }
+
+        synchronized void clear() {
+            mUris.clear();
+        }
+
+        private void waitUntil(long time) {
+            long delay = time - SystemClock.uptimeMillis();
+            if (delay <= 0) {
+                return;
+            }
+            try {
+                wait(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new AssertionError(e);
+            }
+        }
+    }
+}
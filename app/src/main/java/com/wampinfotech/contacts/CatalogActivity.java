@@ -18,37 +18,79 @@ package com.wampinfotech.contacts;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Intent;
-import android.database.Cursor;
 import android.net.Uri;
+import android.os.Build;
 import android.os.Bundle;
-import android.support.annotation.NonNull;
-import android.support.annotation.Nullable;
+import android.os.Process;
+import android.os.SystemClock;
 import android.support.design.widget.FloatingActionButton;
-import android.support.v4.app.LoaderManager;
-import android.support.v4.content.CursorLoader;
-import android.support.v4.content.Loader;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.util.ListUpdateCallback;
+import android.support.v7.widget.DividerItemDecoration;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
 import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
-import android.widget.AdapterView;
-import android.widget.ListView;
+import android.view.ViewTreeObserver;
 
 import com.wampinfotech.contacts.data.ContactContract.ContactEntry;
+import com.wampinfotech.contacts.data.ContactSnapshotFile;
+import com.wampinfotech.contacts.data.ContactWriteQueue;
 
 /**
  * Displays list of pets that were entered and stored in the app.
  */
-public class CatalogActivity extends AppCompatActivity implements LoaderManager.LoaderCallbacks<Cursor> {
+public class CatalogActivity extends AppCompatActivity
+        implements ListUpdateCallback, ContactCursorAdaptor.OnContactClickListener,
+        ContactPagingSource.OnSectionsChangedListener, SectionIndexBar.OnSectionSelectedListener {
 
-    private static final int CONTACT_LOADER = 0;
+    /**
+     * Tag for the log messages
+     */
+    private static final String LOG_TAG = CatalogActivity.class.getSimpleName();
+
+    /**
+     * Whether no catalog has been created in this process yet, so the next one is part of a
+     * cold start
+     */
+    private static boolean sColdStart = true;
+
+    /**
+     * Uptime at which the launch of this activity started: the start of the process on a cold
+     * start, otherwise the creation of the activity
+     */
+    private long _LaunchTime;
+
+    /**
+     * Whether the time to the first drawn row has been logged
+     */
+    private boolean _FirstRowTimed;
+
+    /**
+     * Whether the time to the first reload has been logged and reported as fully drawn
+     */
+    private boolean _FullyDrawnTimed;
+
+    private RecyclerView _ContactListView;
+
+    private ContactPagingSource _PagingSource;
+
+    private LinearLayoutManager _LayoutManager;
+
+    private SectionIndexBar _SectionIndexBar;
 
     private ContactCursorAdaptor _CursorAdaptor;
 
+    private View _EmptyView;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        _LaunchTime = sColdStart && Build.VERSION.SDK_INT >= Build.VERSION_CODES.N
+                ? Process.getStartUptimeMillis() : SystemClock.uptimeMillis();
+        sColdStart = false;
         setContentView(R.layout.activity_catalog);
 
         // Setup FAB to open EditorActivity
@@ -61,42 +103,39 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
             }
         });
 
-        // Find the ListView which will be populated with the contact data
-        ListView contactListView = findViewById(R.id.list_view);
-
-        // Find and set empty on the ListView, so that it only shows when the list has 0 items.
-        View emptyView = findViewById(R.id.empty_view);
-        contactListView.setEmptyView(emptyView);
-
-        // Setup an Adaptor to create a list item for each row of contact data in the Cursor
-        // There is no contact data yet (until the loader finished) so pass in null for the Cursor.
-        _CursorAdaptor = new ContactCursorAdaptor(this);
-        contactListView.setAdapter(_CursorAdaptor);
+        // Find the RecyclerView which will be populated with the contact data
+        RecyclerView contactListView = findViewById(R.id.list_view);
+        _ContactListView = contactListView;
+        _LayoutManager = new LinearLayoutManager(this);
+        contactListView.setLayoutManager(_LayoutManager);
+        contactListView.addItemDecoration(new DividerItemDecoration(this, _LayoutManager.getOrientation()));
 
-        // Setup item click listener
-        contactListView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
-            @Override
-            public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
-                // Create new Intent to go to {@link EditorActivity}
-                Intent intent = new Intent(CatalogActivity.this, EditorActivity.class);
+        // The fast scroller stays hidden until the sections are known
+        _SectionIndexBar = findViewById(R.id.section_index_bar);
+        _SectionIndexBar.setOnSectionSelectedListener(this);
+        _SectionIndexBar.setSections(ContactSectionIndex.EMPTY);
 
-                // Form the content URI that represent the specific contact that was clicked on,
-                // by appending the "id" (passed as input to this method) onto the
-                // {@link ContactEntry#CONTENT_URI},
-                // For example, the URI would be "content://com.wampinfotech.contacts/contacts/2"
-                // If the pet with ID 2 was clicked on.
-                Uri currentContactUri = ContentUris.withAppendedId(ContactEntry.CONTENT_URI, id);
+        // Find the empty view, which is only shown when the list has 0 items.
+        _EmptyView = findViewById(R.id.empty_view);
 
-                // Set the URI on the data field of the intent
-                intent.setData(currentContactUri);
+        // Setup an Adaptor to create a list item for each row of contact data.
+        // The paging source has no rows yet, until its first page has been loaded.
+        _PagingSource = new ContactPagingSource(getContentResolver(), this,
+                ContactSnapshotFile.get(this));
+        _PagingSource.setOnSectionsChangedListener(this);
+        _CursorAdaptor = new ContactCursorAdaptor(this, _PagingSource, this);
+        contactListView.setAdapter(_CursorAdaptor);
 
-                // Launch the {@link EditorActivity} to display the data for the current contact.
-                startActivity(intent);
-            }
-        });
+        // Show the first screen of the last launch, if it was saved, and start loading the
+        // first page, while the provider is still opening the database
+        _PagingSource.start();
+        _SectionIndexBar.setSections(_PagingSource.getSections());
+    }
 
-        // Kick off the loader
-        getSupportLoaderManager().initLoader(CONTACT_LOADER, null, this);
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        _PagingSource.close();
     }
 
 
@@ -115,8 +154,8 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
         // Insert a new row for Terminous into the provider using the ContentResolver.
         // Use the {@link ContactEntry#CONTENT_URI} to indicate that we want to insert
         // into the pets database table.
-        // Receive the new content URI that will allow us to access Toto's data in the future.
-        getContentResolver().insert(ContactEntry.CONTENT_URI, values);
+        // The insert runs in the background, and the list picks the new contact up once it's done.
+        ContactWriteQueue.getInstance(this).insert(ContactEntry.CONTENT_URI, values, null);
     }
 
     @Override
@@ -143,43 +182,121 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
         return super.onOptionsItemSelected(item);
     }
 
-    @NonNull
     @Override
-    public Loader<Cursor> onCreateLoader(int i, @Nullable Bundle bundle) {
-        // Define a projection that specifies the columns from the table we care about.
-        String[] projection = {
-                ContactEntry._ID,
-                ContactEntry.COLUMN_CONTACT_NAME,
-                ContactEntry.COLUMN_CONTACT_EMAIL
-        };
-
-        // This loader will execute the ContentProvider's query method on a background thread
-        return new CursorLoader(this,   // Parent Activity context
-                ContactEntry.CONTENT_URI,       // Provider content URI to query
-                projection,                     // Columns to include in the resulting Cursor
-                null,                  // No selection clause
-                null,               // No selection arguments
-                null);                 // Default sort order
+    public void onContactClick(long id) {
+        // Create new Intent to go to {@link EditorActivity}
+        Intent intent = new Intent(CatalogActivity.this, EditorActivity.class);
+
+        // Form the content URI that represent the specific contact that was clicked on,
+        // by appending the "id" (passed as input to this method) onto the
+        // {@link ContactEntry#CONTENT_URI},
+        // For example, the URI would be "content://com.wampinfotech.contacts/contacts/2"
+        // If the pet with ID 2 was clicked on.
+        Uri currentContactUri = ContentUris.withAppendedId(ContactEntry.CONTENT_URI, id);
+
+        // Set the URI on the data field of the intent
+        intent.setData(currentContactUri);
+
+        // Launch the {@link EditorActivity} to display the data for the current contact.
+        startActivity(intent);
+    }
+
+    // The paging source reports its updates through the methods below, which forward them
+    // to {@link ContactCursorAdaptor} so only the affected rows are rebound.
+
+    @Override
+    public void onInserted(int position, int count) {
+        _CursorAdaptor.notifyItemRangeInserted(position, count);
+        updateEmptyView();
+        timeFirstRow();
     }
 
     @Override
-    public void onLoadFinished(@NonNull Loader<Cursor> loader, Cursor cursor) {
-        // Update {@link ContactCursorAdapter} with this new cursor containing updated contact data
-        _CursorAdaptor.swapCursor(cursor);
+    public void onRemoved(int position, int count) {
+        _CursorAdaptor.notifyItemRangeRemoved(position, count);
+        updateEmptyView();
     }
 
     @Override
-    public void onLoaderReset(@NonNull Loader<Cursor> loader) {
-        // Callback called when the data needs to be deleted
-        _CursorAdaptor.swapCursor(null);
+    public void onMoved(int fromPosition, int toPosition) {
+        _CursorAdaptor.notifyItemMoved(fromPosition, toPosition);
+    }
+
+    @Override
+    public void onChanged(int position, int count, Object payload) {
+        _CursorAdaptor.notifyItemRangeChanged(position, count, payload);
+        timeFirstRow();
+    }
+
+    @Override
+    public void onSectionsChanged(ContactSectionIndex sections) {
+        _SectionIndexBar.setSections(sections);
+
+        // The first reload has replaced the snapshot, if any, with the rows of the database
+        if (!_FullyDrawnTimed) {
+            _FullyDrawnTimed = true;
+            logWhenDrawn("First page of the database", true);
+        }
+    }
+
+    /**
+     * Log the time to the first drawn row once the first rows of the list, from the snapshot
+     * or the database, have been loaded.
+     */
+    private void timeFirstRow() {
+        if (!_FirstRowTimed && _PagingSource.moveToPosition(0) != null) {
+            _FirstRowTimed = true;
+            logWhenDrawn("First row", false);
+        }
+    }
+
+    /**
+     * Log the time since the launch once the next frame of the list is drawn, and if it's fully
+     * drawn, report it as such so the platform records the time in its launch statistics too.
+     * Both show up in logcat, so cold starts can be timed with
+     * {@code adb shell am force-stop} followed by {@code adb shell am start -W}.
+     */
+    private void logWhenDrawn(final String what, final boolean fullyDrawn) {
+        _ContactListView.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                _ContactListView.getViewTreeObserver().removeOnPreDrawListener(this);
+                Log.i(LOG_TAG, what + " drawn " + (SystemClock.uptimeMillis() - _LaunchTime) + " ms after launch");
+                if (fullyDrawn && Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+                    reportFullyDrawn();
+                }
+                return true;
+            }
+        });
+    }
+
+    @Override
+    public void onSectionSelected(int section) {
+        // Put the first contact of the section at the top; its page is fetched as it's bound
+        ContactSectionIndex sections = _PagingSource.getSections();
+        if (section < sections.getSectionCount()) {
+            _LayoutManager.scrollToPositionWithOffset(sections.getPositionForSection(section), 0);
+        }
+    }
+
+    /**
+     * Show the empty view only while the list has 0 items.
+     */
+    private void updateEmptyView() {
+        _EmptyView.setVisibility(_CursorAdaptor.getItemCount() == 0 ? View.VISIBLE : View.GONE);
     }
 
     /**
      * Helper method to delete all contacts in the database.
      */
     private void deleteAllContacts() {
-        int rowsDeleted = getContentResolver().delete(ContactEntry.CONTENT_URI, null, null);
-        Log.v("CatalogActivity", rowsDeleted + " rows deleted from contact database");
+        ContactWriteQueue.getInstance(this).delete(ContactEntry.CONTENT_URI, null, null,
+                new ContactWriteQueue.Callback() {
+                    @Override
+                    public void onWriteComplete(Uri uri, int rowsDeleted) {
+                        Log.v(LOG_TAG, rowsDeleted + " rows deleted from contact database");
+                    }
+                });
     }
 
 }
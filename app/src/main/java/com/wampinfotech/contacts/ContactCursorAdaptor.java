@@ -1,73 +1,175 @@
 package com.wampinfotech.contacts;
 
 import android.content.Context;
+import android.database.CharArrayBuffer;
 import android.database.Cursor;
-import android.text.TextUtils;
+import android.support.annotation.NonNull;
+import android.support.v7.widget.RecyclerView;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.CursorAdapter;
 import android.widget.TextView;
 
-import com.wampinfotech.contacts.data.ContactContract.ContactEntry;
+import com.wampinfotech.contacts.data.ContactCursorReader;
 
 /**
- * {@link ContactCursorAdaptor} is an adapter for a list or grid view
- * that uses a {@link Cursor} of pet data as its data source. This adapter knows
- * how to create list items for each row of pet data in the {@link Cursor}.
+ * {@link ContactCursorAdaptor} is a {@link RecyclerView} adapter that uses the page cursors of a
+ * {@link ContactPagingSource} as its data source. This adapter knows how to create list items
+ * for each row of contact data in those cursors. Rows whose page hasn't been loaded yet are shown
+ * blank until it arrives.
+ * <p>
+ * Items have no stable ids: the _ID of a row isn't known until its page has loaded, and asking
+ * for it would load the page. The paging source reports every change through the moves,
+ * insertions and removals of its {@link android.support.v7.util.DiffUtil} results instead.
  */
-class ContactCursorAdaptor extends CursorAdapter {
+class ContactCursorAdaptor extends RecyclerView.Adapter<ContactCursorAdaptor.ContactViewHolder> {
+
+    /**
+     * Listens for clicks on the contacts of the list.
+     */
+    interface OnContactClickListener {
+        /**
+         * Called when the contact with the given _ID was clicked.
+         */
+        void onContactClick(long id);
+    }
+
+    private final LayoutInflater _Inflater;
+
+    private final ContactPagingSource _PagingSource;
+
+    private final OnContactClickListener _ClickListener;
+
+    /**
+     * Text shown for contacts without an email
+     */
+    private final String _UnknownEmail;
+
+    /**
+     * Reads the rows of the page cursors, resolving the column indexes once per cursor
+     */
+    private final ContactCursorReader _Reader = new ContactCursorReader();
 
     /**
      * Constructs a new {@link ContactCursorAdaptor}.
-     *  @param context The context
      *
+     * @param context       The context
+     * @param pagingSource  The source of the contact rows
+     * @param clickListener Notified when a contact is clicked
      */
-    ContactCursorAdaptor(Context context) {
-        super(context, null, 0 /* flags */);
+    ContactCursorAdaptor(Context context, ContactPagingSource pagingSource, OnContactClickListener clickListener) {
+        _Inflater = LayoutInflater.from(context);
+        _PagingSource = pagingSource;
+        _ClickListener = clickListener;
+        _UnknownEmail = context.getString(R.string.unknown_email);
+    }
+
+    @Override
+    public int getItemCount() {
+        return _PagingSource.getCount();
     }
 
     /**
      * Makes a new blank list item view. No data is set (or bound) to the views yet.
-     *
-     * @param context app context
-     * @param cursor  The cursor from which to get the data. The cursor is already
-     *                moved to the correct position.
-     * @param parent  The parent to which the new view is attached to
-     * @return the newly created list item view.
      */
+    @NonNull
     @Override
-    public View newView(Context context, Cursor cursor, ViewGroup parent) {
-        return LayoutInflater.from(context).inflate(R.layout.list_item, parent, false);
+    public ContactViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        return new ContactViewHolder(_Inflater.inflate(R.layout.list_item, parent, false));
     }
 
     /**
-     * This method binds the pet data (in the current row pointed to by cursor) to the given
-     * list item layout. For example, the name for the current pet can be set on the name TextView
-     * in the list item layout.
-     *
-     * @param view    Existing view, returned earlier by newView() method
-     * @param context app context
-     * @param cursor  The cursor from which to get the data. The cursor is already moved to the
-     *                correct row.
+     * This method binds the contact data at the given position to the list item layout of the
+     * given holder. For example, the name for the current contact is set on the name TextView.
      */
     @Override
-    public void bindView(View view, Context context, Cursor cursor) {
-        // Find fields to populate in inflated template
-        TextView nameView = view.findViewById(R.id.contact_name);
-        TextView emailView = view.findViewById(R.id.contact_summary);
-        // Extract properties from cursor
-        String name = cursor.getString(cursor.getColumnIndexOrThrow(ContactEntry.COLUMN_CONTACT_NAME));
-        String email = cursor.getString(cursor.getColumnIndexOrThrow(ContactEntry.COLUMN_CONTACT_EMAIL));
+    public void onBindViewHolder(@NonNull ContactViewHolder holder, int position) {
+        // Show the section header above the first contact of every section. The sections are
+        // known for every position, so headers show up before the rows are loaded.
+        ContactSectionIndex sections = _PagingSource.getSections();
+        if (sections.isSectionStart(position)) {
+            holder.sectionView.setText(sections.getLabel(sections.getSectionForPosition(position)));
+            holder.sectionView.setVisibility(View.VISIBLE);
+        } else {
+            holder.sectionView.setVisibility(View.GONE);
+        }
+
+        Cursor cursor = moveToPosition(position);
+        if (cursor == null) {
+            // The page is still being loaded, so leave the item blank for now
+            holder.contactId = RecyclerView.NO_ID;
+            holder.nameView.setText(null);
+            holder.emailView.setText(null);
+            return;
+        }
+        holder.contactId = _Reader.getId();
+
+        // Copy the properties from the cursor into the holder's buffers, which are reused
+        // from row to row, and update the TextViews with them
+        _Reader.copyName(holder.nameBuffer);
+        holder.nameView.setText(holder.nameBuffer.data, 0, holder.nameBuffer.sizeCopied);
 
         // If the contact email is empty string or null, then use some default text
         // that says "Unknown email", so the TextView isn't blank.
-        if (TextUtils.isEmpty(email)) {
-            email = context.getString(R.string.unknown_email);
+        _Reader.copyEmail(holder.emailBuffer);
+        if (holder.emailBuffer.sizeCopied == 0) {
+            holder.emailView.setText(_UnknownEmail);
+        } else {
+            holder.emailView.setText(holder.emailBuffer.data, 0, holder.emailBuffer.sizeCopied);
+        }
+    }
+
+    /**
+     * Returns the page cursor moved to the given position, or null if it isn't loaded yet.
+     * The reader is pointed at the cursor, which resolves its columns the first time.
+     */
+    private Cursor moveToPosition(int position) {
+        Cursor cursor = _PagingSource.moveToPosition(position);
+        if (cursor != null) {
+            _Reader.setCursor(cursor);
+        }
+        return cursor;
+    }
+
+    /**
+     * Holds the views of a list item, so they are looked up only once.
+     */
+    class ContactViewHolder extends RecyclerView.ViewHolder implements View.OnClickListener {
+
+        final TextView sectionView;
+
+        final TextView nameView;
+
+        final TextView emailView;
+
+        /**
+         * Buffers the name and email are copied into, so binding a row allocates no strings
+         */
+        final CharArrayBuffer nameBuffer = new CharArrayBuffer(64);
+
+        final CharArrayBuffer emailBuffer = new CharArrayBuffer(64);
+
+        /**
+         * _ID of the contact bound to the holder, or {@link RecyclerView#NO_ID} while its page is
+         * being loaded
+         */
+        long contactId = RecyclerView.NO_ID;
+
+        ContactViewHolder(View itemView) {
+            super(itemView);
+            sectionView = itemView.findViewById(R.id.contact_section);
+            nameView = itemView.findViewById(R.id.contact_name);
+            emailView = itemView.findViewById(R.id.contact_summary);
+            // Only the contact itself is clickable, not its section header
+            itemView.findViewById(R.id.contact_content).setOnClickListener(this);
         }
 
-        // Update the TextViews with the attributes for the current contact
-        nameView.setText(name);
-        emailView.setText(email);
+        @Override
+        public void onClick(View view) {
+            // Ignore clicks on rows that are still being loaded
+            if (getAdapterPosition() != RecyclerView.NO_POSITION && contactId != RecyclerView.NO_ID) {
+                _ClickListener.onContactClick(contactId);
+            }
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,841 @@
+package com.wampinfotech.contacts;
+
+import android.content.ContentResolver;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.util.ListUpdateCallback;
+import android.text.TextUtils;
+import android.util.SparseArray;
+
+import com.wampinfotech.contacts.data.ContactContract.ContactEntry;
+import com.wampinfotech.contacts.data.ContactSnapshotFile;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * {@link ContactPagingSource} loads the list of contacts page by page, sorted by name, using the
+ * keyset paging supported by the contact provider. Pages are fetched on a background thread the
+ * first time they are needed, and only the {@link #MAX_LOADED_PAGES} most recently used pages are
+ * kept open, so memory stays bounded no matter how many contacts there are.
+ * <p>
+ * The number of contacts and their alphabetical sections are read up front with one grouped
+ * query, so the whole list can be scrolled, or jumped into at any section, right away. A page
+ * that follows an open page starts after that page's last row; any other page first looks up
+ * the row before it by offset.
+ * <p>
+ * Changes are reported as fine-grained list updates. When the contacts change, the rows of the
+ * open pages are diffed against their new contents on the background thread, so a single edited
+ * contact on screen updates a single row. The provider sends one notification per write or
+ * batch, naming the changed contacts while they are few. When they are all shown in the same
+ * open page and keep their places in the list, only that page is requeried instead of all
+ * pages.
+ * <p>
+ * The first page is saved to a {@link ContactSnapshot} after every reload or refresh. On start,
+ * the saved snapshot is shown right away, while the database is still being opened, and the
+ * first reload diffs it against the actual rows. A snapshot is only saved if the provider hasn't
+ * written since its rows were queried, see {@link ContactSnapshotFile}.
+ * <p>
+ * All methods must be called on the main thread.
+ */
+class ContactPagingSource {
+
+    /**
+     * Number of rows in a page
+     */
+    static final int PAGE_SIZE = 50;
+
+    /**
+     * Maximum number of pages kept open at once
+     */
+    private static final int MAX_LOADED_PAGES = 8;
+
+    /**
+     * When a row this close to either end of its page is read, the page next to it is fetched
+     */
+    private static final int PREFETCH_DISTANCE = PAGE_SIZE / 2;
+
+    /**
+     * Columns of the contacts table shown in the catalog
+     */
+    private static final String[] PROJECTION = {
+            ContactEntry._ID,
+            ContactEntry.COLUMN_CONTACT_NAME,
+            ContactEntry.COLUMN_CONTACT_EMAIL
+    };
+
+    /**
+     * Columns of the key of a row
+     */
+    private static final String[] KEY_PROJECTION = {
+            ContactEntry._ID,
+            ContactEntry.COLUMN_CONTACT_NAME
+    };
+
+    /**
+     * Receives the sections of the contacts whenever they change.
+     */
+    interface OnSectionsChangedListener {
+        /**
+         * Called on the main thread after the list updates of a reload have been reported.
+         */
+        void onSectionsChanged(ContactSectionIndex sections);
+    }
+
+    private final ContentResolver _ContentResolver;
+
+    /**
+     * Receives the list updates, on the main thread
+     */
+    private final ListUpdateCallback _UpdateCallback;
+
+    private final Handler _MainHandler = new Handler(Looper.getMainLooper());
+
+    private final ExecutorService _Executor = Executors.newSingleThreadExecutor();
+
+    /**
+     * File the snapshot of the first page is kept in
+     */
+    private final File _SnapshotFile;
+
+    /**
+     * Open page cursors by page index, in least recently used order
+     */
+    private final LinkedHashMap<Integer, Cursor> _Pages = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * Key of the row each page starts after, for the pages whose start is known. The first
+     * page starts at the top, so it has no key.
+     */
+    private SparseArray<PageKey> _PageStartKeys = new SparseArray<>();
+
+    /**
+     * Pages currently being fetched
+     */
+    private final HashSet<Integer> _PendingPages = new HashSet<>();
+
+    /**
+     * Sections of the contacts as of the last reload
+     */
+    private ContactSectionIndex _Sections = ContactSectionIndex.EMPTY;
+
+    /**
+     * Number of rows in the list, as of the last reload
+     */
+    private int _Count;
+
+    private OnSectionsChangedListener _SectionsListener;
+
+    /**
+     * Incremented every time the pages are reloaded, so results of earlier fetches are dropped
+     */
+    private int _Generation;
+
+    /**
+     * Whether a reload is in progress. Pages aren't fetched meanwhile, since their keys are
+     * about to be replaced.
+     */
+    private boolean _Reloading;
+
+    private boolean _Closed;
+
+    private final ContentObserver _Observer = new ContentObserver(_MainHandler) {
+        @Override
+        public void onChange(boolean selfChange) {
+            reload();
+        }
+
+        @Override
+        public void onChange(boolean selfChange, Uri uri) {
+            long[] ids = ContactEntry.getChangedIds(uri);
+            if (ids == null || !refreshContacts(ids)) {
+                reload();
+            }
+        }
+    };
+
+    /**
+     * Constructs a new {@link ContactPagingSource}.
+     *
+     * @param contentResolver used to query the contacts
+     * @param updateCallback  notified on the main thread whenever rows are loaded or change
+     * @param snapshotFile    file the snapshot of the first page is kept in between launches
+     */
+    ContactPagingSource(ContentResolver contentResolver, ListUpdateCallback updateCallback, File snapshotFile) {
+        _ContentResolver = contentResolver;
+        _UpdateCallback = updateCallback;
+        _SnapshotFile = snapshotFile;
+    }
+
+    /**
+     * Set the listener notified when the sections change.
+     */
+    void setOnSectionsChangedListener(OnSectionsChangedListener listener) {
+        _SectionsListener = listener;
+    }
+
+    /**
+     * Show the snapshot of the first page, if there is one, then load the first page and start
+     * following changes to the contacts. The rows and sections of the snapshot are reported
+     * before this returns.
+     */
+    void start() {
+        _ContentResolver.registerContentObserver(ContactEntry.CONTENT_URI, true, _Observer);
+        showSnapshot();
+        reload();
+    }
+
+    /**
+     * Open the snapshot of the first page as page 0 and report its rows as inserted. The
+     * snapshot is a few kilobytes, read faster than the database could be opened.
+     */
+    private void showSnapshot() {
+        ContactSnapshot snapshot = ContactSnapshot.read(_SnapshotFile);
+        if (snapshot == null || snapshot.getCount() == 0) {
+            return;
+        }
+        putPage(0, snapshot.toCursor(PROJECTION));
+        _Sections = snapshot.sections;
+        _Count = snapshot.getCount();
+        _UpdateCallback.onInserted(0, _Count);
+    }
+
+    /**
+     * Save the first page, if it's open, along with the sections, to be shown on the next
+     * start. The file is written on the background thread, and only put in place if the
+     * provider hasn't written since the given write count, which was read before the rows were.
+     */
+    private void saveSnapshot(final long writeCount) {
+        Cursor page = _Pages.get(0);
+        if (page == null) {
+            return;
+        }
+        ArrayList<ContactRow> rows = new ArrayList<>(page.getCount());
+        readRows(page, rows);
+        final ContactSnapshot snapshot = new ContactSnapshot(_Sections, rows);
+        _Executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                snapshot.write(_SnapshotFile, writeCount);
+            }
+        });
+    }
+
+    /**
+     * Stop following changes, close all open pages and shut the background thread down.
+     */
+    void close() {
+        _Closed = true;
+        _Generation++;
+        _ContentResolver.unregisterContentObserver(_Observer);
+        _Executor.shutdown();
+        for (Cursor page : _Pages.values()) {
+            page.close();
+        }
+        _Pages.clear();
+    }
+
+    /**
+     * Returns the number of contacts.
+     */
+    int getCount() {
+        return _Count;
+    }
+
+    /**
+     * Returns the alphabetical sections of the contacts.
+     */
+    ContactSectionIndex getSections() {
+        return _Sections;
+    }
+
+    /**
+     * Returns the page cursor moved to the row at the given position, or null if that row's
+     * page isn't loaded yet. In that case the page is fetched and the row is reported as changed
+     * once it's there. The returned cursor stays valid until the next call into this class.
+     */
+    Cursor moveToPosition(int position) {
+        int pageIndex = position / PAGE_SIZE;
+        int pagePosition = position - pageIndex * PAGE_SIZE;
+
+        // Fetch the page in the direction of scrolling ahead of time when getting close to
+        // either end of this one
+        if (pagePosition >= PAGE_SIZE - PREFETCH_DISTANCE) {
+            fetchPage(pageIndex + 1);
+        } else if (pagePosition < PREFETCH_DISTANCE && pageIndex > 0) {
+            fetchPage(pageIndex - 1);
+        }
+
+        Cursor page = _Pages.get(pageIndex);
+        if (page == null || !page.moveToPosition(pagePosition)) {
+            fetchPage(pageIndex);
+            return null;
+        }
+        return page;
+    }
+
+    /**
+     * Fetch the page with the given index on the background thread, unless it's past the end,
+     * already open or already being fetched. If the row the page starts after isn't known, it's
+     * looked up by its position first.
+     */
+    private void fetchPage(final int pageIndex) {
+        if (_Closed || _Reloading || pageIndex * PAGE_SIZE >= getCount() || _Pages.containsKey(pageIndex)
+                || !_PendingPages.add(pageIndex)) {
+            return;
+        }
+
+        final int generation = _Generation;
+        final boolean startKnown = pageIndex == 0 || _PageStartKeys.get(pageIndex) != null;
+        final PageKey knownStartKey = _PageStartKeys.get(pageIndex);
+        _Executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final PageKey startKey = startKnown ? knownStartKey : queryKeyAt(pageIndex * PAGE_SIZE - 1);
+                // Without a start key the contacts have shrunk since they were counted, and
+                // the reload on its way will sort the page out
+                final Cursor page = startKnown || startKey != null
+                        ? queryPage(startKey) : new MatrixCursor(PROJECTION, 0);
+                _MainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onPageFetched(generation, pageIndex, startKey, page);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Store a page fetched by {@link #fetchPage(int)}, and the start of the page after it.
+     */
+    private void onPageFetched(int generation, int pageIndex, PageKey startKey, Cursor page) {
+        if (generation != _Generation) {
+            // The pages were reloaded in the meantime, so this page may be out of date
+            page.close();
+            return;
+        }
+        _PendingPages.remove(pageIndex);
+
+        if (startKey != null) {
+            _PageStartKeys.put(pageIndex, startKey);
+        }
+        PageKey nextKey = lastKeyOf(page);
+        if (nextKey != null) {
+            _PageStartKeys.put(pageIndex + 1, nextKey);
+        }
+
+        // The rows of the page were shown blank until now
+        putPage(pageIndex, page);
+        int rows = Math.min(page.getCount(), getCount() - pageIndex * PAGE_SIZE);
+        if (rows > 0) {
+            _UpdateCallback.onChanged(pageIndex * PAGE_SIZE, rows, null);
+        }
+    }
+
+    /**
+     * Refresh the contacts with the given _IDs, if they are all shown in the same open page.
+     * Returns false if they aren't, in which case the caller has to reload all pages.
+     * <p>
+     * If a contact is gone or its name has changed, its position may have changed too, so the
+     * pages are reloaded after all. Otherwise only their page is requeried and diffed.
+     */
+    private boolean refreshContacts(final long[] ids) {
+        if (_Closed || _Reloading || ids.length == 0) {
+            return false;
+        }
+
+        // Find the open page that shows the contacts, and their names
+        int pageIndex = -1;
+        final String[] oldNames = new String[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            int idPageIndex = -1;
+            for (Map.Entry<Integer, Cursor> entry : _Pages.entrySet()) {
+                Cursor page = entry.getValue();
+                int position = findRow(page, ids[i]);
+                if (position >= 0) {
+                    idPageIndex = entry.getKey();
+                    oldNames[i] = page.getString(page.getColumnIndexOrThrow(ContactEntry.COLUMN_CONTACT_NAME));
+                    break;
+                }
+            }
+            if (idPageIndex < 0 || (pageIndex >= 0 && idPageIndex != pageIndex)) {
+                return false;
+            }
+            pageIndex = idPageIndex;
+        }
+
+        final int generation = _Generation;
+        final long writeCount = ContactSnapshotFile.getWriteCount();
+        final int refreshedPage = pageIndex;
+        final PageKey startKey = _PageStartKeys.get(pageIndex);
+        final ArrayList<ContactRow> oldRows = new ArrayList<>();
+        readRows(_Pages.get(pageIndex), oldRows);
+
+        _Executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                // Check that the contacts are all still there, under the same names
+                StringBuilder selection = new StringBuilder(ContactEntry._ID).append(" IN (");
+                for (int i = 0; i < ids.length; i++) {
+                    selection.append(i == 0 ? "" : ",").append(ids[i]);
+                }
+                selection.append(')');
+                Cursor contacts = _ContentResolver.query(ContactEntry.CONTENT_URI, KEY_PROJECTION,
+                        selection.toString(), null, null);
+                boolean samePositions = false;
+                if (contacts != null) {
+                    samePositions = contacts.getCount() == ids.length;
+                    while (samePositions && contacts.moveToNext()) {
+                        long id = contacts.getLong(contacts.getColumnIndexOrThrow(ContactEntry._ID));
+                        String name = contacts.getString(contacts.getColumnIndexOrThrow(ContactEntry.COLUMN_CONTACT_NAME));
+                        for (int i = 0; i < ids.length; i++) {
+                            if (ids[i] == id) {
+                                samePositions = TextUtils.equals(oldNames[i], name);
+                                break;
+                            }
+                        }
+                    }
+                    contacts.close();
+                }
+
+                final Cursor page = samePositions ? queryPage(startKey) : null;
+                final ArrayList<ContactRow> newRows = new ArrayList<>();
+                if (page != null) {
+                    readRows(page, newRows);
+                }
+                final DiffUtil.DiffResult diff = newRows.size() == oldRows.size()
+                        ? DiffUtil.calculateDiff(new RowDiffCallback(oldRows, newRows), false) : null;
+
+                _MainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onContactsRefreshed(generation, writeCount, refreshedPage, page, diff);
+                    }
+                });
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Returns the position of the row with the given _ID in the given page, leaving the page
+     * there, or -1 if the page doesn't show it.
+     */
+    private static int findRow(Cursor page, long id) {
+        int idColumnIndex = page.getColumnIndexOrThrow(ContactEntry._ID);
+        for (int i = 0; page.moveToPosition(i); i++) {
+            if (page.getLong(idColumnIndex) == id) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Store a page requeried by {@link #refreshContacts(long[])} and report its changed rows.
+     * Without a diff the rows have moved, so all pages are reloaded instead.
+     */
+    private void onContactsRefreshed(int generation, long writeCount, int pageIndex, Cursor page,
+                                    DiffUtil.DiffResult diff) {
+        if (generation != _Generation || _Reloading) {
+            // The pages are being reloaded anyway
+            if (page != null) {
+                page.close();
+            }
+            return;
+        }
+
+        if (page == null || diff == null) {
+            if (page != null) {
+                page.close();
+            }
+            reload();
+            return;
+        }
+
+        putPage(pageIndex, page);
+        diff.dispatchUpdatesTo(new OffsetUpdateCallback(_UpdateCallback, pageIndex * PAGE_SIZE));
+
+        // The write deleted the snapshot. The other open pages are still current, since the
+        // contacts kept their places.
+        saveSnapshot(writeCount);
+    }
+
+    /**
+     * Reload the sections and the open pages. The window from the first to the last open page
+     * is kept open afterwards, and its rows are diffed against their previous contents; the rows
+     * outside of it aren't shown, so they are simply reported as changed. Inserts and deletes
+     * shift rows across page boundaries, so the known page starts outside the window are
+     * dropped and looked up again when needed.
+     */
+    private void reload() {
+        if (_Closed) {
+            return;
+        }
+
+        final int generation = ++_Generation;
+        final long writeCount = ContactSnapshotFile.getWriteCount();
+        _Reloading = true;
+        _PendingPages.clear();
+
+        // Find the window of open pages, at most MAX_LOADED_PAGES long
+        int firstOpenPage = 0;
+        int lastOpenPage = 0;
+        if (!_Pages.isEmpty()) {
+            firstOpenPage = Integer.MAX_VALUE;
+            for (int pageIndex : _Pages.keySet()) {
+                firstOpenPage = Math.min(firstOpenPage, pageIndex);
+                lastOpenPage = Math.max(lastOpenPage, pageIndex);
+            }
+            firstOpenPage = Math.max(firstOpenPage, lastOpenPage - MAX_LOADED_PAGES + 1);
+        }
+        final int firstPage = firstOpenPage;
+        final int lastPage = lastOpenPage;
+        final int oldCount = getCount();
+        final ContactSectionIndex oldSections = _Sections;
+        final ArrayList<ContactRow> oldRows = readRows(firstPage, lastPage);
+
+        _Executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final ContactSectionIndex sections = querySections();
+                final SparseArray<PageKey> startKeys = new SparseArray<>();
+                final SparseArray<Cursor> pages = new SparseArray<>();
+                final ArrayList<ContactRow> newRows = new ArrayList<>();
+
+                // The first page of the window starts after the row before it, and every other
+                // page after the last row of the page before
+                PageKey startKey = firstPage == 0 ? null : queryKeyAt(firstPage * PAGE_SIZE - 1);
+                for (int i = firstPage; i <= lastPage && (i == 0 || startKey != null); i++) {
+                    if (startKey != null) {
+                        startKeys.put(i, startKey);
+                    }
+                    Cursor page = queryPage(startKey);
+                    readRows(page, newRows);
+                    pages.put(i, page);
+                    startKey = lastKeyOf(page);
+                }
+                if (startKey != null) {
+                    startKeys.put(lastPage + 1, startKey);
+                }
+
+                // Diff the window here rather than on the main thread
+                final DiffUtil.DiffResult diff = oldRows == null ? null
+                        : DiffUtil.calculateDiff(new RowDiffCallback(oldRows, newRows));
+
+                // A write between the queries can leave the count behind the rows just read;
+                // it triggers another reload anyway
+                final int newCount = Math.max(sections.getCount(), firstPage * PAGE_SIZE + newRows.size());
+                _MainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!onReloaded(generation, sections, newCount, startKeys, pages)) {
+                            return;
+                        }
+                        if (diff == null) {
+                            dispatchCoarseUpdates(oldCount, newCount);
+                        } else {
+                            dispatchWindowUpdates(oldCount, newCount, firstPage * PAGE_SIZE,
+                                    oldRows.size(), newRows.size(), diff);
+                            if (!sections.hasSameSections(oldSections)) {
+                                // Rows may have gained or lost their section header without
+                                // changing themselves
+                                _UpdateCallback.onChanged(firstPage * PAGE_SIZE,
+                                        Math.min(newRows.size(), newCount - firstPage * PAGE_SIZE), null);
+                            }
+                        }
+                        if (_SectionsListener != null) {
+                            _SectionsListener.onSectionsChanged(_Sections);
+                        }
+                        saveSnapshot(writeCount);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Replace the sections and all pages with the ones loaded by {@link #reload()}. Returns
+     * false if another reload has started in the meantime, in which case the given pages are
+     * dropped.
+     */
+    private boolean onReloaded(int generation, ContactSectionIndex sections, int count,
+                               SparseArray<PageKey> startKeys, SparseArray<Cursor> pages) {
+        if (generation != _Generation) {
+            for (int i = 0; i < pages.size(); i++) {
+                pages.valueAt(i).close();
+            }
+            return false;
+        }
+        _Reloading = false;
+
+        for (Cursor page : _Pages.values()) {
+            page.close();
+        }
+        _Pages.clear();
+        for (int i = 0; i < pages.size(); i++) {
+            putPage(pages.keyAt(i), pages.valueAt(i));
+        }
+
+        _PageStartKeys = startKeys;
+        _Sections = sections;
+        _Count = count;
+        return true;
+    }
+
+    /**
+     * Report the updates of a reload whose window was diffed: the diff for the window itself,
+     * and plain changes, insertions or removals around it.
+     */
+    private void dispatchWindowUpdates(int oldCount, int newCount, int windowStart,
+                                       int oldWindowSize, int newWindowSize, DiffUtil.DiffResult diff) {
+        if (newCount < windowStart) {
+            // The window is gone altogether
+            dispatchCoarseUpdates(oldCount, newCount);
+            return;
+        }
+
+        if (windowStart > 0) {
+            _UpdateCallback.onChanged(0, windowStart, null);
+        }
+
+        diff.dispatchUpdatesTo(new OffsetUpdateCallback(_UpdateCallback, windowStart));
+
+        int tailStart = windowStart + newWindowSize;
+        dispatchResize(tailStart, oldCount - windowStart - oldWindowSize, newCount - tailStart);
+    }
+
+    /**
+     * Report the updates of a reload whose window couldn't be diffed.
+     */
+    private void dispatchCoarseUpdates(int oldCount, int newCount) {
+        dispatchResize(0, oldCount, newCount);
+    }
+
+    /**
+     * Report that the rows starting at the given position changed from {@code oldSize} rows
+     * to {@code newSize} rows.
+     */
+    private void dispatchResize(int start, int oldSize, int newSize) {
+        int common = Math.min(oldSize, newSize);
+        if (common > 0) {
+            _UpdateCallback.onChanged(start, common, null);
+        }
+        if (newSize > oldSize) {
+            _UpdateCallback.onInserted(start + common, newSize - common);
+        } else if (oldSize > newSize) {
+            _UpdateCallback.onRemoved(start + common, oldSize - common);
+        }
+    }
+
+    /**
+     * Read the rows of the open pages from the first to the last given page, or return null if
+     * one of those pages isn't open.
+     */
+    private ArrayList<ContactRow> readRows(int firstPage, int lastPage) {
+        ArrayList<ContactRow> rows = new ArrayList<>();
+        for (int i = firstPage; i <= lastPage; i++) {
+            Cursor page = _Pages.get(i);
+            if (page == null) {
+                return getCount() == 0 ? rows : null;
+            }
+            readRows(page, rows);
+        }
+        return rows;
+    }
+
+    /**
+     * Add all rows of the given page to the list.
+     */
+    private static void readRows(Cursor page, ArrayList<ContactRow> rows) {
+        int idColumnIndex = page.getColumnIndexOrThrow(ContactEntry._ID);
+        int nameColumnIndex = page.getColumnIndexOrThrow(ContactEntry.COLUMN_CONTACT_NAME);
+        int emailColumnIndex = page.getColumnIndexOrThrow(ContactEntry.COLUMN_CONTACT_EMAIL);
+        for (int i = 0; page.moveToPosition(i); i++) {
+            rows.add(new ContactRow(page.getLong(idColumnIndex), page.getString(nameColumnIndex),
+                    page.getString(emailColumnIndex)));
+        }
+    }
+
+    /**
+     * Open the given page, closing the least recently used page if too many are open.
+     */
+    private void putPage(int pageIndex, Cursor page) {
+        Cursor previous = _Pages.put(pageIndex, page);
+        if (previous != null) {
+            previous.close();
+        }
+
+        Iterator<Map.Entry<Integer, Cursor>> iterator = _Pages.entrySet().iterator();
+        while (_Pages.size() > MAX_LOADED_PAGES && iterator.hasNext()) {
+            Map.Entry<Integer, Cursor> eldest = iterator.next();
+            if (eldest.getKey() != pageIndex) {
+                eldest.getValue().close();
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Query the page starting after the given key. Runs on the background thread.
+     */
+    private Cursor queryPage(PageKey startKey) {
+        Uri.Builder builder = ContactEntry.CONTENT_URI.buildUpon()
+                .appendQueryParameter(ContactEntry.QUERY_PARAMETER_LIMIT, String.valueOf(PAGE_SIZE));
+        if (startKey != null) {
+            builder.appendQueryParameter(ContactEntry.QUERY_PARAMETER_AFTER_NAME, startKey.name)
+                    .appendQueryParameter(ContactEntry.QUERY_PARAMETER_AFTER_ID, String.valueOf(startKey.id));
+        }
+
+        Cursor page = _ContentResolver.query(builder.build(), PROJECTION, null, null, ContactEntry.SORT_ORDER_BY_NAME);
+        if (page == null) {
+            return new MatrixCursor(PROJECTION, 0);
+        }
+
+        // Fill the cursor window here rather than on the main thread
+        page.getCount();
+        return page;
+    }
+
+    /**
+     * Look up the key of the row at the given position. Returns null if there is no such row.
+     * Runs on the background thread.
+     */
+    private PageKey queryKeyAt(int position) {
+        Uri uri = ContactEntry.CONTENT_URI.buildUpon()
+                .appendQueryParameter(ContactEntry.QUERY_PARAMETER_LIMIT, "1")
+                .appendQueryParameter(ContactEntry.QUERY_PARAMETER_OFFSET, String.valueOf(position))
+                .build();
+        Cursor cursor = _ContentResolver.query(uri, KEY_PROJECTION, null, null, ContactEntry.SORT_ORDER_BY_NAME);
+        if (cursor == null) {
+            return null;
+        }
+        try {
+            if (!cursor.moveToFirst()) {
+                return null;
+            }
+            return new PageKey(cursor.getString(cursor.getColumnIndexOrThrow(ContactEntry.COLUMN_CONTACT_NAME)),
+                    cursor.getLong(cursor.getColumnIndexOrThrow(ContactEntry._ID)));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Read the sections of the contacts. Runs on the background thread.
+     */
+    private ContactSectionIndex querySections() {
+        Cursor cursor = _ContentResolver.query(ContactEntry.CONTENT_SECTIONS_URI, null, null, null, null);
+        if (cursor == null) {
+            return ContactSectionIndex.EMPTY;
+        }
+        try {
+            return ContactSectionIndex.fromCursor(cursor);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Returns the key of the last row of a full page, or null if the page is the last one.
+     */
+    private static PageKey lastKeyOf(Cursor page) {
+        if (page.getCount() < PAGE_SIZE || !page.moveToLast()) {
+            return null;
+        }
+        return new PageKey(page.getString(page.getColumnIndexOrThrow(ContactEntry.COLUMN_CONTACT_NAME)),
+                page.getLong(page.getColumnIndexOrThrow(ContactEntry._ID)));
+    }
+
+    /**
+     * Name and _ID of the row a page starts after.
+     */
+    private static final class PageKey {
+        final String name;
+        final long id;
+
+        PageKey(String name, long id) {
+            this.name = name;
+            this.id = id;
+        }
+    }
+
+    /**
+     * Diffs two lists of rows. Rows are the same item when they have the same _ID.
+     */
+    private static final class RowDiffCallback extends DiffUtil.Callback {
+        private final ArrayList<ContactRow> _OldRows;
+        private final ArrayList<ContactRow> _NewRows;
+
+        RowDiffCallback(ArrayList<ContactRow> oldRows, ArrayList<ContactRow> newRows) {
+            _OldRows = oldRows;
+            _NewRows = newRows;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return _OldRows.size();
+        }
+
+        @Override
+        public int getNewListSize() {
+            return _NewRows.size();
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+            return _OldRows.get(oldItemPosition).id == _NewRows.get(newItemPosition).id;
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+            return _OldRows.get(oldItemPosition).hasSameContents(_NewRows.get(newItemPosition));
+        }
+    }
+
+    /**
+     * Forwards the updates of a diff to another callback, shifted by the position the diffed
+     * rows start at.
+     */
+    private static final class OffsetUpdateCallback implements ListUpdateCallback {
+        private final ListUpdateCallback _Callback;
+        private final int _Offset;
+
+        OffsetUpdateCallback(ListUpdateCallback callback, int offset) {
+            _Callback = callback;
+            _Offset = offset;
+        }
+
+        @Override
+        public void onInserted(int position, int count) {
+            _Callback.onInserted(_Offset + position, count);
+        }
+
+        @Override
+        public void onRemoved(int position, int count) {
+            _Callback.onRemoved(_Offset + position, count);
+        }
+
+        @Override
+        public void onMoved(int fromPosition, int toPosition) {
+            _Callback.onMoved(_Offset + fromPosition, _Offset + toPosition);
+        }
+
+        @Override
+        public void onChanged(int position, int count, Object payload) {
+            _Callback.onChanged(_Offset + position, count, payload);
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.wampinfotech.contacts;
+
+import android.text.TextUtils;
+
+/**
+ * {@link ContactRow} is an immutable copy of the columns of one contact shown in the catalog.
+ * It's used to diff the rows of the list on a background thread, away from the cursors.
+ */
+final class ContactRow {
+
+    /**
+     * _ID of the contact
+     */
+    final long id;
+
+    /**
+     * Name of the contact
+     */
+    final String name;
+
+    /**
+     * Email of the contact, may be null
+     */
+    final String email;
+
+    ContactRow(long id, String name, String email) {
+        this.id = id;
+        this.name = name;
+        this.email = email;
+    }
+
+    /**
+     * Returns whether the given row would be displayed the same as this one.
+     */
+    boolean hasSameContents(ContactRow other) {
+        return TextUtils.equals(name, other.name) && TextUtils.equals(email, other.email);
+    }
+}
@@ -0,0 +1,108 @@
+package com.wampinfotech.contacts;
+
+import android.database.Cursor;
+
+import com.wampinfotech.contacts.data.ContactContract.ContactEntry;
+
+import java.util.Arrays;
+
+/**
+ * {@link ContactSectionIndex} is an immutable copy of the alphabetical sections of the contacts,
+ * read from {@link ContactEntry#CONTENT_SECTIONS_URI}. It maps list positions to sections and
+ * back, and knows the total number of contacts.
+ */
+final class ContactSectionIndex {
+
+    /**
+     * Index of a list without contacts
+     */
+    static final ContactSectionIndex EMPTY = new ContactSectionIndex(new String[0], new int[0], 0);
+
+    private final String[] _Labels;
+
+    /**
+     * Position of the first contact of every section
+     */
+    private final int[] _Positions;
+
+    private final int _Count;
+
+    private ContactSectionIndex(String[] labels, int[] positions, int count) {
+        _Labels = labels;
+        _Positions = positions;
+        _Count = count;
+    }
+
+    /**
+     * Read the sections from a cursor over {@link ContactEntry#CONTENT_SECTIONS_URI}.
+     */
+    static ContactSectionIndex fromCursor(Cursor cursor) {
+        int labelColumnIndex = cursor.getColumnIndexOrThrow(ContactEntry.COLUMN_SECTION);
+        int countColumnIndex = cursor.getColumnIndexOrThrow(ContactEntry._COUNT);
+
+        String[] labels = new String[cursor.getCount()];
+        int[] positions = new int[labels.length];
+        int count = 0;
+        for (int i = 0; cursor.moveToPosition(i); i++) {
+            labels[i] = cursor.getString(labelColumnIndex);
+            positions[i] = count;
+            count += cursor.getInt(countColumnIndex);
+        }
+        return new ContactSectionIndex(labels, positions, count);
+    }
+
+    /**
+     * Returns the sections with the given labels, starting at the given positions, as written
+     * out through {@link #getLabel(int)}, {@link #getPositionForSection(int)} and
+     * {@link #getCount()}.
+     */
+    static ContactSectionIndex fromPositions(String[] labels, int[] positions, int count) {
+        return new ContactSectionIndex(labels, positions, count);
+    }
+
+    /**
+     * Returns the total number of contacts.
+     */
+    int getCount() {
+        return _Count;
+    }
+
+    int getSectionCount() {
+        return _Labels.length;
+    }
+
+    String getLabel(int section) {
+        return _Labels[section];
+    }
+
+    /**
+     * Returns the position of the first contact of the given section.
+     */
+    int getPositionForSection(int section) {
+        return _Positions[section];
+    }
+
+    /**
+     * Returns the section of the contact at the given position, or -1 if there are no sections.
+     */
+    int getSectionForPosition(int position) {
+        int section = Arrays.binarySearch(_Positions, position);
+        // Between two section starts, binarySearch() returns -(next section) - 1
+        return section >= 0 ? section : -section - 2;
+    }
+
+    /**
+     * Returns whether the contact at the given position is the first one of its section.
+     */
+    boolean isSectionStart(int position) {
+        return Arrays.binarySearch(_Positions, position) >= 0;
+    }
+
+    /**
+     * Returns whether both indexes have the same sections at the same positions.
+     */
+    boolean hasSameSections(ContactSectionIndex other) {
+        return _Count == other._Count && Arrays.equals(_Positions, other._Positions)
+                && Arrays.equals(_Labels, other._Labels);
+    }
+}
@@ -0,0 +1,225 @@
+package com.wampinfotech.contacts;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.util.Log;
+
+import com.wampinfotech.contacts.data.ContactSnapshotFile;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@link ContactSnapshot} is a copy of the first screen of the catalog, kept in a file so the
+ * next launch can show it before the database is even open. It holds the rows of the first page
+ * along with the number of contacts and their sections, so the list and the fast scroller have
+ * their full size straight away.
+ * <p>
+ * The file is a compact binary layout: a header of big-endian ints (magic number, version,
+ * number of contacts, number of sections, number of rows), then every section as its position
+ * and label, then every row as its _ID, name and email. Strings are their UTF-8 length followed
+ * by the bytes. {@link ContactSnapshotFile} decides where the file lives and deletes it when the
+ * contacts change.
+ * <p>
+ * Since the provider deletes the file on every write, a snapshot that's there shows the contacts
+ * as they are. It's only shown until the first reload replaces it all the same, and any row that
+ * differs is updated like any other change.
+ */
+final class ContactSnapshot {
+
+    /**
+     * Tag for the log messages
+     */
+    private static final String LOG_TAG = ContactSnapshot.class.getSimpleName();
+
+    /**
+     * First bytes of a snapshot file, "CSNP"
+     */
+    private static final int MAGIC = 0x43534e50;
+
+    /**
+     * Version of the file format, written after the magic number. Files of any other version
+     * are ignored.
+     */
+    private static final int VERSION = 2;
+
+    /**
+     * Largest number of rows a snapshot is trusted to have: a page
+     */
+    private static final int MAX_ROWS = ContactPagingSource.PAGE_SIZE;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Sections and number of contacts
+     */
+    final ContactSectionIndex sections;
+
+    /**
+     * Rows of the first page
+     */
+    final List<ContactRow> rows;
+
+    ContactSnapshot(ContactSectionIndex sections, List<ContactRow> rows) {
+        this.sections = sections;
+        this.rows = rows;
+    }
+
+    /**
+     * Returns the number of rows of the list.
+     */
+    int getCount() {
+        return Math.max(sections.getCount(), rows.size());
+    }
+
+    /**
+     * Returns a cursor over the rows, with the given columns, which must be the _ID, the name
+     * and the email, in that order.
+     */
+    Cursor toCursor(String[] projection) {
+        MatrixCursor cursor = new MatrixCursor(projection, rows.size());
+        for (ContactRow row : rows) {
+            cursor.addRow(new Object[]{row.id, row.name, row.email});
+        }
+        return cursor;
+    }
+
+    /**
+     * Read the snapshot from the given file, through a read-only memory mapping so the rows are
+     * decoded straight from the page cache. Returns null if there is no snapshot or it can't be
+     * read.
+     */
+    static ContactSnapshot read(File file) {
+        FileInputStream in;
+        try {
+            in = new FileInputStream(file);
+        } catch (FileNotFoundException e) {
+            return null;
+        }
+        try {
+            FileChannel channel = in.getChannel();
+            // The mapping stays valid after the channel is closed
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                return null;
+            }
+
+            int count = buffer.getInt();
+            int sectionCount = buffer.getInt();
+            int rowCount = buffer.getInt();
+            // Every section takes at least 8 bytes, so a corrupt count can't allocate more
+            // than the file holds
+            if (count < 0 || sectionCount < 0 || sectionCount > buffer.remaining() / 8
+                    || rowCount < 0 || rowCount > MAX_ROWS) {
+                return null;
+            }
+
+            String[] labels = new String[sectionCount];
+            int[] positions = new int[sectionCount];
+            for (int i = 0; i < sectionCount; i++) {
+                positions[i] = buffer.getInt();
+                labels[i] = getString(buffer);
+            }
+
+            ArrayList<ContactRow> rows = new ArrayList<>(rowCount);
+            for (int i = 0; i < rowCount; i++) {
+                long id = buffer.getLong();
+                String name = getString(buffer);
+                String email = getString(buffer);
+                rows.add(new ContactRow(id, name, email));
+            }
+            return new ContactSnapshot(ContactSectionIndex.fromPositions(labels, positions, count), rows);
+        } catch (IOException | RuntimeException e) {
+            // A short or corrupt file underflows the buffer or has lengths past its end
+            Log.w(LOG_TAG, "Failed to read the snapshot", e);
+            return null;
+        } finally {
+            try {
+                in.close();
+            } catch (IOException e) {
+                // Nothing was written, so nothing is lost
+            }
+        }
+    }
+
+    /**
+     * Write the snapshot to the given file. The snapshot is written to a temporary file first,
+     * which then replaces the given one through {@link ContactSnapshotFile#commit}, so a reader
+     * never sees half a snapshot, and a snapshot the provider has written over since the given
+     * write count is dropped.
+     *
+     * @param file       the snapshot file
+     * @param writeCount {@link ContactSnapshotFile#getWriteCount()} as read before the rows of
+     *                   this snapshot were queried
+     */
+    void write(File file, long writeCount) {
+        File temporaryFile = new File(file.getPath() + ".tmp");
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporaryFile)));
+            try {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(sections.getCount());
+                out.writeInt(sections.getSectionCount());
+                out.writeInt(rows.size());
+                for (int i = 0; i < sections.getSectionCount(); i++) {
+                    out.writeInt(sections.getPositionForSection(i));
+                    writeString(out, sections.getLabel(i));
+                }
+                for (ContactRow row : rows) {
+                    out.writeLong(row.id);
+                    writeString(out, row.name);
+                    writeString(out, row.email);
+                }
+            } finally {
+                out.close();
+            }
+            ContactSnapshotFile.commit(temporaryFile, file, writeCount);
+        } catch (IOException e) {
+            // The next launch simply waits for the database
+            Log.w(LOG_TAG, "Failed to write the snapshot", e);
+            temporaryFile.delete();
+        }
+    }
+
+    /**
+     * Write a string as its length in UTF-8 bytes followed by the bytes, or a length of -1 for
+     * null.
+     */
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Read a string written by {@link #writeString(DataOutputStream, String)}.
+     */
+    private static String getString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        if (length > buffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+}
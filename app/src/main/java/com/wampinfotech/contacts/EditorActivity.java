@@ -1,6 +1,7 @@
 package com.wampinfotech.contacts;
 
 import android.content.ContentValues;
+import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.database.Cursor;
@@ -26,6 +27,8 @@ import android.widget.Spinner;
 import android.widget.Toast;
 
 import com.wampinfotech.contacts.data.ContactContract.ContactEntry;
+import com.wampinfotech.contacts.data.ContactCursorReader;
+import com.wampinfotech.contacts.data.ContactWriteQueue;
 
 /**
  * Allows user to create a new contact or edit an existing one.
@@ -196,40 +199,50 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
         }
         values.put(ContactEntry.COLUMN_CONTACT_NUMBER, number);
 
+        // The write runs in the background and usually completes after this activity has
+        // finished, so the toasts are shown through the application context
+        final Context appContext = getApplicationContext();
+        ContactWriteQueue writeQueue = ContactWriteQueue.getInstance(this);
+
         // Determine if this is a new or existing contact by checking if _CurrentContactUri is null or not
         if (_CurrentContactUri == null) {
             // This is a NEW contact, so insert a new contact into the provider,
             // returning the content URI for the new contact.
-            Uri newUri = getContentResolver().insert(ContactEntry.CONTENT_URI, values);
-
-
-            // Show a toast message depending on whether or not the insertion was successful
-            if (newUri == null) {
-                // If the new content URI is null, then there was an error with insertion.
-                Toast.makeText(this, getString(R.string.editor_insert_contact_failed),
-                        Toast.LENGTH_SHORT).show();
-            } else {
-                // Otherwise, the insertion was successful and we can display a toast.
-                Toast.makeText(this, getString(R.string.editor_insert_contact_successful),
-                        Toast.LENGTH_SHORT).show();
-            }
+            writeQueue.insert(ContactEntry.CONTENT_URI, values, new ContactWriteQueue.Callback() {
+                @Override
+                public void onWriteComplete(Uri newUri, int count) {
+                    // Show a toast message depending on whether or not the insertion was successful
+                    if (newUri == null) {
+                        // If the new content URI is null, then there was an error with insertion.
+                        Toast.makeText(appContext, R.string.editor_insert_contact_failed,
+                                Toast.LENGTH_SHORT).show();
+                    } else {
+                        // Otherwise, the insertion was successful and we can display a toast.
+                        Toast.makeText(appContext, R.string.editor_insert_contact_successful,
+                                Toast.LENGTH_SHORT).show();
+                    }
+                }
+            });
         } else {
             // Otherwise this is an EXISTING contact, so update the pet with content URI: _CurrentContactUri
             // and pass in the new ContentValues. Pass in null for the selection and selection args
             // because _CurrentContactUri will already identify the correct row in the database that
             // we want to modify.
-            int rowsAffected = getContentResolver().update(_CurrentContactUri, values, null, null);
-
-            // Show a toast message depending on whether or not the update was successful.
-            if (rowsAffected == 0) {
-                // If no rows were affected, then there was an error with the update.
-                Toast.makeText(this, getString(R.string.editor_update_contact_failed),
-                        Toast.LENGTH_SHORT).show();
-            } else {
-                // Otherwise, the update was successful and we can display a toast.
-                Toast.makeText(this, getString(R.string.editor_update_contact_successful),
-                        Toast.LENGTH_SHORT).show();
-            }
+            writeQueue.update(_CurrentContactUri, values, null, null, new ContactWriteQueue.Callback() {
+                @Override
+                public void onWriteComplete(Uri uri, int rowsAffected) {
+                    // Show a toast message depending on whether or not the update was successful.
+                    if (rowsAffected == 0) {
+                        // If no rows were affected, then there was an error with the update.
+                        Toast.makeText(appContext, R.string.editor_update_contact_failed,
+                                Toast.LENGTH_SHORT).show();
+                    } else {
+                        // Otherwise, the update was successful and we can display a toast.
+                        Toast.makeText(appContext, R.string.editor_update_contact_successful,
+                                Toast.LENGTH_SHORT).show();
+                    }
+                }
+            });
         }
     }
 
@@ -327,17 +340,12 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
         // Proceed with moving to the first row of the cursor and reading data from it
         // (This should be the only row in the cursor)
         if (cursor.moveToFirst()) {
-            // Find the columns of pet attributes that we're interested in
-            int nameColumnIndex = cursor.getColumnIndex(ContactEntry.COLUMN_CONTACT_NAME);
-            int emailColumnIndex = cursor.getColumnIndex(ContactEntry.COLUMN_CONTACT_EMAIL);
-            int genderColumnIndex = cursor.getColumnIndex(ContactEntry.COLUMN_CONTACT_GENDER);
-            int numberColumnIndex = cursor.getColumnIndex(ContactEntry.COLUMN_CONTACT_NUMBER);
-
-            // Extract out the value from the Cursor for the given column index
-            String name = cursor.getString(nameColumnIndex);
-            String email = cursor.getString(emailColumnIndex);
-            int gender = cursor.getInt(genderColumnIndex);
-            String number = cursor.getString(numberColumnIndex);
+            // Extract out the contact attributes from the Cursor
+            ContactCursorReader reader = new ContactCursorReader(cursor);
+            String name = reader.getName();
+            String email = reader.getEmail();
+            int gender = reader.getGender();
+            String number = reader.getNumber();
 
             // Update the views on the screen with the values from the database
             _NameEditText.setText(name);
@@ -450,21 +458,26 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
     private void deletePet() {
         // Only perform the delete if this is an existing contact.
         if (_CurrentContactUri != null) {
-            // Call the ContentResolver to delete the contact at the given content URI.
+            // Queue the delete of the contact at the given content URI.
             // Pass in null for the selection and selection args because the _CurrentContactUri
             // content URI already identifies the contact that we want.
-            int rowsDeleted = getContentResolver().delete(_CurrentContactUri, null, null);
-
-            // Show a toast message depending on whether or not the delete was successful.
-            if (rowsDeleted == 0) {
-                // If no rows were deleted, then there was an error with the delete.
-                Toast.makeText(this, getString(R.string.editor_delete_contact_failed),
-                        Toast.LENGTH_SHORT).show();
-            } else {
-                // Otherwise, the delete was successful and we can display a toast.
-                Toast.makeText(this, getString(R.string.editor_delete_contact_successful),
-                        Toast.LENGTH_SHORT).show();
-            }
+            final Context appContext = getApplicationContext();
+            ContactWriteQueue.getInstance(this).delete(_CurrentContactUri, null, null,
+                    new ContactWriteQueue.Callback() {
+                        @Override
+                        public void onWriteComplete(Uri uri, int rowsDeleted) {
+                            // Show a toast message depending on whether or not the delete was successful.
+                            if (rowsDeleted == 0) {
+                                // If no rows were deleted, then there was an error with the delete.
+                                Toast.makeText(appContext, R.string.editor_delete_contact_failed,
+                                        Toast.LENGTH_SHORT).show();
+                            } else {
+                                // Otherwise, the delete was successful and we can display a toast.
+                                Toast.makeText(appContext, R.string.editor_delete_contact_successful,
+                                        Toast.LENGTH_SHORT).show();
+                            }
+                        }
+                    });
         }
 
         // Close the activity
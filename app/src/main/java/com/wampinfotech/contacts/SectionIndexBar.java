@@ -0,0 +1,113 @@
+package com.wampinfotech.contacts;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.support.v4.content.ContextCompat;
+import android.util.AttributeSet;
+import android.view.MotionEvent;
+import android.view.View;
+
+/**
+ * {@link SectionIndexBar} is a vertical strip of the section labels of a
+ * {@link ContactSectionIndex}, evenly spaced over its height. Touching or dragging along it
+ * reports the section under the finger, so the list can jump straight to it.
+ */
+public class SectionIndexBar extends View {
+
+    /**
+     * Listens for the sections touched on the bar.
+     */
+    interface OnSectionSelectedListener {
+        /**
+         * Called when the finger is on the given section, whenever it moves to another one.
+         */
+        void onSectionSelected(int section);
+    }
+
+    private final Paint _TextPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+
+    private final float _MaxTextSize;
+
+    private ContactSectionIndex _Sections = ContactSectionIndex.EMPTY;
+
+    private OnSectionSelectedListener _Listener;
+
+    /**
+     * Section under the finger, or -1 when the bar isn't touched
+     */
+    private int _SelectedSection = -1;
+
+    public SectionIndexBar(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        _MaxTextSize = getResources().getDimension(R.dimen.section_index_text_size);
+        _TextPaint.setColor(ContextCompat.getColor(context, R.color.colorPrimary));
+        _TextPaint.setTextAlign(Paint.Align.CENTER);
+    }
+
+    void setOnSectionSelectedListener(OnSectionSelectedListener listener) {
+        _Listener = listener;
+    }
+
+    /**
+     * Show the sections of the given index. The bar is hidden while there are none.
+     */
+    void setSections(ContactSectionIndex sections) {
+        _Sections = sections;
+        _SelectedSection = -1;
+        setVisibility(sections.getSectionCount() == 0 ? GONE : VISIBLE);
+        invalidate();
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        int sectionCount = _Sections.getSectionCount();
+        if (sectionCount == 0) {
+            return;
+        }
+
+        // Shrink the letters when there are too many sections for the height of the bar
+        float sectionHeight = getSectionHeight();
+        _TextPaint.setTextSize(Math.min(_MaxTextSize, sectionHeight * 0.8f));
+        float baselineOffset = (sectionHeight - _TextPaint.ascent() - _TextPaint.descent()) / 2;
+        float x = getWidth() / 2f;
+        for (int i = 0; i < sectionCount; i++) {
+            _TextPaint.setFakeBoldText(i == _SelectedSection);
+            canvas.drawText(_Sections.getLabel(i), x, getPaddingTop() + i * sectionHeight + baselineOffset, _TextPaint);
+        }
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        int sectionCount = _Sections.getSectionCount();
+        if (sectionCount == 0) {
+            return false;
+        }
+
+        switch (event.getActionMasked()) {
+            case MotionEvent.ACTION_DOWN:
+            case MotionEvent.ACTION_MOVE:
+                int section = (int) ((event.getY() - getPaddingTop()) / getSectionHeight());
+                section = Math.max(0, Math.min(section, sectionCount - 1));
+                if (section != _SelectedSection) {
+                    _SelectedSection = section;
+                    invalidate();
+                    if (_Listener != null) {
+                        _Listener.onSectionSelected(section);
+                    }
+                }
+                return true;
+            case MotionEvent.ACTION_UP:
+            case MotionEvent.ACTION_CANCEL:
+                _SelectedSection = -1;
+                invalidate();
+                return true;
+            default:
+                return super.onTouchEvent(event);
+        }
+    }
+
+    private float getSectionHeight() {
+        return (float) (getHeight() - getPaddingTop() - getPaddingBottom()) / _Sections.getSectionCount();
+    }
+}
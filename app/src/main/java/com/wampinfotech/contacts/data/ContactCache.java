@@ -0,0 +1,85 @@
+package com.wampinfotech.contacts.data;
+
+import android.os.Bundle;
+import android.util.LruCache;
+
+/**
+ * Bounded, least recently used cache of contact rows by _ID, sitting in front of the single-row
+ * queries of {@link ContactProvider}. The provider invalidates it from its own write paths.
+ * <p>
+ * A read that misses the cache and goes to the database may race with a write. To keep stale
+ * rows out, every invalidation bumps a generation, and a row read from the database is only
+ * cached if no invalidation happened since the read started.
+ */
+final class ContactCache {
+
+    /**
+     * Default number of contacts kept in the cache
+     */
+    static final int DEFAULT_MAX_SIZE = 256;
+
+    private final LruCache<Long, ContactRecord> mRecords;
+
+    /**
+     * Incremented by every invalidation, guarded by {@code this}
+     */
+    private long mGeneration;
+
+    ContactCache(int maxSize) {
+        mRecords = new LruCache<>(maxSize);
+    }
+
+    /**
+     * Returns the cached contact with the given _ID, or null if it isn't cached.
+     */
+    ContactRecord get(long id) {
+        return mRecords.get(id);
+    }
+
+    /**
+     * Returns the token to pass to {@link #put(ContactRecord, long)} for a row about to be read
+     * from the database.
+     */
+    synchronized long beginRead() {
+        return mGeneration;
+    }
+
+    /**
+     * Cache a contact read from the database, unless the cache was invalidated since the read
+     * started with {@link #beginRead()}.
+     */
+    synchronized void put(ContactRecord record, long readToken) {
+        if (readToken == mGeneration) {
+            mRecords.put(record.id, record);
+        }
+    }
+
+    /**
+     * Drop the contact with the given _ID.
+     */
+    synchronized void invalidate(long id) {
+        mGeneration++;
+        mRecords.remove(id);
+    }
+
+    /**
+     * Drop all contacts, for writes whose rows aren't known.
+     */
+    synchronized void invalidateAll() {
+        mGeneration++;
+        mRecords.evictAll();
+    }
+
+    /**
+     * Returns the hit, miss and eviction counters and the current size of the cache, under the
+     * keys defined in {@link ContactContract}.
+     */
+    Bundle getStats() {
+        Bundle stats = new Bundle();
+        stats.putInt(ContactContract.CACHE_STATS_HITS, mRecords.hitCount());
+        stats.putInt(ContactContract.CACHE_STATS_MISSES, mRecords.missCount());
+        stats.putInt(ContactContract.CACHE_STATS_EVICTIONS, mRecords.evictionCount());
+        stats.putInt(ContactContract.CACHE_STATS_SIZE, mRecords.size());
+        return stats;
+    }
+}
@@ -16,9 +16,12 @@
 package com.wampinfotech.contacts.data;
 
 import android.content.ContentResolver;
+import android.content.ContentUris;
 import android.net.Uri;
 import android.provider.BaseColumns;
 
+import java.util.List;
+
 /**
  * API Contract for the Contact app.
  */
@@ -44,6 +47,208 @@ public final class ContactContract {
      */
     public static final String PATH_CONTACTS = "contacts";
 
+    /**
+     * Path appended to the contacts URI for full-text search, followed by the search term.
+     * For instance, content://com.wampinfotech.contacts/contacts/search/ann
+     */
+    public static final String PATH_SEARCH = "search";
+
+    /**
+     * Path appended to the contacts URI to look contacts up by phone number, followed by the
+     * number. For instance, content://com.wampinfotech.contacts/contacts/lookup/9718666289
+     */
+    public static final String PATH_LOOKUP = "lookup";
+
+    /**
+     * Path appended to the contacts URI for the alphabetical sections of the contacts.
+     * For instance, content://com.wampinfotech.contacts/contacts/sections
+     */
+    public static final String PATH_SECTIONS = "sections";
+
+    /**
+     * Path appended to the contacts URI for the changes made to the contacts.
+     * For instance, content://com.wampinfotech.contacts/contacts/changes?since=42
+     */
+    public static final String PATH_CHANGES = "changes";
+
+    /**
+     * Possible path for the groups of contacts, also appended to the URI of a single contact
+     * for the groups it is in. For instance, content://com.wampinfotech.contacts/groups or
+     * content://com.wampinfotech.contacts/contacts/3/groups
+     */
+    public static final String PATH_GROUPS = "groups";
+
+    /**
+     * Path appended to the URI of a single group for its members, optionally followed by the
+     * _ID of one member. For instance, content://com.wampinfotech.contacts/groups/2/members/3
+     */
+    public static final String PATH_MEMBERS = "members";
+
+    /**
+     * Method name for {@link android.content.ContentResolver#call} on {@link ContactEntry#CONTENT_URI}
+     * that returns the counters of the provider's contact cache in a Bundle, under the
+     * CACHE_STATS_* keys.
+     */
+    public static final String METHOD_GET_CACHE_STATS = "get_cache_stats";
+
+    /**
+     * Number of single-contact queries answered from the cache. Type: int
+     */
+    public static final String CACHE_STATS_HITS = "hits";
+
+    /**
+     * Number of single-contact queries that had to read the database. Type: int
+     */
+    public static final String CACHE_STATS_MISSES = "misses";
+
+    /**
+     * Number of contacts evicted from the cache. Type: int
+     */
+    public static final String CACHE_STATS_EVICTIONS = "evictions";
+
+    /**
+     * Number of contacts currently in the cache. Type: int
+     */
+    public static final String CACHE_STATS_SIZE = "size";
+
+    /**
+     * Method name for {@link android.content.ContentResolver#call} that turns the recording of
+     * the provider's call statistics on or off. The argument is "true" or "false". Recording is
+     * off by default.
+     */
+    public static final String METHOD_SET_PROVIDER_STATS_ENABLED = "set_provider_stats_enabled";
+
+    /**
+     * Method name for {@link android.content.ContentResolver#call} that returns a snapshot of
+     * the provider's call statistics. The returned Bundle holds one Bundle per operation and
+     * URI that has been called, keyed "operation/uri" (e.g. "query/contact_id"), with the
+     * PROVIDER_STATS_* keys.
+     */
+    public static final String METHOD_GET_PROVIDER_STATS = "get_provider_stats";
+
+    /**
+     * Method name for {@link android.content.ContentResolver#call} that clears the provider's
+     * call statistics.
+     */
+    public static final String METHOD_RESET_PROVIDER_STATS = "reset_provider_stats";
+
+    /**
+     * Number of calls that completed. Type: long
+     */
+    public static final String PROVIDER_STATS_CALLS = "calls";
+
+    /**
+     * Number of calls that threw. Type: long
+     */
+    public static final String PROVIDER_STATS_ERRORS = "errors";
+
+    /**
+     * Number of rows returned, inserted, updated or deleted by the completed calls. Type: long
+     */
+    public static final String PROVIDER_STATS_ROWS = "rows";
+
+    /**
+     * Total time spent in the calls, in microseconds. Type: long
+     */
+    public static final String PROVIDER_STATS_TOTAL_MICROS = "total_micros";
+
+    /**
+     * Longest call, in microseconds. Type: long
+     */
+    public static final String PROVIDER_STATS_MAX_MICROS = "max_micros";
+
+    /**
+     * Latency histogram of the calls. Element i counts the calls that took less than
+     * 2^(i+1) microseconds and, except for the first, at least 2^i; the last element also
+     * counts every longer call. Type: long[]
+     */
+    public static final String PROVIDER_STATS_HISTOGRAM = "histogram";
+
+    /**
+     * Method name for {@link android.content.ContentResolver#call} that rebuilds the databases
+     * created before deleted rows were purged in the background, so they give the space of
+     * deleted contacts back to the file system from then on. A rebuild copies the whole
+     * database and blocks every write until it's done, so call this at a time of the app's
+     * choosing, e.g. from a job that runs while the device is idle, and off the main thread.
+     * Databases that were rebuilt before, or created since, are left alone. The returned Bundle
+     * holds {@link #COMPACT_DATABASES_REBUILT}.
+     */
+    public static final String METHOD_COMPACT_DATABASE = "compact_database";
+
+    /**
+     * Number of databases rebuilt by the compaction. Type: int
+     */
+    public static final String COMPACT_DATABASES_REBUILT = "databases_rebuilt";
+
+    /**
+     * Method name for {@link android.content.ContentResolver#call} that merges duplicates into
+     * one contact, in a single transaction. The argument is the _ID of the contact to keep, and
+     * the extras hold the _IDs of its duplicates under {@link #MERGE_DUPLICATE_IDS}. The kept
+     * contact joins every group of the duplicates, and where it has no email or mobile number,
+     * it takes the one of the first duplicate that has it; then the duplicates are deleted. The
+     * returned Bundle holds {@link #MERGE_ROWS_DELETED}.
+     */
+    public static final String METHOD_MERGE_CONTACTS = "merge_contacts";
+
+    /**
+     * _IDs of the duplicates to merge into the kept contact. Type: long[]
+     */
+    public static final String MERGE_DUPLICATE_IDS = "duplicate_ids";
+
+    /**
+     * Number of duplicates deleted by the merge. Type: int
+     */
+    public static final String MERGE_ROWS_DELETED = "rows_deleted";
+
+    /**
+     * Method name for {@link android.content.ContentResolver#call} that returns the range of
+     * change sequence numbers {@link ContactEntry#CONTENT_CHANGES_URI} can be read from, under
+     * {@link #CHANGES_LATEST_SEQUENCE} and {@link #CHANGES_OLDEST_SEQUENCE}.
+     */
+    public static final String METHOD_GET_CHANGE_SEQUENCES = "get_change_sequences";
+
+    /**
+     * Sequence number of the latest change, 0 if there has been none. Type: long
+     */
+    public static final String CHANGES_LATEST_SEQUENCE = "latest_sequence";
+
+    /**
+     * Smallest sequence number the changes can still be read since. Older changes have been
+     * pruned, so a mirror last synced before it must be rebuilt from a full query. Type: long
+     */
+    public static final String CHANGES_OLDEST_SEQUENCE = "oldest_sequence";
+
+    /**
+     * Method name for {@link android.content.ContentResolver#call} that adds contacts to a
+     * group and removes others from it, in a single transaction. The argument is the _ID of
+     * the group, and the extras hold the _IDs of the contacts to add under
+     * {@link #GROUP_ADD_CONTACT_IDS} and of the ones to remove under
+     * {@link #GROUP_REMOVE_CONTACT_IDS}; either can be left out. Contacts that are already
+     * members, or deleted, aren't added. The returned Bundle holds {@link #GROUP_MEMBERS_ADDED}
+     * and {@link #GROUP_MEMBERS_REMOVED}.
+     */
+    public static final String METHOD_EDIT_GROUP_MEMBERS = "edit_group_members";
+
+    /**
+     * _IDs of the contacts to add to the group. Type: long[]
+     */
+    public static final String GROUP_ADD_CONTACT_IDS = "add_contact_ids";
+
+    /**
+     * _IDs of the contacts to remove from the group. Type: long[]
+     */
+    public static final String GROUP_REMOVE_CONTACT_IDS = "remove_contact_ids";
+
+    /**
+     * Number of contacts added to the group. Type: int
+     */
+    public static final String GROUP_MEMBERS_ADDED = "members_added";
+
+    /**
+     * Number of contacts removed from the group. Type: int
+     */
+    public static final String GROUP_MEMBERS_REMOVED = "members_removed";
+
     // To prevent someone from accidentally instantiating the contract class,
     // give it an empty constructor.
     private ContactContract() {
@@ -56,10 +261,56 @@ public final class ContactContract {
     public static final class ContactEntry implements BaseColumns {
 
         /**
-         * The content URI to access the contact data in the provider
+         * The content URI to access the contact data in the provider.
+         * <p>
+         * Every write or batch sends one notification. A write that changes a single contact
+         * notifies its URI, e.g. content://.../contacts/3; one that changes a few contacts
+         * notifies this URI with their _IDs in {@link #QUERY_PARAMETER_CHANGED_IDS}; one that
+         * changes many notifies this URI as is. {@link #getChangedIds(Uri)} reads the _IDs back
+         * from the URI passed to {@link android.database.ContentObserver#onChange(boolean, Uri)}.
          */
         public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_CONTACTS);
 
+        /**
+         * The content URI to search the contacts. Append the search term as the last path
+         * segment, e.g. {@code Uri.withAppendedPath(CONTENT_SEARCH_URI, "ann")}. Every word of
+         * the term is matched as a prefix against the name, email and mobile number, and
+         * contacts whose name starts with the first word are ranked first.
+         */
+        public static final Uri CONTENT_SEARCH_URI = Uri.withAppendedPath(CONTENT_URI, PATH_SEARCH);
+
+        /**
+         * The content URI to look contacts up by phone number. Append the number as it was
+         * received as the last path segment, e.g.
+         * {@code Uri.withAppendedPath(CONTENT_LOOKUP_URI, Uri.encode("+91 97186 66289"))}. The number is
+         * reduced to its {@link #COLUMN_CONTACT_NUMBER_KEY} and matched exactly through an index,
+         * so the lookup stays fast however many contacts there are.
+         */
+        public static final Uri CONTENT_LOOKUP_URI = Uri.withAppendedPath(CONTENT_URI, PATH_LOOKUP);
+
+        /**
+         * The content URI for the alphabetical sections of the contacts. Every row is one
+         * section, with its {@link #COLUMN_SECTION} label and its number of contacts in
+         * {@link #_COUNT}, in {@link #SORT_ORDER_BY_NAME} order. Adding up the counts of the
+         * sections before one gives the position of its first contact in that order. The
+         * projection and sort order of the query are ignored.
+         */
+        public static final Uri CONTENT_SECTIONS_URI = Uri.withAppendedPath(CONTENT_URI, PATH_SECTIONS);
+
+        /**
+         * The content URI for the changes made to the contacts since the sequence number given
+         * through {@link #QUERY_PARAMETER_SINCE}. Every row is the latest change of one contact,
+         * in {@link #COLUMN_CHANGE_SEQUENCE} order, with its {@link #COLUMN_CHANGE_OPERATION},
+         * the contact's {@link #_ID} and, unless it was deleted, its current columns.
+         * <p>
+         * To keep a mirror of the contacts, read {@link ContactContract#CHANGES_LATEST_SEQUENCE},
+         * copy every contact from {@link #CONTENT_URI}, then from time to time read the changes
+         * since the last sequence number seen. Inserts and updates both carry the whole contact
+         * and can be applied as an upsert. If the last sequence seen is older than
+         * {@link ContactContract#CHANGES_OLDEST_SEQUENCE}, start over with a full copy.
+         */
+        public static final Uri CONTENT_CHANGES_URI = Uri.withAppendedPath(CONTENT_URI, PATH_CHANGES);
+
         /**
          * The MIME type of the {@link #CONTENT_URI} for a list of contacts.
          */
@@ -78,6 +329,24 @@ public final class ContactContract {
          */
         public final static String TABLE_NAME = "contacts";
 
+        /**
+         * Name of the full-text search table that shadows {@link #TABLE_NAME}. Its rows are
+         * kept in sync by triggers, with the docid of each row equal to the contact's _ID.
+         */
+        public final static String SEARCH_TABLE_NAME = "contacts_search";
+
+        /**
+         * Name of the change log of {@link #TABLE_NAME}. Triggers add a row for every insert,
+         * update and delete of a contact, numbered by {@link #COLUMN_CHANGE_SEQUENCE}.
+         */
+        public final static String CHANGES_TABLE_NAME = "contacts_changes";
+
+        /**
+         * Name of the one-row table holding the newest sequence number pruned from
+         * {@link #CHANGES_TABLE_NAME} for its age, in {@link #COLUMN_CHANGE_SEQUENCE}
+         */
+        public final static String CHANGES_HORIZON_TABLE_NAME = "contacts_changes_horizon";
+
         /**
          * Unique ID number for the pet (only for use in the database table).
          * <p>
@@ -116,6 +385,178 @@ public final class ContactContract {
          */
         public final static String COLUMN_CONTACT_NUMBER = "mobile";
 
+        /**
+         * Lookup key of the mobile number: its last 10 digits read as an integer, or null if
+         * it has no digits. Maintained by the provider from {@link #COLUMN_CONTACT_NUMBER};
+         * values written to it directly are ignored.
+         * <p>
+         * Type: INTEGER
+         */
+        public final static String COLUMN_CONTACT_NUMBER_KEY = "mobile_key";
+
+        /**
+         * Whether the contact has been deleted: 1 from its deletion until its row is purged in
+         * the background, 0 otherwise. The provider never returns deleted contacts, and the
+         * flag can't be written directly.
+         * <p>
+         * Type: INTEGER
+         */
+        public final static String COLUMN_DELETED = "deleted";
+
+        /**
+         * Label of a section of {@link #CONTENT_SECTIONS_URI}: the first character of the names
+         * in it, upper case for ASCII letters.
+         * <p>
+         * Type: TEXT
+         */
+        public final static String COLUMN_SECTION = "section";
+
+        /**
+         * Sequence number of a change of {@link #CONTENT_CHANGES_URI}. Every change gets a
+         * larger number than the ones before it.
+         * <p>
+         * Type: INTEGER
+         */
+        public final static String COLUMN_CHANGE_SEQUENCE = "sequence";
+
+        /**
+         * What a change of {@link #CONTENT_CHANGES_URI} did to the contact.
+         * <p>
+         * The only possible values are {@link CHANGE#INSERT}, {@link CHANGE#UPDATE}, or
+         * {@link CHANGE#DELETE}.
+         * <p>
+         * Type: CHANGE
+         */
+        public final static String COLUMN_CHANGE_OPERATION = "operation";
+
+        /**
+         * _ID of the changed contact in {@link #CHANGES_TABLE_NAME}. The changes URI returns
+         * it as {@link #_ID}.
+         * <p>
+         * Type: INTEGER
+         */
+        public final static String COLUMN_CHANGE_CONTACT_ID = "contact_id";
+
+        /**
+         * Time of a change in {@link #CHANGES_TABLE_NAME}, in seconds since the epoch.
+         * <p>
+         * Type: INTEGER
+         */
+        public final static String COLUMN_CHANGE_TIME = "time";
+
+        /**
+         * Query parameter for {@link #CONTENT_URI} that restricts the result to contacts whose
+         * name starts with the given value, ignoring case.
+         */
+        public static final String QUERY_PARAMETER_NAME_PREFIX = "name_prefix";
+
+        /**
+         * Query parameter for {@link #CONTENT_URI} that restricts the result to contacts whose
+         * email starts with the given value.
+         */
+        public static final String QUERY_PARAMETER_EMAIL_PREFIX = "email_prefix";
+
+        /**
+         * Query parameter for {@link #CONTENT_URI} that restricts the result to contacts whose
+         * mobile number starts with the given value.
+         */
+        public static final String QUERY_PARAMETER_NUMBER_PREFIX = "mobile_prefix";
+
+        /**
+         * Query parameter for {@link #CONTENT_URI} that limits the number of rows returned.
+         * Together with {@link #QUERY_PARAMETER_AFTER_ID} and {@link #QUERY_PARAMETER_AFTER_NAME}
+         * it pages through the contacts: ask for the first page with only a limit, then for
+         * every next page pass the _ID (and for {@link #SORT_ORDER_BY_NAME}, the name) of the
+         * last row of the previous page.
+         */
+        public static final String QUERY_PARAMETER_LIMIT = "limit";
+
+        /**
+         * Query parameter for {@link #CONTENT_URI} that returns only the rows after the row with
+         * the given _ID. Without {@link #QUERY_PARAMETER_AFTER_NAME} the rows are sorted by _ID.
+         */
+        public static final String QUERY_PARAMETER_AFTER_ID = "after_id";
+
+        /**
+         * Query parameter for {@link #CONTENT_URI} that skips the given number of rows before
+         * the rows returned. Requires {@link #QUERY_PARAMETER_LIMIT}. The skipped rows are still
+         * read, so use it to find the start of a page once, then page on with
+         * {@link #QUERY_PARAMETER_AFTER_NAME}.
+         */
+        public static final String QUERY_PARAMETER_OFFSET = "offset";
+
+        /**
+         * Query parameter for {@link #CONTENT_URI} that, together with
+         * {@link #QUERY_PARAMETER_AFTER_ID}, returns only the rows after the given row in
+         * {@link #SORT_ORDER_BY_NAME} order. The rows are always sorted in that order.
+         */
+        public static final String QUERY_PARAMETER_AFTER_NAME = "after_name";
+
+        /**
+         * Query parameter for {@link #CONTENT_URI} that splits the query into the given number
+         * of ranges of _IDs, which run at once on a pool of threads, and merges their results
+         * in the sort order of the query. It pays off for selections that scan many rows, such
+         * as a LIKE on the email; an indexed lookup or a short page is quicker on its own. The
+         * provider uses no more ranges than it has threads, which is the number of cores, and a
+         * value of 0 or 1 runs the query as usual. A sort order with arguments can't be merged,
+         * so it is rejected.
+         */
+        public static final String QUERY_PARAMETER_PARALLEL = "parallel";
+
+        /**
+         * Query parameter for {@link #CONTENT_CHANGES_URI} that returns only the changes with a
+         * larger {@link #COLUMN_CHANGE_SEQUENCE} than the given one. Without it, every change
+         * that hasn't been pruned is returned. {@link #QUERY_PARAMETER_LIMIT} can be used to
+         * read the changes in pages.
+         */
+        public static final String QUERY_PARAMETER_SINCE = "since";
+
+        /**
+         * Query parameter of the {@link #CONTENT_URI} the provider notifies when a write or batch
+         * changes a few contacts, holding their _IDs separated by commas. It isn't used in
+         * queries; see {@link #getChangedIds(Uri)}.
+         */
+        public static final String QUERY_PARAMETER_CHANGED_IDS = "changed_ids";
+
+        /**
+         * Sort order by name, ignoring case, with the _ID breaking ties. This is the order used
+         * for paging with {@link #QUERY_PARAMETER_AFTER_NAME}, and it is served by the name index.
+         */
+        public static final String SORT_ORDER_BY_NAME = COLUMN_CONTACT_NAME + " COLLATE NOCASE, " + _ID;
+
+        /**
+         * Returns the _IDs of the contacts a change notification with the given URI is about, or
+         * null if any contact may have changed.
+         */
+        public static long[] getChangedIds(Uri uri) {
+            if (uri == null) {
+                return null;
+            }
+            List<String> segments = uri.getPathSegments();
+            if (segments.size() == 2 && PATH_CONTACTS.equals(segments.get(0))) {
+                try {
+                    return new long[]{Long.parseLong(segments.get(1))};
+                } catch (NumberFormatException e) {
+                    // Not the URI of a single contact
+                    return null;
+                }
+            }
+            String changedIds = uri.getQueryParameter(QUERY_PARAMETER_CHANGED_IDS);
+            if (segments.size() != 1 || changedIds == null) {
+                return null;
+            }
+            String[] values = changedIds.split(",");
+            long[] ids = new long[values.length];
+            try {
+                for (int i = 0; i < values.length; i++) {
+                    ids[i] = Long.parseLong(values[i]);
+                }
+            } catch (NumberFormatException e) {
+                return null;
+            }
+            return ids;
+        }
+
         /**
          * Returns whether or not the given gender is {@link GENDER#UNKNOWN}, {@link GENDER#MALE},
          * or {@link GENDER#FEMALE}.
@@ -135,7 +576,115 @@ public final class ContactContract {
             MALE,
             FEMALE
         }
+
+        /**
+         * Possible values for the operation of a change.
+         */
+        public enum CHANGE {
+            INSERT,
+            UPDATE,
+            DELETE
+        }
     }
 
-}
+    /**
+     * Constant values for the groups of contacts and their members.
+     * <p>
+     * A contact can be in any number of groups. The provider keeps the number of members of
+     * every group in {@link #COLUMN_MEMBER_COUNT} as members come and go, so listing the groups
+     * with their counts reads one row per group however many members they have.
+     */
+    public static final class GroupEntry implements BaseColumns {
+
+        /**
+         * The content URI to access the groups. Writes to the groups or their members notify
+         * this URI, and so do writes to contacts that are members of a group, since they change
+         * the members' rows and counts. Other writes to the contacts, such as inserts, don't.
+         */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_GROUPS);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a list of groups.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_GROUPS;
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a single group.
+         */
+        public static final String CONTENT_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_GROUPS;
+
+        /**
+         * Name of database table for groups
+         */
+        public final static String TABLE_NAME = "contact_groups";
+
+        /**
+         * Name of the table joining the groups to the contacts in them, one row per member
+         */
+        public final static String MEMBERS_TABLE_NAME = "contact_group_members";
+
+        /**
+         * Unique ID number for the group.
+         * <p>
+         * Type: INTEGER
+         */
+        public final static String _ID = BaseColumns._ID;
 
+        /**
+         * Title of the group, which can't be empty.
+         * <p>
+         * Type: TEXT
+         */
+        public final static String COLUMN_GROUP_TITLE = "title";
+
+        /**
+         * Number of contacts in the group, kept by the provider; it can't be written.
+         * <p>
+         * Type: INTEGER
+         */
+        public final static String COLUMN_MEMBER_COUNT = "member_count";
+
+        /**
+         * _ID of the group of a row of {@link #MEMBERS_TABLE_NAME}.
+         * <p>
+         * Type: INTEGER
+         */
+        public final static String COLUMN_MEMBER_GROUP_ID = "group_id";
+
+        /**
+         * _ID of the contact of a row of {@link #MEMBERS_TABLE_NAME}. It is the value to insert
+         * into {@link #membersUri(long)} to add a contact to a group.
+         * <p>
+         * Type: INTEGER
+         */
+        public final static String COLUMN_MEMBER_CONTACT_ID = "contact_id";
+
+        /**
+         * Sort order by title, ignoring case, served by the title index. The groups are listed
+         * in this order unless a query asks for another.
+         */
+        public static final String SORT_ORDER_BY_TITLE = COLUMN_GROUP_TITLE + " COLLATE NOCASE, " + _ID;
+
+        /**
+         * Returns the URI of the members of the given group. Queries return the member
+         * contacts with the columns of {@link ContactEntry}; inserts and bulk inserts add the
+         * contact given by {@link #COLUMN_MEMBER_CONTACT_ID}; deletes remove the members the
+         * selection on {@link #MEMBERS_TABLE_NAME} matches, or all of them. Append a contact's
+         * _ID to remove only that one.
+         */
+        public static Uri membersUri(long groupId) {
+            return Uri.withAppendedPath(ContentUris.withAppendedId(CONTENT_URI, groupId), PATH_MEMBERS);
+        }
+
+        /**
+         * Returns the URI of the groups the given contact is in, in {@link #SORT_ORDER_BY_TITLE}
+         * order unless the query asks for another.
+         */
+        public static Uri groupsOfContactUri(long contactId) {
+            return Uri.withAppendedPath(ContentUris.withAppendedId(ContactEntry.CONTENT_URI, contactId),
+                    PATH_GROUPS);
+        }
+    }
+}
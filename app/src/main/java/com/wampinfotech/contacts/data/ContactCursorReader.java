@@ -0,0 +1,126 @@
+package com.wampinfotech.contacts.data;
+
+import android.database.CharArrayBuffer;
+import android.database.Cursor;
+
+import com.wampinfotech.contacts.data.ContactContract.ContactEntry;
+
+/**
+ * Reads the {@link ContactEntry} columns of the current row of a cursor.
+ * <p>
+ * The column indexes are resolved once per cursor, from whatever projection it was queried
+ * with, so reading a row is a plain indexed access. Columns the projection left out can be
+ * checked with the has*() methods; reading one throws an {@link IllegalStateException}. The
+ * copy*() methods fill a reusable {@link CharArrayBuffer} instead of allocating a String.
+ */
+public final class ContactCursorReader {
+
+    private Cursor mCursor;
+
+    private int mIdIndex;
+
+    private int mNameIndex;
+
+    private int mEmailIndex;
+
+    private int mGenderIndex;
+
+    private int mNumberIndex;
+
+    /**
+     * Constructs a reader with no cursor; call {@link #setCursor(Cursor)} before reading.
+     */
+    public ContactCursorReader() {
+    }
+
+    /**
+     * Constructs a reader of the given cursor.
+     */
+    public ContactCursorReader(Cursor cursor) {
+        setCursor(cursor);
+    }
+
+    /**
+     * Read from the given cursor from now on. The column indexes are only resolved again when
+     * it isn't the cursor already being read.
+     */
+    public void setCursor(Cursor cursor) {
+        if (cursor == mCursor) {
+            return;
+        }
+        mCursor = cursor;
+        mIdIndex = cursor.getColumnIndex(ContactEntry._ID);
+        mNameIndex = cursor.getColumnIndex(ContactEntry.COLUMN_CONTACT_NAME);
+        mEmailIndex = cursor.getColumnIndex(ContactEntry.COLUMN_CONTACT_EMAIL);
+        mGenderIndex = cursor.getColumnIndex(ContactEntry.COLUMN_CONTACT_GENDER);
+        mNumberIndex = cursor.getColumnIndex(ContactEntry.COLUMN_CONTACT_NUMBER);
+    }
+
+    public boolean hasId() {
+        return mIdIndex >= 0;
+    }
+
+    public boolean hasName() {
+        return mNameIndex >= 0;
+    }
+
+    public boolean hasEmail() {
+        return mEmailIndex >= 0;
+    }
+
+    public boolean hasGender() {
+        return mGenderIndex >= 0;
+    }
+
+    public boolean hasNumber() {
+        return mNumberIndex >= 0;
+    }
+
+    public long getId() {
+        return mCursor.getLong(checkColumn(mIdIndex, ContactEntry._ID));
+    }
+
+    public String getName() {
+        return mCursor.getString(checkColumn(mNameIndex, ContactEntry.COLUMN_CONTACT_NAME));
+    }
+
+    /**
+     * Returns the email, or null if the contact has none.
+     */
+    public String getEmail() {
+        return mCursor.getString(checkColumn(mEmailIndex, ContactEntry.COLUMN_CONTACT_EMAIL));
+    }
+
+    /**
+     * Returns the gender, one of the {@link ContactEntry.GENDER} ordinals.
+     */
+    public int getGender() {
+        return mCursor.getInt(checkColumn(mGenderIndex, ContactEntry.COLUMN_CONTACT_GENDER));
+    }
+
+    public String getNumber() {
+        return mCursor.getString(checkColumn(mNumberIndex, ContactEntry.COLUMN_CONTACT_NUMBER));
+    }
+
+    /**
+     * Copy the name into the given buffer, growing it only if it's too small.
+     */
+    public void copyName(CharArrayBuffer buffer) {
+        mCursor.copyStringToBuffer(checkColumn(mNameIndex, ContactEntry.COLUMN_CONTACT_NAME), buffer);
+    }
+
+    /**
+     * Copy the email into the given buffer, growing it only if it's too small. A contact
+     * without an email leaves the buffer empty.
+     */
+    public void copyEmail(CharArrayBuffer buffer) {
+        mCursor.copyStringToBuffer(checkColumn(mEmailIndex, ContactEntry.COLUMN_CONTACT_EMAIL), buffer);
+    }
+
+    private static int checkColumn(int index, String column) {
+        if (index < 0) {
+            throw new IllegalStateException("Column " + column + " is not in the projection");
+        }
+        return index;
+    }
+}
@@ -0,0 +1,61 @@
+package com.wampinfotech.contacts.data;
+
+/**
+ * Connection settings applied by {@link ContactDbHelper} every time it opens the database.
+ * <p>
+ * The journal mode belongs to the database file, so it holds for every connection. The other
+ * settings are PRAGMAs, which SQLiteDatabase runs on its primary connection only: the one every
+ * write and every transaction goes through. With write-ahead logging on, queries outside a
+ * transaction may run on the pooled read connections instead, which keep SQLite's defaults for
+ * them. That costs nothing for synchronous, which only matters to commits, but the page cache
+ * and memory-mapped I/O settings only speed up the reads of the primary connection.
+ */
+final class ContactDbConfig {
+
+    /**
+     * Possible values of SQLite's synchronous setting, from fastest to most durable.
+     */
+    enum Synchronous {
+        OFF,
+        NORMAL,
+        FULL
+    }
+
+    /**
+     * Settings used by the provider: write-ahead logging, so an import doesn't block readers,
+     * NORMAL synchronous, which is durable in WAL mode except on power loss, a 2 MiB page cache
+     * and no memory-mapped I/O.
+     */
+    static final ContactDbConfig DEFAULT = new ContactDbConfig(true, Synchronous.NORMAL, 2048, 0);
+
+    /**
+     * Whether the database uses write-ahead logging instead of a rollback journal
+     */
+    final boolean writeAheadLogging;
+
+    /**
+     * Synchronous setting of the primary connection, which makes the commits
+     */
+    final Synchronous synchronous;
+
+    /**
+     * Size of the page cache of the primary connection, in KiB
+     */
+    final int cacheSizeKib;
+
+    /**
+     * Maximum number of bytes of the database file the primary connection accesses through
+     * memory-mapped I/O, 0 to disable it. Ignored by SQLite builds older than 3.7.17.
+     */
+    final long mmapSize;
+
+    ContactDbConfig(boolean writeAheadLogging, Synchronous synchronous, int cacheSizeKib, long mmapSize) {
+        if (cacheSizeKib <= 0 || mmapSize < 0) {
+            throw new IllegalArgumentException("Invalid cache size " + cacheSizeKib + " or mmap size " + mmapSize);
+        }
+        this.writeAheadLogging = writeAheadLogging;
+        this.synchronous = synchronous;
+        this.cacheSizeKib = cacheSizeKib;
+        this.mmapSize = mmapSize;
+    }
+}
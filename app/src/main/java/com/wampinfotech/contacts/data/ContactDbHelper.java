@@ -16,8 +16,11 @@
 package com.wampinfotech.contacts.data;
 
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Build;
 
 /**
  * Database helper for Pets app. Manages database creation and version management.
@@ -34,15 +37,137 @@ class ContactDbHelper extends SQLiteOpenHelper {
     /**
      * Database version. If you change the database schema, you must increment the database version.
      */
-    private static final int DATABASE_VERSION = 1;
+    private static final int DATABASE_VERSION = 8;
 
     /**
-     * Constructs a new instance of {@link ContactDbHelper}.
+     * Lengths of the word prefixes the full-text search table indexes. A search for a prefix of
+     * one of these lengths reads a single list of contacts instead of merging the list of every
+     * word that starts with it, which for a short prefix of the emails or numbers can be
+     * thousands of words. Longer prefixes start few enough words without it.
+     */
+    private static final String SEARCH_PREFIX_LENGTHS = "2,3";
+
+    /**
+     * Name of the index used for name lookups. The index is case-insensitive, so it can serve
+     * both prefix lookups and sorting by name.
+     */
+    private static final String INDEX_CONTACT_NAME = "contacts_name_index";
+
+    /**
+     * Name of the index used for email lookups
+     */
+    private static final String INDEX_CONTACT_EMAIL = "contacts_email_index";
+
+    /**
+     * Name of the index used for mobile number lookups
+     */
+    private static final String INDEX_CONTACT_NUMBER = "contacts_mobile_index";
+
+    /**
+     * Name of the index used for lookups by the key of the mobile number
+     */
+    private static final String INDEX_CONTACT_NUMBER_KEY = "contacts_mobile_key_index";
+
+    /**
+     * Name of the index the purger finds deleted contacts through
+     */
+    private static final String INDEX_CONTACT_DELETED = "contacts_deleted_index";
+
+    /**
+     * Name of the index of the change log by contact, used to prune superseded changes
+     */
+    private static final String INDEX_CHANGE_CONTACT = "contacts_changes_contact_index";
+
+    /**
+     * Name of the index the groups are listed by title through
+     */
+    private static final String INDEX_GROUP_TITLE = "contact_groups_title_index";
+
+    /**
+     * Name of the unique index of the members by group, which also lists the members of a group
+     */
+    private static final String INDEX_MEMBER_GROUP = "contact_group_members_group_index";
+
+    /**
+     * Name of the index of the members by contact, which lists the groups of a contact
+     */
+    private static final String INDEX_MEMBER_CONTACT = "contact_group_members_contact_index";
+
+    /**
+     * Connection settings applied whenever the database is opened
+     */
+    private final ContactDbConfig mConfig;
+
+    /**
+     * Constructs a new instance of {@link ContactDbHelper} with the default connection settings.
      *
      * @param context of the app
      */
     public ContactDbHelper(Context context) {
+        this(context, ContactDbConfig.DEFAULT);
+    }
+
+    /**
+     * Constructs a new instance of {@link ContactDbHelper}.
+     *
+     * @param context of the app
+     * @param config  connection settings
+     */
+    ContactDbHelper(Context context, ContactDbConfig config) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        mConfig = config;
+    }
+
+    /**
+     * This is called when the database connection is being configured, before the schema is
+     * created or upgraded. Only called from Jelly Bean on.
+     */
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        super.onConfigure(db);
+        configure(db);
+    }
+
+    /**
+     * This is called when the database has been opened. Older releases don't call
+     * {@link #onConfigure(SQLiteDatabase)}, so the settings are applied here instead.
+     */
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            configure(db);
+        }
+    }
+
+    /**
+     * Apply the connection settings to the given database. Every setting but write-ahead
+     * logging only reaches its primary connection, as described by {@link ContactDbConfig}.
+     */
+    private void configure(SQLiteDatabase db) {
+        // Let the purger hand freed pages back to the file system in steps. This only takes
+        // effect on a database without tables yet; ContactPurger.compact() converts older ones.
+        runPragma(db, "PRAGMA auto_vacuum=" + ContactPurger.AUTO_VACUUM_INCREMENTAL);
+        if (mConfig.writeAheadLogging) {
+            db.enableWriteAheadLogging();
+        }
+        runPragma(db, "PRAGMA synchronous=" + mConfig.synchronous.name());
+        // A negative cache size is in KiB rather than pages
+        runPragma(db, "PRAGMA cache_size=-" + mConfig.cacheSizeKib);
+        runPragma(db, "PRAGMA mmap_size=" + mConfig.mmapSize);
+    }
+
+    /**
+     * Run a PRAGMA statement. Some of them return the new value as a row, which execSQL()
+     * refuses, so they go through rawQuery() instead.
+     */
+    private static void runPragma(SQLiteDatabase db, String pragma) {
+        Cursor cursor = db.rawQuery(pragma, null);
+        try {
+            cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
     }
 
     /**
@@ -60,13 +185,256 @@ class ContactDbHelper extends SQLiteOpenHelper {
 
         // Execute the SQL statement
         db.execSQL(SQL_CREATE_PETS_TABLE);
+
+        // Bring the new table up to the latest schema
+        onUpgrade(db, 1, DATABASE_VERSION);
     }
 
     /**
-     * This is called when the database needs to be upgraded.
+     * This is called when the database needs to be upgraded. Each case migrates the schema by
+     * one version and falls through to the next one.
      */
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        // The database is still at version 1, so there's nothing to do be done here.
+        switch (oldVersion) {
+            case 1:
+                // Version 2 indexes the columns used for lookups
+                createLookupIndexes(db);
+                // fall through
+            case 2:
+                // Version 3 adds the full-text search table
+                createSearchTable(db);
+                // fall through
+            case 3:
+                // Version 4 adds the indexed key of the mobile number
+                addNumberKey(db);
+                // fall through
+            case 4:
+                // Version 5 deletes contacts by flagging them, for the purger to remove
+                addDeletedFlag(db);
+                // fall through
+            case 5:
+                // Version 6 logs the changes to the contacts
+                createChangeLog(db);
+                // fall through
+            case 6:
+                // Version 7 adds the groups of contacts
+                createGroups(db);
+                // fall through
+            case 7:
+                // Version 8 indexes the word prefixes in the search table. A table created by the
+                // step to version 3 above already has them.
+                if (oldVersion >= 3) {
+                    rebuildSearchTable(db);
+                }
+        }
+    }
+
+    /**
+     * Create the indexes used for name, email and mobile number lookups.
+     */
+    private static void createLookupIndexes(SQLiteDatabase db) {
+        db.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_CONTACT_NAME + " ON " + ContactContract.ContactEntry.TABLE_NAME
+                + " (" + ContactContract.ContactEntry.COLUMN_CONTACT_NAME + " COLLATE NOCASE);");
+        db.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_CONTACT_EMAIL + " ON " + ContactContract.ContactEntry.TABLE_NAME
+                + " (" + ContactContract.ContactEntry.COLUMN_CONTACT_EMAIL + ");");
+        db.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_CONTACT_NUMBER + " ON " + ContactContract.ContactEntry.TABLE_NAME
+                + " (" + ContactContract.ContactEntry.COLUMN_CONTACT_NUMBER + ");");
+    }
+
+    /**
+     * Create the full-text search table, fill it with the existing contacts and install the
+     * triggers that keep it in sync with the contacts table.
+     */
+    private static void createSearchTable(SQLiteDatabase db) {
+        String contacts = ContactContract.ContactEntry.TABLE_NAME;
+        String search = ContactContract.ContactEntry.SEARCH_TABLE_NAME;
+        String columns = ContactContract.ContactEntry.COLUMN_CONTACT_NAME + ", "
+                + ContactContract.ContactEntry.COLUMN_CONTACT_EMAIL + ", "
+                + ContactContract.ContactEntry.COLUMN_CONTACT_NUMBER;
+        String newColumns = "new." + ContactContract.ContactEntry.COLUMN_CONTACT_NAME + ", "
+                + "new." + ContactContract.ContactEntry.COLUMN_CONTACT_EMAIL + ", "
+                + "new." + ContactContract.ContactEntry.COLUMN_CONTACT_NUMBER;
+
+        // The prefix option needs the SQLite of Jelly Bean; older releases search without it
+        String options = Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN
+                ? ", prefix=\"" + SEARCH_PREFIX_LENGTHS + "\"" : "";
+        db.execSQL("CREATE VIRTUAL TABLE " + search + " USING fts4(" + columns + options + ");");
+
+        // Index the contacts that are already there
+        db.execSQL("INSERT INTO " + search + " (docid, " + columns + ") SELECT "
+                + ContactContract.ContactEntry._ID + ", " + columns + " FROM " + contacts + ";");
+
+        db.execSQL("CREATE TRIGGER " + search + "_insert AFTER INSERT ON " + contacts + " BEGIN "
+                + "INSERT INTO " + search + " (docid, " + columns + ") VALUES (new."
+                + ContactContract.ContactEntry._ID + ", " + newColumns + "); END;");
+        db.execSQL("CREATE TRIGGER " + search + "_update AFTER UPDATE OF " + columns + " ON " + contacts + " BEGIN "
+                + "UPDATE " + search + " SET "
+                + ContactContract.ContactEntry.COLUMN_CONTACT_NAME + "=new." + ContactContract.ContactEntry.COLUMN_CONTACT_NAME + ", "
+                + ContactContract.ContactEntry.COLUMN_CONTACT_EMAIL + "=new." + ContactContract.ContactEntry.COLUMN_CONTACT_EMAIL + ", "
+                + ContactContract.ContactEntry.COLUMN_CONTACT_NUMBER + "=new." + ContactContract.ContactEntry.COLUMN_CONTACT_NUMBER
+                + " WHERE docid=old." + ContactContract.ContactEntry._ID + "; END;");
+        db.execSQL("CREATE TRIGGER " + search + "_delete AFTER DELETE ON " + contacts + " BEGIN "
+                + "DELETE FROM " + search + " WHERE docid=old." + ContactContract.ContactEntry._ID + "; END;");
+    }
+
+    /**
+     * Drop the full-text search table and its triggers and create them again, with the
+     * current options and filled from the contacts table.
+     */
+    private static void rebuildSearchTable(SQLiteDatabase db) {
+        String search = ContactContract.ContactEntry.SEARCH_TABLE_NAME;
+        db.execSQL("DROP TRIGGER IF EXISTS " + search + "_insert;");
+        db.execSQL("DROP TRIGGER IF EXISTS " + search + "_update;");
+        db.execSQL("DROP TRIGGER IF EXISTS " + search + "_delete;");
+        db.execSQL("DROP TABLE IF EXISTS " + search + ";");
+        createSearchTable(db);
+    }
+
+    /**
+     * Add the mobile number key column, compute it for the existing contacts and index it.
+     */
+    private static void addNumberKey(SQLiteDatabase db) {
+        String contacts = ContactContract.ContactEntry.TABLE_NAME;
+        db.execSQL("ALTER TABLE " + contacts + " ADD COLUMN "
+                + ContactContract.ContactEntry.COLUMN_CONTACT_NUMBER_KEY + " INTEGER;");
+
+        // The key can't be computed in SQL, so fill it in row by row through one compiled statement
+        SQLiteStatement statement = db.compileStatement("UPDATE " + contacts + " SET "
+                + ContactContract.ContactEntry.COLUMN_CONTACT_NUMBER_KEY + "=? WHERE "
+                + ContactContract.ContactEntry._ID + "=?");
+        Cursor cursor = db.query(contacts, new String[]{ContactContract.ContactEntry._ID,
+                ContactContract.ContactEntry.COLUMN_CONTACT_NUMBER}, null, null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                Long key = ContactNumberKey.of(cursor.getString(1));
+                if (key == null) {
+                    continue;
+                }
+                statement.bindLong(1, key);
+                statement.bindLong(2, cursor.getLong(0));
+                statement.executeUpdateDelete();
+            }
+        } finally {
+            cursor.close();
+            statement.close();
+        }
+
+        db.execSQL("CREATE INDEX " + INDEX_CONTACT_NUMBER_KEY + " ON " + contacts
+                + " (" + ContactContract.ContactEntry.COLUMN_CONTACT_NUMBER_KEY + ");");
+    }
+
+    /**
+     * Add the indexed flag of deleted contacts. Existing contacts are not deleted.
+     */
+    private static void addDeletedFlag(SQLiteDatabase db) {
+        String contacts = ContactContract.ContactEntry.TABLE_NAME;
+        db.execSQL("ALTER TABLE " + contacts + " ADD COLUMN "
+                + ContactContract.ContactEntry.COLUMN_DELETED + " INTEGER NOT NULL DEFAULT 0;");
+        db.execSQL("CREATE INDEX " + INDEX_CONTACT_DELETED + " ON " + contacts
+                + " (" + ContactContract.ContactEntry.COLUMN_DELETED + ");");
+    }
+
+    /**
+     * Create the change log, and the triggers that add a change to it for every insert, update
+     * and delete of a contact. The contacts already there have no changes logged.
+     */
+    private static void createChangeLog(SQLiteDatabase db) {
+        String contacts = ContactContract.ContactEntry.TABLE_NAME;
+        String changes = ContactContract.ContactEntry.CHANGES_TABLE_NAME;
+        String horizon = ContactContract.ContactEntry.CHANGES_HORIZON_TABLE_NAME;
+        String sequence = ContactContract.ContactEntry.COLUMN_CHANGE_SEQUENCE;
+        String deleted = ContactContract.ContactEntry.COLUMN_DELETED;
+
+        // AUTOINCREMENT keeps sequence numbers from being reused once the newest changes are pruned
+        db.execSQL("CREATE TABLE " + changes + " ("
+                + sequence + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + ContactContract.ContactEntry.COLUMN_CHANGE_CONTACT_ID + " INTEGER NOT NULL, "
+                + ContactContract.ContactEntry.COLUMN_CHANGE_OPERATION + " INTEGER NOT NULL, "
+                + ContactContract.ContactEntry.COLUMN_CHANGE_TIME + " INTEGER NOT NULL);");
+        db.execSQL("CREATE INDEX " + INDEX_CHANGE_CONTACT + " ON " + changes
+                + " (" + ContactContract.ContactEntry.COLUMN_CHANGE_CONTACT_ID + ");");
+        db.execSQL("CREATE TABLE " + horizon + " (" + sequence + " INTEGER NOT NULL);");
+        db.execSQL("INSERT INTO " + horizon + " (" + sequence + ") VALUES (0);");
+
+        db.execSQL("CREATE TRIGGER " + changes + "_insert AFTER INSERT ON " + contacts + " BEGIN "
+                + logChange(ContactContract.ContactEntry.CHANGE.INSERT) + " END;");
+        db.execSQL("CREATE TRIGGER " + changes + "_update AFTER UPDATE OF "
+                + ContactContract.ContactEntry.COLUMN_CONTACT_NAME + ", "
+                + ContactContract.ContactEntry.COLUMN_CONTACT_EMAIL + ", "
+                + ContactContract.ContactEntry.COLUMN_CONTACT_GENDER + ", "
+                + ContactContract.ContactEntry.COLUMN_CONTACT_NUMBER + " ON " + contacts
+                + " WHEN new." + deleted + "=0 BEGIN "
+                + logChange(ContactContract.ContactEntry.CHANGE.UPDATE) + " END;");
+        // Deleting flags the contact; removing its row later is not a change
+        db.execSQL("CREATE TRIGGER " + changes + "_delete AFTER UPDATE OF " + deleted + " ON " + contacts
+                + " WHEN new." + deleted + "=1 AND old." + deleted + "=0 BEGIN "
+                + logChange(ContactContract.ContactEntry.CHANGE.DELETE) + " END;");
+    }
+
+    /**
+     * Create the groups and the table of their members, and the triggers that keep the member
+     * count of every group up to date and drop the members of a group or contact that goes.
+     */
+    private static void createGroups(SQLiteDatabase db) {
+        String contacts = ContactContract.ContactEntry.TABLE_NAME;
+        String contactId = ContactContract.ContactEntry._ID;
+        String deleted = ContactContract.ContactEntry.COLUMN_DELETED;
+        String groups = ContactContract.GroupEntry.TABLE_NAME;
+        String groupId = ContactContract.GroupEntry._ID;
+        String count = ContactContract.GroupEntry.COLUMN_MEMBER_COUNT;
+        String members = ContactContract.GroupEntry.MEMBERS_TABLE_NAME;
+        String memberGroup = ContactContract.GroupEntry.COLUMN_MEMBER_GROUP_ID;
+        String memberContact = ContactContract.GroupEntry.COLUMN_MEMBER_CONTACT_ID;
+
+        db.execSQL("CREATE TABLE " + groups + " ("
+                + groupId + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + ContactContract.GroupEntry.COLUMN_GROUP_TITLE + " TEXT NOT NULL, "
+                + count + " INTEGER NOT NULL DEFAULT 0);");
+        db.execSQL("CREATE INDEX " + INDEX_GROUP_TITLE + " ON " + groups
+                + " (" + ContactContract.GroupEntry.COLUMN_GROUP_TITLE + " COLLATE NOCASE);");
+
+        // Both indexes hold both columns, so listing either side of a membership reads only
+        // the index
+        db.execSQL("CREATE TABLE " + members + " ("
+                + memberGroup + " INTEGER NOT NULL, "
+                + memberContact + " INTEGER NOT NULL);");
+        db.execSQL("CREATE UNIQUE INDEX " + INDEX_MEMBER_GROUP + " ON " + members
+                + " (" + memberGroup + ", " + memberContact + ");");
+        db.execSQL("CREATE INDEX " + INDEX_MEMBER_CONTACT + " ON " + members
+                + " (" + memberContact + ", " + memberGroup + ");");
+
+        // Only live contacts are added, and a member counts until its contact is deleted.
+        // The purger removes the row of a deleted contact, and with it its memberships, which
+        // were no longer counted.
+        db.execSQL("CREATE TRIGGER " + members + "_insert AFTER INSERT ON " + members + " BEGIN "
+                + "UPDATE " + groups + " SET " + count + "=" + count + "+1 WHERE " + groupId + "=new." + memberGroup
+                + "; END;");
+        db.execSQL("CREATE TRIGGER " + members + "_delete AFTER DELETE ON " + members
+                + " WHEN (SELECT " + deleted + " FROM " + contacts + " WHERE " + contactId + "=old." + memberContact
+                + ")=0 BEGIN "
+                + "UPDATE " + groups + " SET " + count + "=" + count + "-1 WHERE " + groupId + "=old." + memberGroup
+                + "; END;");
+        db.execSQL("CREATE TRIGGER " + groups + "_delete AFTER DELETE ON " + groups + " BEGIN "
+                + "DELETE FROM " + members + " WHERE " + memberGroup + "=old." + groupId + "; END;");
+        db.execSQL("CREATE TRIGGER " + groups + "_contact_delete AFTER UPDATE OF " + deleted + " ON " + contacts
+                + " WHEN new." + deleted + "=1 AND old." + deleted + "=0 BEGIN "
+                + "UPDATE " + groups + " SET " + count + "=" + count + "-1 WHERE " + groupId + " IN (SELECT "
+                + memberGroup + " FROM " + members + " WHERE " + memberContact + "=new." + contactId + "); END;");
+        db.execSQL("CREATE TRIGGER " + groups + "_contact_purge AFTER DELETE ON " + contacts + " BEGIN "
+                + "DELETE FROM " + members + " WHERE " + memberContact + "=old." + contactId + "; END;");
+    }
+
+    /**
+     * Returns the statement a change log trigger runs to log the given operation on the
+     * contact in {@code new}.
+     */
+    private static String logChange(ContactContract.ContactEntry.CHANGE operation) {
+        return "INSERT INTO " + ContactContract.ContactEntry.CHANGES_TABLE_NAME + " ("
+                + ContactContract.ContactEntry.COLUMN_CHANGE_CONTACT_ID + ", "
+                + ContactContract.ContactEntry.COLUMN_CHANGE_OPERATION + ", "
+                + ContactContract.ContactEntry.COLUMN_CHANGE_TIME + ") VALUES (new."
+                + ContactContract.ContactEntry._ID + ", " + operation.ordinal() + ", "
+                + "CAST(strftime('%s', 'now') AS INTEGER));";
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,462 @@
+package com.wampinfotech.contacts.data;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.wampinfotech.contacts.data.ContactContract.ContactEntry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Finds groups of contacts that are likely duplicates of each other, without comparing every
+ * contact with every other one.
+ * <p>
+ * Contacts are first blocked: only contacts with the same mobile number key, or with the same
+ * email ignoring surrounding spaces and ASCII case, are candidates. Each kind of block is read in
+ * one pass ordered by its key, so blocks come out of the cursor one after the other and only
+ * the current one is held.
+ * Within a block, contacts whose names are equal once normalised are grouped straight away, and
+ * the distinct names are then fuzzy-matched pairwise by {@link ContactNameMatcher}.
+ * <p>
+ * The blocks are matched on a pool with one thread per core while the next ones are read, and
+ * every group is reported on the main thread as soon as its block is done. Contacts grouped by
+ * their number are not reported again for sharing an email. Groups can then be merged with
+ * {@link #merge}.
+ */
+public final class ContactDuplicateFinder {
+
+    /**
+     * Tag for the log messages
+     */
+    private static final String LOG_TAG = ContactDuplicateFinder.class.getSimpleName();
+
+    /**
+     * What the contacts of a group have in common
+     */
+    public enum Reason {
+        NUMBER,
+        EMAIL
+    }
+
+    /**
+     * Contacts that are likely the same person.
+     */
+    public static final class DuplicateGroup {
+
+        public final Reason reason;
+
+        /**
+         * _IDs of the contacts, in ascending order, so the first is the oldest contact
+         */
+        public final long[] ids;
+
+        DuplicateGroup(Reason reason, long[] ids) {
+            this.reason = reason;
+            this.ids = ids;
+        }
+    }
+
+    /**
+     * Receives the results of a search. Every method is called on the main thread, and none is
+     * called once the search has been cancelled.
+     */
+    public interface Listener {
+        /**
+         * Called for every group of duplicates, as soon as it is found.
+         */
+        void onDuplicatesFound(DuplicateGroup group);
+
+        /**
+         * Called once after the last group, with the number of groups found. A search that
+         * failed reports the groups found until then.
+         */
+        void onFinished(int groupCount);
+    }
+
+    /**
+     * Number of contacts the reader hands to a matching task at once. Most blocks hold two or
+     * three contacts, so they are batched to keep the tasks worth scheduling.
+     */
+    private static final int BATCH_SIZE = 512;
+
+    /**
+     * Largest number of distinct names in a block that are fuzzy-matched pairwise. Larger
+     * blocks, like a number shared by a whole office, only group equal names.
+     */
+    private static final int MAX_FUZZY_NAMES = 256;
+
+    /**
+     * Key of the email blocks. The blocks are both sorted and told apart by it, so a block is
+     * never split by contacts whose emails sort apart but share a key.
+     */
+    private static final String EMAIL_KEY = "lower(trim(" + ContactEntry.COLUMN_CONTACT_EMAIL + "))";
+
+    /**
+     * Columns read by the passes over the number keys and over the emails: the _ID, the name
+     * and the key of the block
+     */
+    private static final String[] NUMBER_PROJECTION = {ContactEntry._ID, ContactEntry.COLUMN_CONTACT_NAME,
+            ContactEntry.COLUMN_CONTACT_NUMBER_KEY};
+
+    private static final String[] EMAIL_PROJECTION = {ContactEntry._ID, ContactEntry.COLUMN_CONTACT_NAME,
+            EMAIL_KEY};
+
+    private final ContentResolver mResolver;
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    private volatile boolean mCancelled;
+
+    private boolean mStarted;
+
+    public ContactDuplicateFinder(ContentResolver resolver) {
+        mResolver = resolver;
+    }
+
+    /**
+     * Start searching for duplicates on a background thread. A finder only runs one search.
+     */
+    public void start(final Listener listener) {
+        if (mStarted) {
+            throw new IllegalStateException("The search has already been started");
+        }
+        mStarted = true;
+
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                search(listener);
+            }
+        }, LOG_TAG);
+        reader.setPriority(Thread.MIN_PRIORITY);
+        reader.start();
+    }
+
+    /**
+     * Stop the search. No more results are reported, even for blocks already matched.
+     */
+    public void cancel() {
+        mCancelled = true;
+    }
+
+    /**
+     * Merge the given duplicates into the contact to keep, in one transaction, as described by
+     * {@link ContactContract#METHOD_MERGE_CONTACTS}. This writes to the database, so it must not
+     * be called on the main thread. Returns the number of duplicates deleted.
+     */
+    public static int merge(ContentResolver resolver, long keepId, long[] duplicateIds) {
+        Bundle extras = new Bundle();
+        extras.putLongArray(ContactContract.MERGE_DUPLICATE_IDS, duplicateIds);
+        Bundle result = resolver.call(ContactEntry.CONTENT_URI, ContactContract.METHOD_MERGE_CONTACTS,
+                String.valueOf(keepId), extras);
+        return result == null ? 0 : result.getInt(ContactContract.MERGE_ROWS_DELETED);
+    }
+
+    /**
+     * Run the search: a pass over the number keys, then one over the emails.
+     */
+    private void search(final Listener listener) {
+        int threads = Runtime.getRuntime().availableProcessors();
+        // A full queue makes the reader match the next batch itself, which keeps it from
+        // reading the whole table ahead of the matchers
+        ThreadPoolExecutor matchers = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(threads * 2), new ThreadPoolExecutor.CallerRunsPolicy());
+        final AtomicInteger groupCount = new AtomicInteger();
+        // Group of every contact grouped by its number, so its email group can be skipped
+        ConcurrentHashMap<Long, Integer> numberGroups = new ConcurrentHashMap<>();
+
+        try {
+            scan(Reason.NUMBER, matchers, groupCount, numberGroups, listener);
+            scan(Reason.EMAIL, matchers, groupCount, numberGroups, listener);
+        } catch (RuntimeException e) {
+            Log.e(LOG_TAG, "Failed to search for duplicates", e);
+        } finally {
+            matchers.shutdownNow();
+        }
+
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!mCancelled) {
+                    listener.onFinished(groupCount.get());
+                }
+            }
+        });
+    }
+
+    /**
+     * Read the blocks of the given kind in order and match them on the given pool. Returns
+     * once every block has been matched.
+     */
+    private void scan(Reason reason, ThreadPoolExecutor matchers, AtomicInteger groupCount,
+                      ConcurrentHashMap<Long, Integer> numberGroups, Listener listener) {
+        String[] projection;
+        String selection;
+        String sortOrder;
+        if (reason == Reason.NUMBER) {
+            projection = NUMBER_PROJECTION;
+            selection = ContactEntry.COLUMN_CONTACT_NUMBER_KEY + " IS NOT NULL";
+            sortOrder = ContactEntry.COLUMN_CONTACT_NUMBER_KEY + ", " + ContactEntry._ID;
+        } else {
+            projection = EMAIL_PROJECTION;
+            selection = "trim(" + ContactEntry.COLUMN_CONTACT_EMAIL + ")!=''";
+            sortOrder = EMAIL_KEY + ", " + ContactEntry._ID;
+        }
+
+        Cursor cursor = mResolver.query(ContactEntry.CONTENT_URI, projection, selection, null, sortOrder);
+        if (cursor == null) {
+            return;
+        }
+
+        ArrayList<Future<?>> results = new ArrayList<>();
+        try {
+            Batch batch = new Batch(reason);
+            Block block = new Block();
+            String blockKey = null;
+            while (cursor.moveToNext() && !mCancelled) {
+                // The key is read as the database computed it, in the order it sorted by
+                String key = cursor.getString(2);
+                if (!key.equals(blockKey)) {
+                    // The previous block is complete; only blocks of two or more can hold duplicates
+                    if (block.size > 1) {
+                        batch.add(block);
+                        block = new Block();
+                        if (batch.size >= BATCH_SIZE) {
+                            results.add(matchers.submit(new MatchTask(batch, groupCount, numberGroups, listener)));
+                            batch = new Batch(reason);
+                        }
+                    } else {
+                        block.size = 0;
+                    }
+                    blockKey = key;
+                }
+                block.add(cursor.getLong(0), cursor.getString(1));
+            }
+            if (block.size > 1) {
+                batch.add(block);
+            }
+            if (batch.size > 0) {
+                results.add(matchers.submit(new MatchTask(batch, groupCount, numberGroups, listener)));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        // The email pass needs every number group, so wait for this pass to finish
+        try {
+            for (Future<?> result : results) {
+                result.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            mCancelled = true;
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /**
+     * Contacts that share a number key or an email, in ascending _ID order.
+     */
+    private static final class Block {
+        long[] ids = new long[4];
+
+        String[] names = new String[4];
+
+        int size;
+
+        void add(long id, String name) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+                names = Arrays.copyOf(names, size * 2);
+            }
+            ids[size] = id;
+            names[size] = name;
+            size++;
+        }
+    }
+
+    /**
+     * Blocks matched by one task.
+     */
+    private static final class Batch {
+        final Reason reason;
+
+        final ArrayList<Block> blocks = new ArrayList<>();
+
+        /**
+         * Total number of contacts in the blocks
+         */
+        int size;
+
+        Batch(Reason reason) {
+            this.reason = reason;
+        }
+
+        void add(Block block) {
+            blocks.add(block);
+            size += block.size;
+        }
+    }
+
+    /**
+     * Matches the names within every block of a batch, then reports the groups found.
+     */
+    private final class MatchTask implements Runnable {
+        private final Batch mBatch;
+
+        private final AtomicInteger mGroupCount;
+
+        private final ConcurrentHashMap<Long, Integer> mNumberGroups;
+
+        private final Listener mListener;
+
+        MatchTask(Batch batch, AtomicInteger groupCount, ConcurrentHashMap<Long, Integer> numberGroups,
+                  Listener listener) {
+            mBatch = batch;
+            mGroupCount = groupCount;
+            mNumberGroups = numberGroups;
+            mListener = listener;
+        }
+
+        @Override
+        public void run() {
+            final ArrayList<DuplicateGroup> groups = new ArrayList<>();
+            for (Block block : mBatch.blocks) {
+                if (mCancelled) {
+                    return;
+                }
+                match(block, groups);
+            }
+            if (groups.isEmpty()) {
+                return;
+            }
+
+            // Report the groups of the whole batch in one message to the main thread
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    for (DuplicateGroup group : groups) {
+                        if (mCancelled) {
+                            return;
+                        }
+                        mListener.onDuplicatesFound(group);
+                    }
+                }
+            });
+        }
+
+        /**
+         * Group the contacts of the block whose names match, adding the groups to the given list.
+         */
+        private void match(Block block, ArrayList<DuplicateGroup> groups) {
+            // Contacts with the same normalised name are grouped through a map, which also
+            // keeps large blocks of identical contacts from being compared pairwise
+            HashMap<String, Integer> nameIndexes = new HashMap<>();
+            ArrayList<String> names = new ArrayList<>();
+            int[] contactNames = new int[block.size];
+            for (int i = 0; i < block.size; i++) {
+                String name = ContactNameMatcher.normalise(block.names[i]);
+                Integer index = nameIndexes.get(name);
+                if (index == null) {
+                    index = names.size();
+                    nameIndexes.put(name, index);
+                    names.add(name);
+                }
+                contactNames[i] = index;
+            }
+
+            // Join the distinct names that match, through a union-find over their indexes
+            int nameCount = names.size();
+            int[] parents = new int[nameCount];
+            for (int i = 0; i < nameCount; i++) {
+                parents[i] = i;
+            }
+            if (nameCount <= MAX_FUZZY_NAMES) {
+                for (int i = 0; i < nameCount; i++) {
+                    for (int j = i + 1; j < nameCount; j++) {
+                        if (ContactNameMatcher.matches(names.get(i), names.get(j))) {
+                            parents[find(parents, j)] = find(parents, i);
+                        }
+                    }
+                }
+            }
+
+            // Collect the contacts of every joined name; contacts without a name match nothing
+            HashMap<Integer, long[]> members = new HashMap<>();
+            int[] memberCounts = new int[nameCount];
+            int[] filled = new int[nameCount];
+            for (int i = 0; i < block.size; i++) {
+                if (!names.get(contactNames[i]).isEmpty()) {
+                    memberCounts[find(parents, contactNames[i])]++;
+                }
+            }
+            for (int i = 0; i < block.size; i++) {
+                int root = find(parents, contactNames[i]);
+                if (memberCounts[root] < 2 || names.get(contactNames[i]).isEmpty()) {
+                    continue;
+                }
+                long[] ids = members.get(root);
+                if (ids == null) {
+                    ids = new long[memberCounts[root]];
+                    members.put(root, ids);
+                }
+                ids[filled[root]++] = block.ids[i];
+            }
+
+            for (long[] ids : members.values()) {
+                // The block is in _ID order, and so is every group taken from it
+                if (mBatch.reason == Reason.EMAIL && isNumberGroup(ids)) {
+                    continue;
+                }
+                int group = mGroupCount.incrementAndGet();
+                if (mBatch.reason == Reason.NUMBER) {
+                    for (long id : ids) {
+                        mNumberGroups.put(id, group);
+                    }
+                }
+                groups.add(new DuplicateGroup(mBatch.reason, ids));
+            }
+        }
+
+        /**
+         * Returns whether the given contacts were already reported together as a number group.
+         */
+        private boolean isNumberGroup(long[] ids) {
+            Integer group = mNumberGroups.get(ids[0]);
+            if (group == null) {
+                return false;
+            }
+            for (int i = 1; i < ids.length; i++) {
+                if (!group.equals(mNumberGroups.get(ids[i]))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Returns the root of the given name index in the union-find, compressing the path to it.
+     */
+    private static int find(int[] parents, int index) {
+        while (parents[index] != index) {
+            parents[index] = parents[parents[index]];
+            index = parents[index];
+        }
+        return index;
+    }
+}
@@ -0,0 +1,368 @@
+package com.wampinfotech.contacts.data;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.wampinfotech.contacts.data.ContactContract.ContactEntry;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Exports all contacts to CSV or vCard.
+ * <p>
+ * The contacts table is read in chunks of a configurable size in _ID order, using the
+ * {@link ContactEntry#QUERY_PARAMETER_AFTER_ID} and {@link ContactEntry#QUERY_PARAMETER_LIMIT}
+ * paging of the provider, so at most one chunk is held in memory however big the table is.
+ * The text is encoded as UTF-8 into a single reused buffer that is written to the channel
+ * whenever it fills up. The CSV output can be read back by {@link ContactImporter}.
+ */
+public final class ContactExporter {
+
+    /**
+     * Number of contacts read per query by default
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 1000;
+
+    private static final String LOG_TAG = ContactExporter.class.getSimpleName();
+
+    /**
+     * Size of the buffer the text is encoded into
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Runs the exports started with {@link #exportContactsAsync}, one at a time
+     */
+    private static final ExecutorService sExecutor = Executors.newSingleThreadExecutor();
+
+    /**
+     * Receives the progress of an export.
+     */
+    public interface ProgressListener {
+        /**
+         * Called on the exporting thread after every chunk.
+         *
+         * @param rowsExported number of contacts written so far
+         * @param bytesWritten number of bytes written to the channel so far
+         */
+        void onProgress(long rowsExported, long bytesWritten);
+    }
+
+    /**
+     * Outcome of a finished export.
+     */
+    public static final class Result {
+        /**
+         * Number of contacts written
+         */
+        public final long rowsExported;
+
+        /**
+         * Number of bytes written to the channel
+         */
+        public final long bytesWritten;
+
+        /**
+         * Time the export took, in milliseconds
+         */
+        public final long elapsedMillis;
+
+        Result(long rowsExported, long bytesWritten, long elapsedMillis) {
+            this.rowsExported = rowsExported;
+            this.bytesWritten = bytesWritten;
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        /**
+         * Returns the number of contacts written per second.
+         */
+        public double getRowsPerSecond() {
+            return rowsExported * 1000.0 / Math.max(1, elapsedMillis);
+        }
+
+        /**
+         * Returns the number of bytes written per second.
+         */
+        public double getBytesPerSecond() {
+            return bytesWritten * 1000.0 / Math.max(1, elapsedMillis);
+        }
+
+        @Override
+        public String toString() {
+            return rowsExported + " rows, " + bytesWritten + " bytes in " + elapsedMillis + " ms ("
+                    + Math.round(getRowsPerSecond()) + " rows/s, " + Math.round(getBytesPerSecond()) + " bytes/s)";
+        }
+    }
+
+    private final ContentResolver mContentResolver;
+
+    private final int mChunkSize;
+
+    /**
+     * Constructs a new {@link ContactExporter}.
+     *
+     * @param contentResolver used to read the contacts
+     * @param chunkSize       number of contacts read per query
+     */
+    public ContactExporter(ContentResolver contentResolver, int chunkSize) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("Invalid chunk size " + chunkSize);
+        }
+        mContentResolver = contentResolver;
+        mChunkSize = chunkSize;
+    }
+
+    /**
+     * Export all contacts to the given channel on a background thread. The channel is closed
+     * when the export ends. Cancelling the returned future stops the export after the current
+     * chunk.
+     */
+    public Future<Result> exportContactsAsync(final WritableByteChannel channel, final ContactFileFormat format,
+                                              final ProgressListener listener) {
+        return sExecutor.submit(new Callable<Result>() {
+            @Override
+            public Result call() throws IOException {
+                try {
+                    return exportContacts(channel, format, listener);
+                } finally {
+                    channel.close();
+                }
+            }
+        });
+    }
+
+    /**
+     * Export all contacts to the given channel on the calling thread, which must not be the main
+     * thread. The channel is left open.
+     *
+     * @param listener notified after every chunk, may be null
+     */
+    public Result exportContacts(WritableByteChannel channel, ContactFileFormat format,
+                                 ProgressListener listener) throws IOException {
+        long start = SystemClock.elapsedRealtime();
+        Output output = new Output(channel);
+        StringBuilder record = new StringBuilder(256);
+
+        if (format == ContactFileFormat.CSV) {
+            output.write(ContactEntry.COLUMN_CONTACT_NAME + "," + ContactEntry.COLUMN_CONTACT_EMAIL + ","
+                    + ContactEntry.COLUMN_CONTACT_GENDER + "," + ContactEntry.COLUMN_CONTACT_NUMBER + "\r\n");
+        }
+
+        long rowsExported = 0;
+        long lastId = 0;
+        while (true) {
+            Cursor chunk = queryChunk(lastId);
+            if (chunk == null) {
+                break;
+            }
+
+            int rows;
+            try {
+                rows = chunk.getCount();
+                while (chunk.moveToNext()) {
+                    // The columns come in the order of ContactRecord.COLUMNS
+                    lastId = chunk.getLong(0);
+                    record.setLength(0);
+                    if (format == ContactFileFormat.CSV) {
+                        appendCsv(record, chunk.getString(1), chunk.getString(2), chunk.getInt(3), chunk.getString(4));
+                    } else {
+                        appendVCard(record, chunk.getString(1), chunk.getString(2), chunk.getInt(3), chunk.getString(4));
+                    }
+                    output.write(record);
+                }
+            } finally {
+                chunk.close();
+            }
+
+            rowsExported += rows;
+            if (listener != null) {
+                listener.onProgress(rowsExported, output.getBytesWritten());
+            }
+            if (rows < mChunkSize) {
+                break;
+            }
+            if (Thread.interrupted()) {
+                throw new InterruptedIOException("Export cancelled after " + rowsExported + " rows");
+            }
+        }
+        output.flush();
+
+        Result result = new Result(rowsExported, output.getBytesWritten(), SystemClock.elapsedRealtime() - start);
+        Log.i(LOG_TAG, "Export finished: " + result);
+        return result;
+    }
+
+    /**
+     * Query the chunk of contacts after the given _ID.
+     */
+    private Cursor queryChunk(long afterId) {
+        Uri uri = ContactEntry.CONTENT_URI.buildUpon()
+                .appendQueryParameter(ContactEntry.QUERY_PARAMETER_AFTER_ID, String.valueOf(afterId))
+                .appendQueryParameter(ContactEntry.QUERY_PARAMETER_LIMIT, String.valueOf(mChunkSize))
+                .build();
+        return mContentResolver.query(uri, ContactRecord.COLUMNS, null, null, null);
+    }
+
+    /**
+     * Append one CSV line. The gender is written by name, which the importer reads back.
+     */
+    private static void appendCsv(StringBuilder record, String name, String email, int gender, String number) {
+        appendCsvField(record, name);
+        record.append(',');
+        appendCsvField(record, email);
+        record.append(',');
+        record.append(genderName(gender));
+        record.append(',');
+        appendCsvField(record, number);
+        record.append("\r\n");
+    }
+
+    /**
+     * Append a CSV field, quoting it if it contains a comma, a quote or a line break.
+     */
+    private static void appendCsvField(StringBuilder record, String value) {
+        if (value == null) {
+            return;
+        }
+        boolean quote = false;
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            record.append(value);
+            return;
+        }
+
+        record.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') {
+                record.append('"');
+            }
+            record.append(c);
+        }
+        record.append('"');
+    }
+
+    /**
+     * Append one vCard 3.0 card.
+     */
+    private static void appendVCard(StringBuilder record, String name, String email, int gender, String number) {
+        record.append("BEGIN:VCARD\r\nVERSION:3.0\r\nFN:");
+        appendVCardText(record, name);
+        record.append("\r\nN:;");
+        appendVCardText(record, name);
+        record.append(";;;\r\n");
+        if (email != null && !email.isEmpty()) {
+            record.append("EMAIL;TYPE=INTERNET:");
+            appendVCardText(record, email);
+            record.append("\r\n");
+        }
+        if (number != null && !number.isEmpty()) {
+            record.append("TEL;TYPE=CELL:");
+            appendVCardText(record, number);
+            record.append("\r\n");
+        }
+        if (gender == ContactEntry.GENDER.MALE.ordinal()) {
+            record.append("X-GENDER:M\r\n");
+        } else if (gender == ContactEntry.GENDER.FEMALE.ordinal()) {
+            record.append("X-GENDER:F\r\n");
+        }
+        record.append("END:VCARD\r\n");
+    }
+
+    /**
+     * Append a vCard text value, escaping backslashes, commas, semicolons and line breaks.
+     */
+    private static void appendVCardText(StringBuilder record, String value) {
+        if (value == null) {
+            return;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' || c == ',' || c == ';') {
+                record.append('\\').append(c);
+            } else if (c == '\n') {
+                record.append("\\n");
+            } else if (c != '\r') {
+                record.append(c);
+            }
+        }
+    }
+
+    /**
+     * Returns the name of the given gender, or UNKNOWN for invalid values.
+     */
+    private static String genderName(int gender) {
+        ContactEntry.GENDER[] genders = ContactEntry.GENDER.values();
+        return gender >= 0 && gender < genders.length ? genders[gender].name() : ContactEntry.GENDER.UNKNOWN.name();
+    }
+
+    /**
+     * Encodes text as UTF-8 into a reused buffer and writes the buffer to the channel whenever
+     * it fills up.
+     */
+    private static final class Output {
+        private final WritableByteChannel mChannel;
+        private final CharsetEncoder mEncoder = Charset.forName("UTF-8").newEncoder();
+        private final ByteBuffer mBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+        private long mBytesWritten;
+
+        Output(WritableByteChannel channel) {
+            mChannel = channel;
+        }
+
+        void write(CharSequence text) throws IOException {
+            CharBuffer chars = CharBuffer.wrap(text);
+            while (true) {
+                CoderResult result = mEncoder.encode(chars, mBuffer, false);
+                if (result.isOverflow()) {
+                    drain();
+                } else if (result.isError()) {
+                    result.throwException();
+                } else {
+                    break;
+                }
+            }
+        }
+
+        void flush() throws IOException {
+            CoderResult result = mEncoder.encode(CharBuffer.allocate(0), mBuffer, true);
+            if (result.isError()) {
+                throw new CharacterCodingException();
+            }
+            drain();
+        }
+
+        long getBytesWritten() {
+            return mBytesWritten + mBuffer.position();
+        }
+
+        /**
+         * Write the buffered bytes to the channel.
+         */
+        private void drain() throws IOException {
+            mBuffer.flip();
+            while (mBuffer.hasRemaining()) {
+                mBytesWritten += mChannel.write(mBuffer);
+            }
+            mBuffer.clear();
+        }
+    }
+}
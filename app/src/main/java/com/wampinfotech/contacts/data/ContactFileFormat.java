@@ -0,0 +1,15 @@
+package com.wampinfotech.contacts.data;
+
+/**
+ * File formats read by {@link ContactImporter} and written by {@link ContactExporter}.
+ */
+public enum ContactFileFormat {
+    /**
+     * Comma separated name, email, gender and mobile columns, with an optional header line
+     */
+    CSV,
+    /**
+     * vCard 2.1, 3.0 or 4.0 when reading; vCard 3.0 when writing
+     */
+    VCARD
+}
@@ -0,0 +1,250 @@
+package com.wampinfotech.contacts.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.wampinfotech.contacts.data.ContactContract.ContactEntry;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.nio.charset.Charset;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Imports contacts from CSV or vCard streams into the contact provider.
+ * <p>
+ * The stream is parsed one contact at a time, so memory use doesn't depend on its size. Each
+ * contact is checked against the same rules as {@link ContactProvider#insert}, and the valid
+ * ones are committed through {@link ContentResolver#bulkInsert} in batches of a configurable
+ * size, each batch in a single transaction. Contacts that fail the checks or have no mobile
+ * number (the column is NOT NULL) are counted as rejected and skipped.
+ */
+public final class ContactImporter {
+
+    /**
+     * Number of contacts committed per transaction by default
+     */
+    public static final int DEFAULT_BATCH_SIZE = 500;
+
+    private static final String LOG_TAG = ContactImporter.class.getSimpleName();
+
+    /**
+     * Runs the imports started with {@link #importContactsAsync}, one at a time
+     */
+    private static final ExecutorService sExecutor = Executors.newSingleThreadExecutor();
+
+    /**
+     * Receives the progress of an import.
+     */
+    public interface ProgressListener {
+        /**
+         * Called on the importing thread after every committed batch.
+         *
+         * @param rowsImported number of contacts committed so far
+         * @param rowsRejected number of contacts skipped so far
+         */
+        void onProgress(long rowsImported, long rowsRejected);
+    }
+
+    /**
+     * Outcome of a finished import.
+     */
+    public static final class Result {
+        /**
+         * Number of contacts committed to the provider
+         */
+        public final long rowsImported;
+
+        /**
+         * Number of contacts skipped because they were invalid
+         */
+        public final long rowsRejected;
+
+        /**
+         * Time the import took, in milliseconds
+         */
+        public final long elapsedMillis;
+
+        Result(long rowsImported, long rowsRejected, long elapsedMillis) {
+            this.rowsImported = rowsImported;
+            this.rowsRejected = rowsRejected;
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        /**
+         * Returns the number of contacts read per second, imported or rejected.
+         */
+        public double getRowsPerSecond() {
+            return (rowsImported + rowsRejected) * 1000.0 / Math.max(1, elapsedMillis);
+        }
+
+        @Override
+        public String toString() {
+            return rowsImported + " rows imported, " + rowsRejected + " rejected in " + elapsedMillis
+                    + " ms (" + Math.round(getRowsPerSecond()) + " rows/s)";
+        }
+    }
+
+    private final ContentResolver mContentResolver;
+
+    private final int mBatchSize;
+
+    /**
+     * Constructs a new {@link ContactImporter}.
+     *
+     * @param contentResolver used to insert the contacts
+     * @param batchSize       number of contacts committed per transaction
+     */
+    public ContactImporter(ContentResolver contentResolver, int batchSize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("Invalid batch size " + batchSize);
+        }
+        mContentResolver = contentResolver;
+        mBatchSize = batchSize;
+    }
+
+    /**
+     * Import the contacts of the given stream on a background thread. The stream is closed when
+     * the import ends. Cancelling the returned future stops the import after the current batch;
+     * the batches committed until then stay.
+     */
+    public Future<Result> importContactsAsync(final InputStream in, final ContactFileFormat format,
+                                              final ProgressListener listener) {
+        return sExecutor.submit(new Callable<Result>() {
+            @Override
+            public Result call() throws IOException {
+                return importContacts(in, format, listener);
+            }
+        });
+    }
+
+    /**
+     * Import the contacts of the given UTF-8 stream on the calling thread, which must not be the
+     * main thread. The stream is closed when the import ends.
+     *
+     * @param listener notified after every batch, may be null
+     */
+    public Result importContacts(InputStream in, ContactFileFormat format, ProgressListener listener) throws IOException {
+        long start = SystemClock.elapsedRealtime();
+        BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(in, Charset.forName("UTF-8")));
+        ContactReader reader = format == ContactFileFormat.CSV
+                ? new CsvContactReader(bufferedReader) : new VCardContactReader(bufferedReader);
+
+        ContentValues[] batch = new ContentValues[mBatchSize];
+        int batchCount = 0;
+        long rowsImported = 0;
+        long rowsRejected = 0;
+        try {
+            ContentValues values;
+            while ((values = reader.read()) != null) {
+                if (!isValid(values)) {
+                    rowsRejected++;
+                    continue;
+                }
+
+                batch[batchCount++] = values;
+                if (batchCount == mBatchSize) {
+                    rowsImported += commit(batch, batchCount);
+                    batchCount = 0;
+                    if (listener != null) {
+                        listener.onProgress(rowsImported, rowsRejected);
+                    }
+                    if (Thread.interrupted()) {
+                        throw new InterruptedIOException("Import cancelled after " + rowsImported + " rows");
+                    }
+                }
+            }
+
+            if (batchCount > 0) {
+                rowsImported += commit(batch, batchCount);
+                if (listener != null) {
+                    listener.onProgress(rowsImported, rowsRejected);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+
+        Result result = new Result(rowsImported, rowsRejected, SystemClock.elapsedRealtime() - start);
+        Log.i(LOG_TAG, "Import finished: " + result);
+        return result;
+    }
+
+    /**
+     * Insert the first {@code count} contacts of the batch in one transaction. Returns the
+     * number of contacts inserted.
+     */
+    private int commit(ContentValues[] batch, int count) {
+        ContentValues[] values = batch;
+        if (count < batch.length) {
+            values = new ContentValues[count];
+            System.arraycopy(batch, 0, values, 0, count);
+        }
+        int inserted = mContentResolver.bulkInsert(ContactEntry.CONTENT_URI, values);
+
+        // Let the parsed values be collected while the next batch is read
+        for (int i = 0; i < count; i++) {
+            batch[i] = null;
+        }
+        return inserted;
+    }
+
+    /**
+     * Returns whether the provider will accept the contact.
+     */
+    private static boolean isValid(ContentValues values) {
+        try {
+            ContactProvider.validateContact(values);
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+        return values.getAsString(ContactEntry.COLUMN_CONTACT_NUMBER) != null;
+    }
+
+    /**
+     * Parse a gender given as an ordinal of {@link ContactEntry.GENDER}, its name, or a vCard
+     * sex letter. Returns null if the value is none of those, and UNKNOWN if it's empty.
+     */
+    static Integer parseGender(String value) {
+        value = value.trim();
+        if (value.isEmpty() || value.equalsIgnoreCase("U") || value.equalsIgnoreCase("N")
+                || value.equalsIgnoreCase("O")) {
+            return ContactEntry.GENDER.UNKNOWN.ordinal();
+        }
+        if (value.equalsIgnoreCase("M")) {
+            return ContactEntry.GENDER.MALE.ordinal();
+        }
+        if (value.equalsIgnoreCase("F")) {
+            return ContactEntry.GENDER.FEMALE.ordinal();
+        }
+        for (ContactEntry.GENDER gender : ContactEntry.GENDER.values()) {
+            if (value.equalsIgnoreCase(gender.name()) || value.equals(String.valueOf(gender.ordinal()))) {
+                return gender.ordinal();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Strip the spaces, dashes, dots and parentheses people use to format phone numbers.
+     * Returns null if nothing is left.
+     */
+    static String normalizeNumber(String value) {
+        StringBuilder number = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c != ' ' && c != '-' && c != '.' && c != '(' && c != ')') {
+                number.append(c);
+            }
+        }
+        return number.length() == 0 ? null : number.toString();
+    }
+}
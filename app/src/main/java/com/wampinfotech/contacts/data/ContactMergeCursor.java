@@ -0,0 +1,393 @@
+package com.wampinfotech.contacts.data;
+
+import android.database.AbstractCursor;
+import android.database.Cursor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A cursor over the rows of several cursors sorted the same way, merged into one sorted list,
+ * as {@link ContactProvider} does with the results of the ranges of a parallel query.
+ * <p>
+ * The rows are compared the way SQLite compares them: NULL first, then numbers, text and
+ * blobs, with text compared by code point, or by code point with ASCII letters folded for the
+ * NOCASE collation. Rather than parse the terms of the ORDER BY clause into expressions, every
+ * cursor selects them as extra columns, added through {@link #appendSortColumns}; those trailing
+ * columns are compared and then hidden from the merged cursor.
+ * <p>
+ * The merge order is worked out up front. Only the rows from the given offset on, up to the
+ * given limit, are kept, as a cursor and a position for each row.
+ */
+final class ContactMergeCursor extends AbstractCursor {
+
+    /**
+     * Name of the extra column of the sort term with the given index
+     */
+    private static final String SORT_COLUMN_PREFIX = "_sort_";
+
+    /**
+     * Splits a term of an ORDER BY clause into its expression, collation and direction
+     */
+    private static final Pattern SORT_TERM = Pattern.compile(
+            "(.*?)(?:\\s+COLLATE\\s+(\\w+))?(?:\\s+(ASC|DESC))?", Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+    /**
+     * One term of an ORDER BY clause.
+     */
+    static final class SortTerm {
+        /**
+         * The expression sorted by, without its collation and direction
+         */
+        final String expression;
+
+        /**
+         * Whether the term uses the NOCASE collation rather than BINARY
+         */
+        final boolean ignoreCase;
+
+        final boolean descending;
+
+        SortTerm(String expression, boolean ignoreCase, boolean descending) {
+            this.expression = expression;
+            this.ignoreCase = ignoreCase;
+            this.descending = descending;
+        }
+    }
+
+    private final Cursor[] mCursors;
+
+    private final String[] mColumnNames;
+
+    /**
+     * Cursor of every row of the merged cursor, as an index into {@link #mCursors}
+     */
+    private final byte[] mRowCursors;
+
+    /**
+     * Position of every row of the merged cursor within its cursor
+     */
+    private final int[] mRowPositions;
+
+    /**
+     * Cursor of the current row, moved to it
+     */
+    private Cursor mCurrent;
+
+    /**
+     * Merge the given cursors, each sorted by the given terms and ending with their columns.
+     *
+     * @param cursors the cursors to merge, all with the same columns; closed with this cursor
+     * @param terms   the terms the cursors are sorted by, none to simply append the cursors
+     * @param offset  number of merged rows to skip
+     * @param limit   largest number of rows to keep, or -1 to keep them all
+     */
+    ContactMergeCursor(Cursor[] cursors, SortTerm[] terms, int offset, int limit) {
+        if (cursors.length == 0 || cursors.length > Byte.MAX_VALUE) {
+            throw new IllegalArgumentException("Invalid number of cursors " + cursors.length);
+        }
+        mCursors = cursors;
+        String[] columnNames = cursors[0].getColumnNames();
+        mColumnNames = Arrays.copyOf(columnNames, columnNames.length - terms.length);
+
+        int total = 0;
+        for (Cursor cursor : cursors) {
+            total += cursor.getCount();
+        }
+        int count = Math.max(0, total - offset);
+        if (limit >= 0) {
+            count = Math.min(count, limit);
+        }
+        mRowCursors = new byte[count];
+        mRowPositions = new int[count];
+        merge(terms, mColumnNames.length, Math.min(offset, total));
+    }
+
+    /**
+     * Work out the merge order of the rows, skipping the first {@code skip} rows. Cursors are
+     * few, so the next row is simply the smallest of the next rows of every cursor; equal rows
+     * are taken in cursor order.
+     */
+    private void merge(SortTerm[] terms, int firstSortColumn, int skip) {
+        int[] next = new int[mCursors.length];
+        for (int row = -skip; row < mRowPositions.length; row++) {
+            int smallest = -1;
+            for (int i = 0; i < mCursors.length; i++) {
+                if (next[i] >= mCursors[i].getCount()) {
+                    continue;
+                }
+                if (smallest < 0) {
+                    smallest = i;
+                    if (terms.length == 0) {
+                        // Unsorted cursors are taken one after the other
+                        break;
+                    }
+                    continue;
+                }
+                mCursors[i].moveToPosition(next[i]);
+                mCursors[smallest].moveToPosition(next[smallest]);
+                if (compare(mCursors[i], mCursors[smallest], terms, firstSortColumn) < 0) {
+                    smallest = i;
+                }
+            }
+            if (row >= 0) {
+                mRowCursors[row] = (byte) smallest;
+                mRowPositions[row] = next[smallest];
+            }
+            next[smallest]++;
+        }
+    }
+
+    /**
+     * Compare the current rows of the given cursors by the given terms.
+     */
+    private static int compare(Cursor first, Cursor second, SortTerm[] terms, int firstSortColumn) {
+        for (int i = 0; i < terms.length; i++) {
+            int column = firstSortColumn + i;
+            int comparison = compareValues(first, second, column, terms[i].ignoreCase);
+            if (comparison != 0) {
+                return terms[i].descending ? -comparison : comparison;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Compare the values of the given column of the current rows of the given cursors.
+     */
+    private static int compareValues(Cursor first, Cursor second, int column, boolean ignoreCase) {
+        int firstType = first.getType(column);
+        int secondType = second.getType(column);
+        int firstRank = typeRank(firstType);
+        int secondRank = typeRank(secondType);
+        if (firstRank != secondRank) {
+            return firstRank < secondRank ? -1 : 1;
+        }
+        switch (firstType) {
+            case Cursor.FIELD_TYPE_NULL:
+                return 0;
+            case Cursor.FIELD_TYPE_INTEGER:
+            case Cursor.FIELD_TYPE_FLOAT:
+                if (firstType == Cursor.FIELD_TYPE_INTEGER && secondType == Cursor.FIELD_TYPE_INTEGER) {
+                    long firstLong = first.getLong(column);
+                    long secondLong = second.getLong(column);
+                    return firstLong < secondLong ? -1 : (firstLong == secondLong ? 0 : 1);
+                }
+                return Double.compare(first.getDouble(column), second.getDouble(column));
+            case Cursor.FIELD_TYPE_STRING:
+                return compareText(first.getString(column), second.getString(column), ignoreCase);
+            default:
+                return compareBlobs(first.getBlob(column), second.getBlob(column));
+        }
+    }
+
+    /**
+     * Returns the rank of the given type in SQLite's order of values.
+     */
+    private static int typeRank(int type) {
+        switch (type) {
+            case Cursor.FIELD_TYPE_NULL:
+                return 0;
+            case Cursor.FIELD_TYPE_INTEGER:
+            case Cursor.FIELD_TYPE_FLOAT:
+                return 1;
+            case Cursor.FIELD_TYPE_STRING:
+                return 2;
+            default:
+                return 3;
+        }
+    }
+
+    /**
+     * Compare two strings by code point, which is the order of their UTF-8 bytes that SQLite's
+     * BINARY collation uses. NOCASE folds the ASCII letters only, like SQLite.
+     */
+    static int compareText(String first, String second, boolean ignoreCase) {
+        int i = 0;
+        int j = 0;
+        while (i < first.length() && j < second.length()) {
+            int firstChar = first.codePointAt(i);
+            int secondChar = second.codePointAt(j);
+            i += Character.charCount(firstChar);
+            j += Character.charCount(secondChar);
+            if (ignoreCase) {
+                firstChar = toAsciiLowerCase(firstChar);
+                secondChar = toAsciiLowerCase(secondChar);
+            }
+            if (firstChar != secondChar) {
+                return firstChar < secondChar ? -1 : 1;
+            }
+        }
+        int firstLeft = first.length() - i;
+        int secondLeft = second.length() - j;
+        return firstLeft == secondLeft ? 0 : (firstLeft < secondLeft ? -1 : 1);
+    }
+
+    private static int toAsciiLowerCase(int c) {
+        return c >= 'A' && c <= 'Z' ? c + ('a' - 'A') : c;
+    }
+
+    /**
+     * Compare two blobs byte by byte, unsigned, like memcmp().
+     */
+    private static int compareBlobs(byte[] first, byte[] second) {
+        int length = Math.min(first.length, second.length);
+        for (int i = 0; i < length; i++) {
+            int firstByte = first[i] & 0xff;
+            int secondByte = second[i] & 0xff;
+            if (firstByte != secondByte) {
+                return firstByte < secondByte ? -1 : 1;
+            }
+        }
+        return first.length == second.length ? 0 : (first.length < second.length ? -1 : 1);
+    }
+
+    /**
+     * Split the given ORDER BY clause into its terms. Returns no terms for a null or empty
+     * clause. Throws an {@link IllegalArgumentException} for a clause that can't be merged:
+     * one with arguments, outside of quotes, or a collation other than BINARY and NOCASE.
+     */
+    static SortTerm[] parseSortOrder(String sortOrder) {
+        if (sortOrder == null || sortOrder.trim().isEmpty()) {
+            return new SortTerm[0];
+        }
+        ArrayList<SortTerm> terms = new ArrayList<>();
+        for (String term : splitTerms(sortOrder)) {
+            Matcher matcher = SORT_TERM.matcher(term.trim());
+            if (!matcher.matches() || matcher.group(1).isEmpty()) {
+                throw new IllegalArgumentException("Invalid sort order " + sortOrder);
+            }
+            String collation = matcher.group(2);
+            boolean ignoreCase = collation != null && collation.equalsIgnoreCase("NOCASE");
+            if (collation != null && !ignoreCase && !collation.equalsIgnoreCase("BINARY")) {
+                throw new IllegalArgumentException("Collation " + collation + " can't be merged: " + sortOrder);
+            }
+            String direction = matcher.group(3);
+            terms.add(new SortTerm(matcher.group(1), ignoreCase,
+                    direction != null && direction.toUpperCase(Locale.ROOT).equals("DESC")));
+        }
+        return terms.toArray(new SortTerm[terms.size()]);
+    }
+
+    /**
+     * Split an ORDER BY clause on the commas outside of parentheses and quotes. The clause must
+     * not have arguments, since the extra columns are selected without them.
+     */
+    private static ArrayList<String> splitTerms(String sortOrder) {
+        ArrayList<String> terms = new ArrayList<>();
+        int depth = 0;
+        char quote = 0;
+        int start = 0;
+        for (int i = 0; i < sortOrder.length(); i++) {
+            char c = sortOrder.charAt(i);
+            if (quote != 0) {
+                // A doubled quote inside a quoted string ends and restarts it, which works out
+                if (c == quote) {
+                    quote = 0;
+                }
+            } else if (c == '\'' || c == '"' || c == '`') {
+                quote = c;
+            } else if (c == '[') {
+                quote = ']';
+            } else if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+            } else if (c == '?') {
+                throw new IllegalArgumentException("Sort order with arguments can't be merged: " + sortOrder);
+            } else if (c == ',' && depth == 0) {
+                terms.add(sortOrder.substring(start, i));
+                start = i + 1;
+            }
+        }
+        terms.add(sortOrder.substring(start));
+        return terms;
+    }
+
+    /**
+     * Returns the given projection with a column for every given term added at the end. A null
+     * projection stands for every column of the table.
+     */
+    static String[] appendSortColumns(String[] projection, SortTerm[] terms) {
+        if (projection == null) {
+            projection = new String[]{"*"};
+        }
+        String[] columns = Arrays.copyOf(projection, projection.length + terms.length);
+        for (int i = 0; i < terms.length; i++) {
+            columns[projection.length + i] = "(" + terms[i].expression + ") AS " + SORT_COLUMN_PREFIX + i;
+        }
+        return columns;
+    }
+
+    @Override
+    public int getCount() {
+        return mRowPositions.length;
+    }
+
+    @Override
+    public String[] getColumnNames() {
+        return mColumnNames;
+    }
+
+    @Override
+    public boolean onMove(int oldPosition, int newPosition) {
+        mCurrent = mCursors[mRowCursors[newPosition]];
+        return mCurrent.moveToPosition(mRowPositions[newPosition]);
+    }
+
+    @Override
+    public int getType(int column) {
+        return mCurrent.getType(column);
+    }
+
+    @Override
+    public String getString(int column) {
+        return mCurrent.getString(column);
+    }
+
+    @Override
+    public short getShort(int column) {
+        return mCurrent.getShort(column);
+    }
+
+    @Override
+    public int getInt(int column) {
+        return mCurrent.getInt(column);
+    }
+
+    @Override
+    public long getLong(int column) {
+        return mCurrent.getLong(column);
+    }
+
+    @Override
+    public float getFloat(int column) {
+        return mCurrent.getFloat(column);
+    }
+
+    @Override
+    public double getDouble(int column) {
+        return mCurrent.getDouble(column);
+    }
+
+    @Override
+    public byte[] getBlob(int column) {
+        return mCurrent.getBlob(column);
+    }
+
+    @Override
+    public boolean isNull(int column) {
+        return mCurrent.isNull(column);
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        for (Cursor cursor : mCursors) {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package com.wampinfotech.contacts.data;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Collections;
+
+/**
+ * Decides whether two contact names are likely the same person.
+ * <p>
+ * Names are first normalised: accents and punctuation are dropped, letters are lower-cased and
+ * the words are sorted, so "Jos&eacute; D'Souza", "dsouza jose" and "Jose DSouza" are all
+ * "dsouza jose". Normalised names match when they are equal or close enough by their
+ * Jaro-Winkler similarity, which forgives the typos and dropped letters of hand-typed names.
+ */
+final class ContactNameMatcher {
+
+    /**
+     * Lowest Jaro-Winkler similarity of two names that match
+     */
+    static final double MIN_SIMILARITY = 0.92;
+
+    /**
+     * Number of leading characters the Winkler bonus looks at
+     */
+    private static final int MAX_PREFIX = 4;
+
+    /**
+     * Weight of every leading character two names share
+     */
+    private static final double PREFIX_SCALE = 0.1;
+
+    private ContactNameMatcher() {
+    }
+
+    /**
+     * Returns the normalised form of the given name, which is empty if the name has no letters
+     * or digits.
+     */
+    static String normalise(String name) {
+        if (name == null) {
+            return "";
+        }
+
+        // Split accented letters into the letter and its accent, so the accent can be dropped
+        String decomposed = Normalizer.normalize(name, Normalizer.Form.NFD);
+        ArrayList<String> words = new ArrayList<>();
+        StringBuilder word = new StringBuilder(decomposed.length());
+        for (int i = 0; i < decomposed.length(); i++) {
+            char c = decomposed.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                word.append(Character.toLowerCase(c));
+            } else if (Character.isWhitespace(c) && word.length() > 0) {
+                words.add(word.toString());
+                word.setLength(0);
+            }
+            // Anything else, accents and apostrophes included, is dropped within the word
+        }
+        if (word.length() > 0) {
+            words.add(word.toString());
+        }
+
+        if (words.size() == 1) {
+            return words.get(0);
+        }
+        Collections.sort(words);
+        word.setLength(0);
+        for (String w : words) {
+            if (word.length() > 0) {
+                word.append(' ');
+            }
+            word.append(w);
+        }
+        return word.toString();
+    }
+
+    /**
+     * Returns whether the given normalised names match. Empty names match nothing.
+     */
+    static boolean matches(String first, String second) {
+        if (first.isEmpty() || second.isEmpty()) {
+            return false;
+        }
+        return first.equals(second) || similarity(first, second) >= MIN_SIMILARITY;
+    }
+
+    /**
+     * Returns the Jaro-Winkler similarity of the given strings, from 0 for nothing in common to
+     * 1 for equal strings.
+     */
+    static double similarity(String first, String second) {
+        int firstLength = first.length();
+        int secondLength = second.length();
+        if (firstLength == 0 || secondLength == 0) {
+            return firstLength == secondLength ? 1 : 0;
+        }
+
+        // Characters match when they are equal and no further apart than the window
+        int window = Math.max(0, Math.max(firstLength, secondLength) / 2 - 1);
+        boolean[] firstMatched = new boolean[firstLength];
+        boolean[] secondMatched = new boolean[secondLength];
+        int matches = 0;
+        for (int i = 0; i < firstLength; i++) {
+            int end = Math.min(i + window + 1, secondLength);
+            for (int j = Math.max(0, i - window); j < end; j++) {
+                if (!secondMatched[j] && first.charAt(i) == second.charAt(j)) {
+                    firstMatched[i] = true;
+                    secondMatched[j] = true;
+                    matches++;
+                    break;
+                }
+            }
+        }
+        if (matches == 0) {
+            return 0;
+        }
+
+        // Count the matched characters that are out of order; every swap counts twice
+        int outOfOrder = 0;
+        for (int i = 0, j = 0; i < firstLength; i++) {
+            if (!firstMatched[i]) {
+                continue;
+            }
+            while (!secondMatched[j]) {
+                j++;
+            }
+            if (first.charAt(i) != second.charAt(j)) {
+                outOfOrder++;
+            }
+            j++;
+        }
+
+        double m = matches;
+        double jaro = (m / firstLength + m / secondLength + (m - outOfOrder / 2.0) / m) / 3;
+
+        // Favour names that start the same, the part people rarely get wrong
+        int prefix = 0;
+        int maxPrefix = Math.min(MAX_PREFIX, Math.min(firstLength, secondLength));
+        while (prefix < maxPrefix && first.charAt(prefix) == second.charAt(prefix)) {
+            prefix++;
+        }
+        return jaro + prefix * PREFIX_SCALE * (1 - jaro);
+    }
+}
@@ -0,0 +1,42 @@
+package com.wampinfotech.contacts.data;
+
+/**
+ * Computes the lookup key stored in {@link ContactContract.ContactEntry#COLUMN_CONTACT_NUMBER_KEY}.
+ * <p>
+ * The key is the number's digits read as an integer, with everything else dropped, so
+ * "97186 66289", "(971) 866-6289" and "9718666289" share a key. Numbers longer than
+ * {@link #SIGNIFICANT_DIGITS} digits keep only their last ones, which drops country codes and
+ * trunk prefixes: "+91 97186 66289" and "09718666289" have the same key too.
+ */
+final class ContactNumberKey {
+
+    /**
+     * Number of trailing digits that make up the key
+     */
+    static final int SIGNIFICANT_DIGITS = 10;
+
+    private ContactNumberKey() {
+    }
+
+    /**
+     * Returns the key of the given number, or null if it has no digits.
+     */
+    static Long of(String number) {
+        if (number == null) {
+            return null;
+        }
+
+        long key = 0;
+        long modulus = 1;
+        int digits = 0;
+        for (int i = number.length() - 1; i >= 0 && digits < SIGNIFICANT_DIGITS; i--) {
+            char c = number.charAt(i);
+            if (c >= '0' && c <= '9') {
+                key += (c - '0') * modulus;
+                modulus *= 10;
+                digits++;
+            }
+        }
+        return digits == 0 ? null : key;
+    }
+}
@@ -1,16 +1,36 @@
 package com.wampinfotech.contacts.data;
 
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.MatrixCursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteConstraintException;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.Bundle;
 import android.support.annotation.NonNull;
+import android.text.TextUtils;
 import android.util.Log;
 
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.concurrent.Callable;
+
 import com.wampinfotech.contacts.data.ContactContract.ContactEntry;
+import com.wampinfotech.contacts.data.ContactContract.GroupEntry;
+import com.wampinfotech.contacts.data.ContactProviderStats.Operation;
 
 /**
  * {@link ContentProvider} for Pets app.
@@ -32,6 +52,51 @@ public class ContactProvider extends ContentProvider {
      */
     private static final int CONTACT_ID = 101;
 
+    /**
+     * URI matcher code for the content URI that searches the contacts table
+     */
+    private static final int CONTACT_SEARCH = 102;
+
+    /**
+     * URI matcher code for the content URI that looks contacts up by phone number
+     */
+    private static final int CONTACT_LOOKUP = 103;
+
+    /**
+     * URI matcher code for the content URI of the alphabetical sections of the contacts
+     */
+    private static final int CONTACT_SECTIONS = 104;
+
+    /**
+     * URI matcher code for the content URI of the changes made to the contacts
+     */
+    private static final int CONTACT_CHANGES = 105;
+
+    /**
+     * URI matcher code for the content URI of the groups a contact is in
+     */
+    private static final int CONTACT_GROUPS = 106;
+
+    /**
+     * URI matcher code for the content URI for the groups table
+     */
+    private static final int GROUPS = 200;
+
+    /**
+     * URI matcher code for the content URI for a single group
+     */
+    private static final int GROUP_ID = 201;
+
+    /**
+     * URI matcher code for the content URI of the members of a group
+     */
+    private static final int GROUP_MEMBERS = 202;
+
+    /**
+     * URI matcher code for the content URI of a single member of a group
+     */
+    private static final int GROUP_MEMBER = 203;
+
     /**
      * UriMatcher object to match a content URI to a corresponding code.
      * The input passed into the constructor represents the code to return for the root URI.
@@ -47,41 +112,237 @@ public class ContactProvider extends ContentProvider {
 
         sUriMatcher.addURI(ContactContract.CONTENT_AUTHORITY, ContactContract.PATH_CONTACTS, CONTACTS);
         sUriMatcher.addURI(ContactContract.CONTENT_AUTHORITY, ContactContract.PATH_CONTACTS + "/#", CONTACT_ID);
+        sUriMatcher.addURI(ContactContract.CONTENT_AUTHORITY,
+                ContactContract.PATH_CONTACTS + "/" + ContactContract.PATH_SEARCH + "/*", CONTACT_SEARCH);
+        sUriMatcher.addURI(ContactContract.CONTENT_AUTHORITY,
+                ContactContract.PATH_CONTACTS + "/" + ContactContract.PATH_LOOKUP + "/*", CONTACT_LOOKUP);
+        sUriMatcher.addURI(ContactContract.CONTENT_AUTHORITY,
+                ContactContract.PATH_CONTACTS + "/" + ContactContract.PATH_SECTIONS, CONTACT_SECTIONS);
+        sUriMatcher.addURI(ContactContract.CONTENT_AUTHORITY,
+                ContactContract.PATH_CONTACTS + "/" + ContactContract.PATH_CHANGES, CONTACT_CHANGES);
+        sUriMatcher.addURI(ContactContract.CONTENT_AUTHORITY,
+                ContactContract.PATH_CONTACTS + "/#/" + ContactContract.PATH_GROUPS, CONTACT_GROUPS);
+        sUriMatcher.addURI(ContactContract.CONTENT_AUTHORITY, ContactContract.PATH_GROUPS, GROUPS);
+        sUriMatcher.addURI(ContactContract.CONTENT_AUTHORITY, ContactContract.PATH_GROUPS + "/#", GROUP_ID);
+        sUriMatcher.addURI(ContactContract.CONTENT_AUTHORITY,
+                ContactContract.PATH_GROUPS + "/#/" + ContactContract.PATH_MEMBERS, GROUP_MEMBERS);
+        sUriMatcher.addURI(ContactContract.CONTENT_AUTHORITY,
+                ContactContract.PATH_GROUPS + "/#/" + ContactContract.PATH_MEMBERS + "/#", GROUP_MEMBER);
     }
 
+    /**
+     * Largest number of contacts whose _IDs a notification lists. When more contacts change,
+     * the contacts URI is notified without them.
+     */
+    private static final int MAX_ROW_NOTIFICATIONS = 32;
+
+    /**
+     * Number of rows, in {@link ContactEntry#SORT_ORDER_BY_NAME} order, read when the database
+     * is warmed up: about the first screen of the catalog
+     */
+    private static final int WARM_UP_ROWS = 50;
+
+    /**
+     * Names the provider's statistics use for the URI matcher codes, in the order of
+     * {@link #statsTarget(int)}
+     */
+    private static final String[] STATS_TARGETS = {"contacts", "contact_id", "search", "lookup", "sections", "changes",
+            "contact_groups", "groups", "group_id", "group_members", "group_member", "unknown"};
+
+    /**
+     * Selection of the contacts that haven't been deleted. A deleted contact keeps its row,
+     * flagged through {@link ContactEntry#COLUMN_DELETED}, until the {@link ContactPurger}
+     * removes it, and every read and write of the provider skips it until then.
+     */
+    static final String SELECTION_LIVE = ContactEntry.COLUMN_DELETED + "=0";
+
+    /**
+     * Largest number of threads that run the ranges of a query made with
+     * {@link ContactEntry#QUERY_PARAMETER_PARALLEL}
+     */
+    private static final int MAX_PARALLEL_THREADS = 8;
+
     private ContactDbHelper mDbHelper;
 
+    /**
+     * Compiled statements of the common writes, created with the writable database
+     */
+    private ContactStatementPool mStatements;
+
+    /**
+     * Runs the ranges of the queries made with {@link ContactEntry#QUERY_PARAMETER_PARALLEL},
+     * created by the first of them. Guarded by {@code this}.
+     */
+    private ContactQueryExecutor mParallelQueries;
+
+    /**
+     * Number of threads of {@link #mParallelQueries}
+     */
+    private final int mParallelThreadCount =
+            Math.min(Runtime.getRuntime().availableProcessors(), MAX_PARALLEL_THREADS);
+
+    /**
+     * Cache of single contacts read through the CONTACT_ID URI
+     */
+    private final ContactCache mCache = new ContactCache(ContactCache.DEFAULT_MAX_SIZE);
+
+    /**
+     * Contacts changed by the batch currently being applied on the calling thread, or null when
+     * the thread is not inside {@link #applyBatch(ArrayList)}. Writes made during a batch add
+     * their changes here instead of notifying straight away, so observers requery only once.
+     */
+    private final ThreadLocal<ChangeSet> mBatchChanges = new ThreadLocal<>();
+
+    /**
+     * Contacts dropped from the cache by the batch currently being applied on the calling
+     * thread. Until the batch commits, other connections still read the rows as they were and
+     * may cache them again, so these are dropped once more after the commit.
+     */
+    private final ThreadLocal<ChangeSet> mBatchInvalidations = new ThreadLocal<>();
+
+    /**
+     * Call counts and latencies of the provider's entry points, recorded only once turned on
+     * through {@link ContactContract#METHOD_SET_PROVIDER_STATS_ENABLED}
+     */
+    private final ContactProviderStats mStats = new ContactProviderStats(STATS_TARGETS);
+
+    /**
+     * Removes the rows of deleted contacts in the background
+     */
+    private ContactPurger mPurger;
+
+    /**
+     * Snapshot of the first screen of the catalog, deleted by every write
+     */
+    private File mSnapshotFile;
+
     /**
      * Initialize the provider and the database helper object.
      */
     @Override
     public boolean onCreate() {
         mDbHelper = new ContactDbHelper(getContext());
+        mPurger = new ContactPurger(mDbHelper);
+        mSnapshotFile = ContactSnapshotFile.get(getContext());
+
+        // The provider is created as the process starts, before any activity. Open the database
+        // on a thread of its own right away, rather than on the thread of the first query.
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                warmUp();
+            }
+        }, "ContactDbWarmUp").start();
+
+        // Finish any purge the last process didn't get to
+        mPurger.schedule();
         return true;
     }
 
+    /**
+     * Open the database, creating or upgrading its schema as needed, and read the first screen
+     * of the catalog and its sections once, so their pages are in the file system's cache by
+     * the time the catalog asks for them. Queries made meanwhile wait for the database to be
+     * open, but no longer than they would have if they had opened it themselves.
+     */
+    private void warmUp() {
+        try {
+            SQLiteDatabase database = mDbHelper.getWritableDatabase();
+            Cursor rows = database.query(ContactEntry.TABLE_NAME,
+                    new String[]{ContactEntry._ID, ContactEntry.COLUMN_CONTACT_NAME, ContactEntry.COLUMN_CONTACT_EMAIL},
+                    SELECTION_LIVE, null, null, null, ContactEntry.SORT_ORDER_BY_NAME, String.valueOf(WARM_UP_ROWS));
+            try {
+                // Counting the rows steps through all of them
+                rows.getCount();
+            } finally {
+                rows.close();
+            }
+            Cursor sections = querySections(database, null, null);
+            try {
+                sections.getCount();
+            } finally {
+                sections.close();
+            }
+        } catch (SQLException e) {
+            // The first query opens the database again and reports the error to its caller
+            Log.e(LOG_TAG, "Failed to warm the database up", e);
+        }
+    }
+
     /**
      * Perform the query for the given URI. Use the given projection, selection, selection arguments, and sort order.
      */
     @Override
     public Cursor query(@NonNull Uri uri, String[] projection, String selection, String[] selectionArgs,
                         String sortOrder) {
+        long startTime = mStats.begin();
+
+        // Figure out if the URI matcher can match the URI to a specific code
+        int match = sUriMatcher.match(uri);
+        Cursor cursor = null;
+        try {
+            cursor = query(uri, match, projection, selection, selectionArgs, sortOrder);
+        } finally {
+            if (startTime != ContactProviderStats.NOT_RECORDING) {
+                // Counting the rows fills the cursor window, which the caller does next anyway
+                mStats.end(Operation.QUERY, statsTarget(match), startTime, cursor == null ? -1 : cursor.getCount());
+            }
+        }
+        return cursor;
+    }
+
+    /**
+     * Perform the query for the given URI, already matched to the given code.
+     */
+    private Cursor query(Uri uri, int match, String[] projection, String selection, String[] selectionArgs,
+                         String sortOrder) {
         // Get readable database
         SQLiteDatabase database = mDbHelper.getReadableDatabase();
 
         // This cursor will hold the result of the query
         Cursor cursor;
 
-        // Figure out if the URI matcher can match the URI to a specific code
-        int match = sUriMatcher.match(uri);
         switch (match) {
             case CONTACTS:
+                // Narrow the selection down to any prefix lookups requested on the URI
+                ArrayList<String> prefixArgs = new ArrayList<>();
+                selection = appendPrefixSelections(uri, selection, prefixArgs);
+                selectionArgs = DatabaseUtils.appendSelectionArgs(selectionArgs,
+                        prefixArgs.toArray(new String[prefixArgs.size()]));
+
+                // Start after the key of the previous page, if one was given
+                String afterId = uri.getQueryParameter(ContactEntry.QUERY_PARAMETER_AFTER_ID);
+                String afterName = uri.getQueryParameter(ContactEntry.QUERY_PARAMETER_AFTER_NAME);
+                if (afterName != null) {
+                    // The name comparison is a range on the name index, and the _ID breaks ties
+                    // between contacts with the same name
+                    String nameColumn = ContactEntry.COLUMN_CONTACT_NAME + " COLLATE NOCASE";
+                    selection = DatabaseUtils.concatenateWhere(selection, nameColumn + ">=? AND ("
+                            + nameColumn + ">? OR " + ContactEntry._ID + ">?)");
+                    selectionArgs = DatabaseUtils.appendSelectionArgs(selectionArgs,
+                            new String[]{afterName, afterName, String.valueOf(parseAfterId(afterId))});
+                    sortOrder = ContactEntry.SORT_ORDER_BY_NAME;
+                } else if (afterId != null) {
+                    selection = DatabaseUtils.concatenateWhere(selection, ContactEntry._ID + ">?");
+                    selectionArgs = DatabaseUtils.appendSelectionArgs(selectionArgs,
+                            new String[]{String.valueOf(parseAfterId(afterId))});
+                    sortOrder = ContactEntry._ID;
+                }
+
                 // For the PETS code, query the pets table directly with the given
                 // projection, selection, selection arguments, and sort order. The cursor
                 // could contain multiple rows of the pets table.
-                cursor = database.query(ContactEntry.TABLE_NAME, projection, selection, selectionArgs, null, null, sortOrder);
+                selection = DatabaseUtils.concatenateWhere(selection, SELECTION_LIVE);
+                cursor = queryContacts(projection, selection, selectionArgs, sortOrder, uri,
+                        parseRangeCount(uri));
                 break;
             case CONTACT_ID:
+                // Answer plain single-contact queries from the cache
+                if (selection == null && ContactRecord.canProject(projection)) {
+                    cursor = queryCachedContact(database, ContentUris.parseId(uri), projection);
+                    break;
+                }
+
                 // For the PET_ID code, extract out the ID from the URI.
                 // For an example URI such as "content://com.example.android.pets/pets/3",
                 // the selection will be "_id=?" and the selection argument will be a
@@ -90,7 +351,7 @@ public class ContactProvider extends ContentProvider {
                 // For every "?" in the selection, we need to have an element in the selection
                 // arguments that will fill in the "?". Since we have 1 question mark in the
                 // selection, we have 1 String in the selection arguments' String array.
-                selection = ContactEntry._ID + "=?";
+                selection = ContactEntry._ID + "=? AND " + SELECTION_LIVE;
                 selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
 
                 // This will perform a query on the pets table where the _id equals 3 to return a
@@ -98,6 +359,55 @@ public class ContactProvider extends ContentProvider {
                 cursor = database.query(ContactEntry.TABLE_NAME, projection, selection, selectionArgs,
                         null, null, sortOrder);
                 break;
+            case CONTACT_SEARCH:
+                cursor = searchContacts(database, uri.getLastPathSegment(), projection, selection,
+                        selectionArgs, sortOrder);
+                break;
+            case CONTACT_LOOKUP:
+                // Reduce the number to its key and match it exactly through the key index.
+                // A number without digits matches no contact.
+                Long numberKey = ContactNumberKey.of(uri.getLastPathSegment());
+                selection = DatabaseUtils.concatenateWhere(numberKey == null ? "0"
+                        : ContactEntry.COLUMN_CONTACT_NUMBER_KEY + "=" + numberKey, selection);
+                selection = DatabaseUtils.concatenateWhere(selection, SELECTION_LIVE);
+                cursor = database.query(ContactEntry.TABLE_NAME, projection, selection, selectionArgs,
+                        null, null, sortOrder);
+                break;
+            case CONTACT_SECTIONS:
+                cursor = querySections(database, selection, selectionArgs);
+                break;
+            case CONTACT_GROUPS:
+                // The groups of the contact, through the index of the members by contact
+                selection = DatabaseUtils.concatenateWhere(selection, GroupEntry._ID + " IN (SELECT "
+                        + GroupEntry.COLUMN_MEMBER_GROUP_ID + " FROM " + GroupEntry.MEMBERS_TABLE_NAME + " WHERE "
+                        + GroupEntry.COLUMN_MEMBER_CONTACT_ID + "=" + parseParentId(uri) + ")");
+                cursor = database.query(GroupEntry.TABLE_NAME, projection,
+                        selection, selectionArgs, null, null,
+                        sortOrder == null ? GroupEntry.SORT_ORDER_BY_TITLE : sortOrder);
+                break;
+            case GROUPS:
+                cursor = database.query(GroupEntry.TABLE_NAME, projection,
+                        selection, selectionArgs, null, null,
+                        sortOrder == null ? GroupEntry.SORT_ORDER_BY_TITLE : sortOrder, parseLimit(uri));
+                break;
+            case GROUP_ID:
+                selection = GroupEntry._ID + "=?";
+                selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
+                cursor = database.query(GroupEntry.TABLE_NAME, projection,
+                        selection, selectionArgs, null, null, sortOrder);
+                break;
+            case GROUP_MEMBERS:
+                // The live contacts of the group, through the index of the members by group
+                selection = DatabaseUtils.concatenateWhere(selection, ContactEntry._ID + " IN (SELECT "
+                        + GroupEntry.COLUMN_MEMBER_CONTACT_ID + " FROM " + GroupEntry.MEMBERS_TABLE_NAME + " WHERE "
+                        + GroupEntry.COLUMN_MEMBER_GROUP_ID + "=" + parseParentId(uri) + ")");
+                selection = DatabaseUtils.concatenateWhere(selection, SELECTION_LIVE);
+                cursor = database.query(ContactEntry.TABLE_NAME, projection,
+                        selection, selectionArgs, null, null, sortOrder, parseLimit(uri));
+                break;
+            case CONTACT_CHANGES:
+                cursor = queryChanges(database, uri, projection, selection, selectionArgs);
+                break;
             default:
                 throw new IllegalArgumentException("Cannot query unknown URI " + uri);
         }
@@ -105,194 +415,1584 @@ public class ContactProvider extends ContentProvider {
         // Set notification URI on the Cursor,
         // So we know what content URI the Cursor was created for.
         // If the data at this URI changes, then we know we need to update the Cursor.
-        cursor.setNotificationUri(getContext().getContentResolver(), uri);
+        // Search, lookup, section and change results can change with any contact, so they
+        // follow the whole contacts URI.
+        // Groups and their members follow the whole groups URI.
+        cursor.setNotificationUri(getContext().getContentResolver(),
+                match == CONTACT_GROUPS || match == GROUPS || match == GROUP_ID || match == GROUP_MEMBERS
+                        ? GroupEntry.CONTENT_URI
+                        : match == CONTACT_SEARCH || match == CONTACT_LOOKUP || match == CONTACT_SECTIONS
+                        || match == CONTACT_CHANGES ? ContactEntry.CONTENT_URI : uri);
 
         // Return the cursor
         return cursor;
     }
 
     /**
-     * Insert new data into the provider with the given ContentValues.
+     * Returns a cursor over the contact with the given _ID, from the cache if possible. On a miss
+     * the whole row is read from the database and cached.
      */
-    @Override
-    public Uri insert(@NonNull Uri uri, ContentValues contentValues) {
-        final int match = sUriMatcher.match(uri);
-        switch (match) {
-            case CONTACTS:
-                return insertContact(uri, contentValues);
-            default:
-                throw new IllegalArgumentException("Insertion is not supported for " + uri);
+    private Cursor queryCachedContact(SQLiteDatabase database, long id, String[] projection) {
+        ContactRecord record = mCache.get(id);
+        if (record == null) {
+            long readToken = mCache.beginRead();
+            Cursor rowCursor = database.query(ContactEntry.TABLE_NAME, ContactRecord.COLUMNS,
+                    ContactEntry._ID + "=? AND " + SELECTION_LIVE, new String[]{String.valueOf(id)}, null, null, null);
+            try {
+                if (!rowCursor.moveToFirst()) {
+                    return new MatrixCursor(projection == null ? ContactRecord.COLUMNS : projection, 0);
+                }
+                record = ContactRecord.fromCursor(rowCursor);
+            } finally {
+                rowCursor.close();
+            }
+            mCache.put(record, readToken);
         }
+        return record.toCursor(projection);
     }
 
     /**
-     * Insert a pet into the database with the given content values. Return the new content URI
-     * for that specific row in the database.
+     * Query the contacts table, with the LIMIT and OFFSET given on the URI, if any. When the
+     * given number of ranges is more than one, the query runs on that many ranges of _IDs at
+     * once, and the results are merged in the given sort order; every range returns up to
+     * OFFSET + LIMIT rows, and the offset is applied to the merged rows.
      */
-    private Uri insertContact(Uri uri, ContentValues values) {
-        // Check that the name is not null
-        String name = values.getAsString(ContactEntry.COLUMN_CONTACT_NAME);
-        if (name == null) {
-            throw new IllegalArgumentException("Contact requires a name");
+    private Cursor queryContacts(String[] projection, String selection, String[] selectionArgs,
+                                 String sortOrder, Uri uri, int rangeCount) {
+        String limit = parseLimit(uri);
+        if (rangeCount <= 1) {
+            return mDbHelper.getReadableDatabase().query(ContactEntry.TABLE_NAME, projection, selection,
+                    selectionArgs, null, null, sortOrder, limit);
         }
 
-
-        int gender = values.getAsInteger(ContactEntry.COLUMN_CONTACT_GENDER);
-        if (!ContactEntry.isValidGender(gender)) {
-            throw new IllegalArgumentException("Contact requires valid gender");
+        int limitCount = -1;
+        int offsetCount = 0;
+        if (limit != null) {
+            limitCount = parseCount(ContactEntry.QUERY_PARAMETER_LIMIT,
+                    uri.getQueryParameter(ContactEntry.QUERY_PARAMETER_LIMIT));
+            String offset = uri.getQueryParameter(ContactEntry.QUERY_PARAMETER_OFFSET);
+            if (offset != null) {
+                offsetCount = parseCount(ContactEntry.QUERY_PARAMETER_OFFSET, offset);
+            }
         }
+        String partLimit = limit == null ? null : String.valueOf((long) offsetCount + limitCount);
 
-        // If the weight is provided, check that it's greater than or equal to 0 kg
-        String number = values.getAsString(ContactEntry.COLUMN_CONTACT_NUMBER);
-        if (number != null && number.length() != 10) {
-            throw new IllegalArgumentException("Contact requires valid number");
-        }
+        // Every range selects the terms of the sort order as extra columns to merge by
+        ContactMergeCursor.SortTerm[] terms = ContactMergeCursor.parseSortOrder(sortOrder);
+        String[] partProjection = ContactMergeCursor.appendSortColumns(projection, terms);
+        Cursor[] cursors = queryRanges(rangeCount, partProjection, selection, selectionArgs, sortOrder,
+                partLimit);
+        return new ContactMergeCursor(cursors, terms, offsetCount, limitCount);
+    }
 
-        // Get readable database
-        SQLiteDatabase database = mDbHelper.getWritableDatabase();
-        long id = database.insert(ContactEntry.TABLE_NAME, null, values);
-        if (id == -1) {
-            Log.e(LOG_TAG, "Failed to insert row for " + uri);
-            return null;
-        }
+    /**
+     * Split the _IDs of the contacts into the given number of ranges of about the same size and
+     * run the query on all of them at once, each on a read connection of its own. Returns the
+     * cursors in the order of the ranges.
+     */
+    private Cursor[] queryRanges(int rangeCount, final String[] projection, String selection,
+                                 final String[] selectionArgs, final String sortOrder, final String limit) {
+        final SQLiteDatabase database = mDbHelper.getReadableDatabase();
 
-        // Notify all listeners that the data has changed for the contact content URI
-        // uri: content://com.wampinfotech.contacts/contacts
-        getContext().getContentResolver().notifyChange(uri, null);
+        // The smallest and largest _ID are read from the ends of the table's b-tree
+        long first = DatabaseUtils.longForQuery(database,
+                "SELECT IFNULL(MIN(" + ContactEntry._ID + "), 0) FROM " + ContactEntry.TABLE_NAME, null);
+        long last = DatabaseUtils.longForQuery(database,
+                "SELECT IFNULL(MAX(" + ContactEntry._ID + "), 0) FROM " + ContactEntry.TABLE_NAME, null);
+        long span = last - first + 1;
+        rangeCount = (int) Math.min(rangeCount, span);
 
-        // Return the new URI with the ID (of the newly inserted row) appended at the end
-        return ContentUris.withAppendedId(uri, id);
+        ArrayList<Callable<Cursor>> queries = new ArrayList<>(rangeCount);
+        for (int i = 0; i < rangeCount; i++) {
+            // Each range is a seek and a scan of the table's b-tree between two _IDs
+            long start = first + span * i / rangeCount;
+            long end = first + span * (i + 1) / rangeCount;
+            final String rangeSelection = DatabaseUtils.concatenateWhere(selection,
+                    ContactEntry._ID + ">=" + start + " AND " + ContactEntry._ID + "<" + end);
+            queries.add(new Callable<Cursor>() {
+                @Override
+                public Cursor call() {
+                    return database.query(ContactEntry.TABLE_NAME, projection, rangeSelection, selectionArgs,
+                            null, null, sortOrder, limit);
+                }
+            });
+        }
+        return getParallelQueries().queryAll(queries);
     }
 
     /**
-     * Updates the data at the given selection and selection arguments, with the new ContentValues.
+     * Returns the executor of the queries made with {@link ContactEntry#QUERY_PARAMETER_PARALLEL},
+     * creating it the first time.
      */
-    @Override
-    public int update(@NonNull Uri uri, ContentValues contentValues, String selection,
-                      String[] selectionArgs) {
-        final int match = sUriMatcher.match(uri);
-        switch (match) {
-            case CONTACTS:
-                return updateContact(uri, contentValues, selection, selectionArgs);
-            case CONTACT_ID:
-                // For the PET_ID code, extract out the ID from the URI,
-                // so we know which row to update. Selection will be "_id=?" and selection
-                // arguments will be a String array containing the actual ID.
-                selection = ContactEntry._ID + "=?";
-                selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
-                return updateContact(uri, contentValues, selection, selectionArgs);
-            default:
-                throw new IllegalArgumentException("Update is not supported for " + uri);
+    private synchronized ContactQueryExecutor getParallelQueries() {
+        if (mParallelQueries == null) {
+            mParallelQueries = new ContactQueryExecutor(mParallelThreadCount);
         }
+        return mParallelQueries;
     }
 
     /**
-     * Update pets in the database with the given content values. Apply the changes to the rows
-     * specified in the selection and selection arguments (which could be 0 or 1 or more pets).
-     * Return the number of rows that were successfully updated.
+     * Count the contacts of every alphabetical section with one grouped query. The sections are
+     * grouped and ordered by the first character of the name under the same NOCASE collation
+     * as {@link ContactEntry#SORT_ORDER_BY_NAME}, so they line up with the rows in that order.
      */
-    private int updateContact(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
-        // If the {@link PetEntry#COLUMN_PET_NAME} key is present,
-        // check that the name value is not null.
-        if (values.containsKey(ContactEntry.COLUMN_CONTACT_NAME)) {
-            String name = values.getAsString(ContactEntry.COLUMN_CONTACT_NAME);
-            if (name == null) {
-                throw new IllegalArgumentException("Contact requires a name");
+    private static Cursor querySections(SQLiteDatabase database, String selection, String[] selectionArgs) {
+        String firstCharacter = "substr(" + ContactEntry.COLUMN_CONTACT_NAME + ", 1, 1)";
+        String[] projection = {
+                "upper(" + firstCharacter + ") AS " + ContactEntry.COLUMN_SECTION,
+                "COUNT(*) AS " + ContactEntry._COUNT};
+        String groupBy = firstCharacter + " COLLATE NOCASE";
+        selection = DatabaseUtils.concatenateWhere(selection, SELECTION_LIVE);
+        return database.query(ContactEntry.TABLE_NAME, projection, selection, selectionArgs, groupBy, null, groupBy);
+    }
+
+    /**
+     * Read the latest change of every contact changed since the sequence number given on the
+     * URI, with the current columns of the contacts that still exist. Earlier changes of the
+     * same contact are superseded by the latest one, so they are left out.
+     */
+    private static Cursor queryChanges(SQLiteDatabase database, Uri uri, String[] projection, String selection,
+                                       String[] selectionArgs) {
+        String since = uri.getQueryParameter(ContactEntry.QUERY_PARAMETER_SINCE);
+        long sinceSequence = 0;
+        if (since != null) {
+            try {
+                sinceSequence = Long.parseLong(since);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid " + ContactEntry.QUERY_PARAMETER_SINCE + " " + since);
             }
         }
 
-        // If the {@link PetEntry#COLUMN_PET_GENDER} key is present,
-        // check that the gender value is valid.
-        if (values.containsKey(ContactEntry.COLUMN_CONTACT_GENDER)) {
-            Integer gender = values.getAsInteger(ContactEntry.COLUMN_CONTACT_GENDER);
-            if (gender == null || !ContactEntry.isValidGender(gender)) {
-                throw new IllegalArgumentException("Contact requires valid gender");
-            }
+        String changes = ContactEntry.CHANGES_TABLE_NAME;
+        String sequence = ContactEntry.COLUMN_CHANGE_SEQUENCE;
+        String contactId = ContactEntry.COLUMN_CHANGE_CONTACT_ID;
+        // The latest changes are found through the sequence range, then joined with the
+        // contacts by _ID. The sequence is a parsed number, so it's safe to put in the SQL.
+        String table = "(SELECT log." + sequence + " AS " + sequence + ", "
+                + "log." + ContactEntry.COLUMN_CHANGE_OPERATION + " AS " + ContactEntry.COLUMN_CHANGE_OPERATION + ", "
+                + "log." + contactId + " AS " + ContactEntry._ID + ", "
+                + "c." + ContactEntry.COLUMN_CONTACT_NAME + " AS " + ContactEntry.COLUMN_CONTACT_NAME + ", "
+                + "c." + ContactEntry.COLUMN_CONTACT_EMAIL + " AS " + ContactEntry.COLUMN_CONTACT_EMAIL + ", "
+                + "c." + ContactEntry.COLUMN_CONTACT_GENDER + " AS " + ContactEntry.COLUMN_CONTACT_GENDER + ", "
+                + "c." + ContactEntry.COLUMN_CONTACT_NUMBER + " AS " + ContactEntry.COLUMN_CONTACT_NUMBER
+                + " FROM " + changes + " AS log LEFT JOIN " + ContactEntry.TABLE_NAME + " AS c ON c."
+                + ContactEntry._ID + "=log." + contactId + " AND c." + SELECTION_LIVE
+                + " WHERE log." + sequence + " IN (SELECT MAX(" + sequence + ") FROM " + changes
+                + " WHERE " + sequence + ">" + sinceSequence + " GROUP BY " + contactId + "))";
+        return database.query(table, projection, selection, selectionArgs, null, null, sequence, parseLimit(uri));
+    }
+
+    /**
+     * Search the contacts for the given term through the full-text search table. Every word of
+     * the term is matched as a prefix. Unless a sort order is given, contacts whose name starts
+     * with the first word come first, followed by the rest in name order.
+     */
+    private static Cursor searchContacts(SQLiteDatabase database, String term, String[] projection,
+                                         String selection, String[] selectionArgs, String sortOrder) {
+        ArrayList<String> words = splitSearchWords(term);
+        if (words.isEmpty()) {
+            // Nothing to search for, so return an empty cursor with the requested columns
+            return database.query(ContactEntry.TABLE_NAME, projection, "0", null, null, null, null);
         }
 
-        // If the {@link PetEntry#COLUMN_PET_WEIGHT} key is present,
-        // check that the weight value is valid.
-        if (values.containsKey(ContactEntry.COLUMN_CONTACT_NUMBER)) {
-            // Check that the weight is greater than or equal to 0 kg
-            String number = values.getAsString(ContactEntry.COLUMN_CONTACT_NUMBER);
-            if (number != null && number.length() != 10) {
-                throw new IllegalArgumentException("Contact requires valid number");
+        // Build the MATCH expression, e.g. "ann*" "smi*". Every word is quoted, so words like
+        // "or", "not" or "near" are searched for rather than read as operators. Words contain
+        // no ASCII punctuation, so there is nothing to escape inside the quotes.
+        StringBuilder match = new StringBuilder();
+        for (String word : words) {
+            if (match.length() > 0) {
+                match.append(' ');
             }
+            match.append('"').append(word).append("*\"");
         }
 
-        // No need to check the breed, any value is valid (including null).
+        // Look the matching ids up in the search table and read the rows from the contacts table
+        selection = DatabaseUtils.concatenateWhere(ContactEntry._ID + " IN (SELECT docid FROM "
+                + ContactEntry.SEARCH_TABLE_NAME + " WHERE " + ContactEntry.SEARCH_TABLE_NAME + " MATCH ?)", selection);
+        // Deleted contacts stay in the search table until they are purged
+        selection = DatabaseUtils.concatenateWhere(selection, SELECTION_LIVE);
+        selectionArgs = DatabaseUtils.appendSelectionArgs(new String[]{match.toString()}, selectionArgs);
 
-        // If there are no values to update, then don't try to update the database
-        if (values.size() == 0) {
-            return 0;
+        if (sortOrder == null) {
+            // Rank the contacts whose name starts with the first word above the other matches.
+            // The ranking argument comes after all the selection arguments in the statement.
+            sortOrder = "CASE WHEN " + ContactEntry.COLUMN_CONTACT_NAME + " LIKE ? THEN 0 ELSE 1 END, "
+                    + ContactEntry.COLUMN_CONTACT_NAME + " COLLATE NOCASE";
+            selectionArgs = DatabaseUtils.appendSelectionArgs(selectionArgs, new String[]{words.get(0) + "%"});
         }
 
-        // Otherwise, get writeable database to update the data
-        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        return database.query(ContactEntry.TABLE_NAME, projection, selection, selectionArgs, null, null, sortOrder);
+    }
+
+    /**
+     * Split the search term into words the same way the full-text search tokenizer splits the
+     * indexed text: on every ASCII character that isn't a letter or a digit.
+     */
+    private static ArrayList<String> splitSearchWords(String term) {
+        ArrayList<String> words = new ArrayList<>();
+        if (term == null) {
+            return words;
+        }
 
-        // Perform the update on the database and get the number of rows affected
-        int rowsUpdated = database.update(ContactEntry.TABLE_NAME, values, selection, selectionArgs);
+        int start = -1;
+        for (int i = 0; i <= term.length(); i++) {
+            boolean wordChar = false;
+            if (i < term.length()) {
+                char c = term.charAt(i);
+                wordChar = c > 127 || Character.isLetterOrDigit(c);
+            }
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                words.add(term.substring(start, i));
+                start = -1;
+            }
+        }
+        return words;
+    }
 
-        // If 1 or more rows were updated, then notify all listeners that the data at the
-        // given URI has changed
-        if (rowsUpdated != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+    /**
+     * Parse the _ID given through {@link ContactEntry#QUERY_PARAMETER_AFTER_ID}.
+     */
+    private static long parseAfterId(String afterId) {
+        if (afterId == null) {
+            throw new IllegalArgumentException("Paging after a name requires "
+                    + ContactEntry.QUERY_PARAMETER_AFTER_ID);
         }
+        try {
+            return Long.parseLong(afterId);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid " + ContactEntry.QUERY_PARAMETER_AFTER_ID + " " + afterId);
+        }
+    }
 
-        // Return the number of rows updated
-        return rowsUpdated;
+    /**
+     * Returns the LIMIT clause given through {@link ContactEntry#QUERY_PARAMETER_LIMIT} and
+     * {@link ContactEntry#QUERY_PARAMETER_OFFSET}, or null if the URI has no limit.
+     */
+    private static String parseLimit(Uri uri) {
+        String limit = uri.getQueryParameter(ContactEntry.QUERY_PARAMETER_LIMIT);
+        String offset = uri.getQueryParameter(ContactEntry.QUERY_PARAMETER_OFFSET);
+        if (limit == null) {
+            if (offset != null) {
+                throw new IllegalArgumentException(ContactEntry.QUERY_PARAMETER_OFFSET + " requires "
+                        + ContactEntry.QUERY_PARAMETER_LIMIT);
+            }
+            return null;
+        }
+        if (parseCount(ContactEntry.QUERY_PARAMETER_LIMIT, limit) == 0) {
+            throw new IllegalArgumentException("Invalid " + ContactEntry.QUERY_PARAMETER_LIMIT + " " + limit);
+        }
+        if (offset == null) {
+            return limit;
+        }
+        // SQLite reads "LIMIT a, b" as an offset of a and a limit of b
+        return parseCount(ContactEntry.QUERY_PARAMETER_OFFSET, offset) + ", " + limit;
     }
 
     /**
-     * Delete the data at the given selection and selection arguments.
+     * Returns the number of ranges of _IDs to split the query for the given URI into, as asked
+     * for through {@link ContactEntry#QUERY_PARAMETER_PARALLEL}, up to one per thread. Returns 1
+     * to run the query as usual.
      */
-    @Override
-    public int delete(@NonNull Uri uri, String selection, String[] selectionArgs) {
-        // Get writeable database
-        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+    private int parseRangeCount(Uri uri) {
+        String parallel = uri.getQueryParameter(ContactEntry.QUERY_PARAMETER_PARALLEL);
+        if (parallel == null) {
+            return 1;
+        }
+        return Math.max(1, Math.min(parseCount(ContactEntry.QUERY_PARAMETER_PARALLEL, parallel),
+                mParallelThreadCount));
+    }
 
-        // Track the number of rows that were deleted
-        int rowsDeleted;
+    /**
+     * Parse a row count given through the query parameter with the given name, which must not
+     * be negative.
+     */
+    private static int parseCount(String parameter, String value) {
+        try {
+            int count = Integer.parseInt(value);
+            if (count >= 0) {
+                return count;
+            }
+        } catch (NumberFormatException e) {
+            // Handled below
+        }
+        throw new IllegalArgumentException("Invalid " + parameter + " " + value);
+    }
 
-        final int match = sUriMatcher.match(uri);
-        switch (match) {
-            case CONTACTS:
-                // Delete all rows that match the selection and selection args
-                rowsDeleted = database.delete(ContactEntry.TABLE_NAME, selection, selectionArgs);
-                break;
-            case CONTACT_ID:
-                // Delete a single row given by the ID in the URI
-                selection = ContactEntry._ID + "=?";
-                selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
-                rowsDeleted = database.delete(ContactEntry.TABLE_NAME, selection, selectionArgs);
-                break;
-            default:
-                throw new IllegalArgumentException("Deletion is not supported for " + uri);
+    /**
+     * Add the prefix lookups requested through the query parameters of the URI to the given
+     * selection, and their arguments to {@code args}. Every lookup is written as a range over
+     * its indexed column, so SQLite seeks the index instead of scanning the table the way
+     * {@code LIKE 'x%'} would.
+     */
+    private static String appendPrefixSelections(Uri uri, String selection, ArrayList<String> args) {
+        selection = appendPrefixSelection(selection, args, ContactEntry.COLUMN_CONTACT_NAME, true,
+                uri.getQueryParameter(ContactEntry.QUERY_PARAMETER_NAME_PREFIX));
+        selection = appendPrefixSelection(selection, args, ContactEntry.COLUMN_CONTACT_EMAIL, false,
+                uri.getQueryParameter(ContactEntry.QUERY_PARAMETER_EMAIL_PREFIX));
+        selection = appendPrefixSelection(selection, args, ContactEntry.COLUMN_CONTACT_NUMBER, false,
+                uri.getQueryParameter(ContactEntry.QUERY_PARAMETER_NUMBER_PREFIX));
+        return selection;
+    }
+
+    /**
+     * Add a {@code column >= prefix AND column < upperBound} range to the given selection. When
+     * {@code ignoreCase} is set the range uses the NOCASE collation of the name index.
+     */
+    private static String appendPrefixSelection(String selection, ArrayList<String> args, String column,
+                                                boolean ignoreCase, String prefix) {
+        if (prefix == null || prefix.isEmpty()) {
+            return selection;
         }
 
-        // If 1 or more rows were deleted, then notify all listeners that the data at the
-        // given URI has changed
-        if (rowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+        String collatedColumn = column;
+        if (ignoreCase) {
+            // NOCASE only folds ASCII letters, so fold the prefix the same way before
+            // computing the upper bound
+            collatedColumn = column + " COLLATE NOCASE";
+            prefix = toAsciiLowerCase(prefix);
         }
 
-        // Return the number of rows deleted
-        return rowsDeleted;
+        String range = collatedColumn + ">=?";
+        args.add(prefix);
+
+        String upperBound = prefixUpperBound(prefix, ignoreCase);
+        if (upperBound != null) {
+            range += " AND " + collatedColumn + "<?";
+            args.add(upperBound);
+        }
+
+        return DatabaseUtils.concatenateWhere(selection, range);
     }
 
     /**
-     * Returns the MIME type of data for the content URI.
+     * Returns the smallest string that is greater than every string starting with the given
+     * prefix, or null if there is no such string. When {@code ignoreCase} is set the prefix is
+     * already folded and the bound is compared under NOCASE, which sees no upper case ASCII
+     * letters: the character after '@' is '[', since an 'A' would compare as 'a' and let every
+     * string starting with '[' through '`' into the range.
      */
-    @Override
-    public String getType(@NonNull Uri uri) {
-        final int match = sUriMatcher.match(uri);
-        switch (match) {
-            case CONTACTS:
-                return ContactEntry.CONTENT_LIST_TYPE;
-            case CONTACT_ID:
-                return ContactEntry.CONTENT_ITEM_TYPE;
-            default:
-                throw new IllegalStateException("Unknown URI " + uri + " with match " + match);
+    private static String prefixUpperBound(String prefix, boolean ignoreCase) {
+        char[] chars = prefix.toCharArray();
+        for (int i = chars.length - 1; i >= 0; i--) {
+            if (chars[i] != Character.MAX_VALUE) {
+                chars[i]++;
+                if (ignoreCase && chars[i] == 'A') {
+                    chars[i] = 'Z' + 1;
+                }
+                return new String(chars, 0, i + 1);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Lower case the ASCII letters of the given string, leaving every other character alone.
+     */
+    private static String toAsciiLowerCase(String value) {
+        char[] chars = value.toCharArray();
+        for (int i = 0; i < chars.length; i++) {
+            if (chars[i] >= 'A' && chars[i] <= 'Z') {
+                chars[i] += 'a' - 'A';
+            }
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Insert new data into the provider with the given ContentValues.
+     */
+    @Override
+    public Uri insert(@NonNull Uri uri, ContentValues contentValues) {
+        long startTime = mStats.begin();
+        final int match = sUriMatcher.match(uri);
+        int rowsInserted = -1;
+        try {
+            switch (match) {
+                case CONTACTS:
+                    Uri newUri = insertContact(uri, contentValues);
+                    rowsInserted = newUri == null ? 0 : 1;
+                    return newUri;
+                case GROUPS:
+                    newUri = insertGroup(uri, contentValues);
+                    rowsInserted = newUri == null ? 0 : 1;
+                    return newUri;
+                case GROUP_MEMBERS:
+                    long contactId = parseMemberContactId(contentValues);
+                    rowsInserted = editGroupMembers(uri, parseParentId(uri), new long[]{contactId}, null)[0];
+                    return rowsInserted == 0 ? null : ContentUris.withAppendedId(uri, contactId);
+                default:
+                    throw new IllegalArgumentException("Insertion is not supported for " + uri);
+            }
+        } finally {
+            mStats.end(Operation.INSERT, statsTarget(match), startTime, rowsInserted);
+        }
+    }
+
+    /**
+     * Insert a pet into the database with the given content values. Return the new content URI
+     * for that specific row in the database.
+     */
+    private Uri insertContact(Uri uri, ContentValues values) {
+        // Check that the values describe a valid contact
+        int gender = validateContact(values);
+
+        // Get readable database
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        long id;
+        if (isContactRow(values)) {
+            // Insert the row through the pooled statement
+            ContactStatementPool statements = getStatements(database);
+            SQLiteStatement statement = statements.acquire(ContactStatementPool.Shape.INSERT);
+            try {
+                bindContact(statement, values, gender);
+                id = statement.executeInsert();
+            } catch (SQLiteConstraintException e) {
+                id = -1;
+            } finally {
+                statements.release(ContactStatementPool.Shape.INSERT, statement);
+            }
+        } else {
+            // Add the key of the number, without touching the caller's values
+            values = new ContentValues(values);
+            putNumberKey(values);
+            id = database.insert(ContactEntry.TABLE_NAME, null, values);
+        }
+        if (id == -1) {
+            Log.e(LOG_TAG, "Failed to insert row for " + uri);
+            return null;
+        }
+
+        // Notify all listeners that the data has changed for the new contact's URI
+        // uri: content://com.wampinfotech.contacts/contacts/<id>
+        ChangeSet changes = new ChangeSet();
+        changes.add(id);
+        notifyChange(changes);
+
+        // Return the new URI with the ID (of the newly inserted row) appended at the end
+        return ContentUris.withAppendedId(uri, id);
+    }
+
+    /**
+     * Insert all of the given rows inside a single transaction. Returns the number of rows that
+     * were inserted.
+     */
+    @Override
+    public int bulkInsert(@NonNull Uri uri, @NonNull ContentValues[] values) {
+        long startTime = mStats.begin();
+        final int match = sUriMatcher.match(uri);
+        int rowsInserted = -1;
+        try {
+            switch (match) {
+                case CONTACTS:
+                    rowsInserted = bulkInsertContacts(uri, values);
+                    return rowsInserted;
+                case GROUP_MEMBERS:
+                    // All of the contacts are added in one transaction
+                    long[] contactIds = new long[values.length];
+                    for (int i = 0; i < values.length; i++) {
+                        contactIds[i] = parseMemberContactId(values[i]);
+                    }
+                    rowsInserted = editGroupMembers(uri, parseParentId(uri), contactIds, null)[0];
+                    return rowsInserted;
+                default:
+                    throw new IllegalArgumentException("Insertion is not supported for " + uri);
+            }
+        } finally {
+            mStats.end(Operation.BULK_INSERT, statsTarget(match), startTime, rowsInserted);
+        }
+    }
+
+    /**
+     * Insert a batch of contacts into the database. The whole batch shares one transaction and
+     * one compiled INSERT statement, and listeners are notified after it has committed. Rows
+     * with other columns than the contact columns, such as an _ID, are inserted as given in the
+     * same transaction, just like {@link #insertContact} does. Rows that the database rejects
+     * are logged and skipped.
+     */
+    private int bulkInsertContacts(Uri uri, ContentValues[] values) {
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        ChangeSet changes = new ChangeSet();
+        int rowsInserted = 0;
+
+        database.beginTransactionNonExclusive();
+        ContactStatementPool statements = getStatements(database);
+        SQLiteStatement statement = statements.acquire(ContactStatementPool.Shape.INSERT);
+        try {
+            for (ContentValues value : values) {
+                // Validate the row before touching the statement, so a bad row aborts the
+                // whole batch before anything is committed
+                int gender = validateContact(value);
+
+                if (!isContactRow(value)) {
+                    // The statement would drop the other columns, so insert the row as given,
+                    // with the key of its number added to a copy
+                    ContentValues row = new ContentValues(value);
+                    putNumberKey(row);
+                    long id = database.insert(ContactEntry.TABLE_NAME, null, row);
+                    if (id == -1) {
+                        Log.e(LOG_TAG, "Failed to insert row for " + uri);
+                    } else {
+                        changes.add(id);
+                        rowsInserted++;
+                    }
+                    continue;
+                }
+
+                statement.clearBindings();
+                bindContact(statement, value, gender);
+
+                try {
+                    changes.add(statement.executeInsert());
+                    rowsInserted++;
+                } catch (SQLiteConstraintException e) {
+                    Log.e(LOG_TAG, "Failed to insert row for " + uri, e);
+                }
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            statements.release(ContactStatementPool.Shape.INSERT, statement);
+            database.endTransaction();
+        }
+
+        // Notify all listeners for the whole batch
+        if (rowsInserted != 0) {
+            notifyChange(changes);
+        }
+
+        return rowsInserted;
+    }
+
+    /**
+     * Apply all of the given operations inside a single transaction. Change notifications raised
+     * by the individual operations are held back, merged and sent once the batch has committed.
+     */
+    @NonNull
+    @Override
+    public ContentProviderResult[] applyBatch(@NonNull ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        // Nested batches simply join the outer one
+        if (mBatchChanges.get() != null) {
+            return super.applyBatch(operations);
+        }
+
+        long startTime = mStats.begin();
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        ChangeSet changes = new ChangeSet();
+        ChangeSet invalidations = new ChangeSet();
+        mBatchChanges.set(changes);
+        mBatchInvalidations.set(invalidations);
+
+        ContentProviderResult[] results = null;
+        database.beginTransactionNonExclusive();
+        try {
+            results = super.applyBatch(operations);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+            mBatchChanges.remove();
+            mBatchInvalidations.remove();
+            // Rows read by other threads while the batch was open are the old ones, committed or
+            // rolled back alike
+            invalidateCache(invalidations);
+            // The operations are recorded on their own, the batch counts them as its rows
+            mStats.end(Operation.APPLY_BATCH, statsTarget(CONTACTS), startTime,
+                    results == null ? -1 : results.length);
+        }
+
+        // The batch has committed, so let listeners requery once
+        notifyChange(changes);
+
+        return results;
+    }
+
+    /**
+     * Updates the data at the given selection and selection arguments, with the new ContentValues.
+     */
+    @Override
+    public int update(@NonNull Uri uri, ContentValues contentValues, String selection,
+                      String[] selectionArgs) {
+        long startTime = mStats.begin();
+        final int match = sUriMatcher.match(uri);
+        int rowsUpdated = -1;
+        try {
+            switch (match) {
+                case CONTACTS:
+                    rowsUpdated = updateContact(uri, contentValues, selection, selectionArgs);
+                    return rowsUpdated;
+                case CONTACT_ID:
+                    // Full rows, like the editor writes, go through the pooled statement
+                    if (isContactRow(contentValues) && hasAllContactColumns(contentValues)) {
+                        rowsUpdated = updateContactById(ContentUris.parseId(uri), contentValues);
+                        return rowsUpdated;
+                    }
+
+                    // For the PET_ID code, extract out the ID from the URI,
+                    // so we know which row to update. Selection will be "_id=?" and selection
+                    // arguments will be a String array containing the actual ID.
+                    selection = ContactEntry._ID + "=?";
+                    selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
+                    rowsUpdated = updateContact(uri, contentValues, selection, selectionArgs);
+                    return rowsUpdated;
+                case GROUPS:
+                    rowsUpdated = updateGroup(uri, contentValues, selection, selectionArgs);
+                    return rowsUpdated;
+                case GROUP_ID:
+                    selection = GroupEntry._ID + "=?";
+                    selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
+                    rowsUpdated = updateGroup(uri, contentValues, selection, selectionArgs);
+                    return rowsUpdated;
+                default:
+                    throw new IllegalArgumentException("Update is not supported for " + uri);
+            }
+        } finally {
+            mStats.end(Operation.UPDATE, statsTarget(match), startTime, rowsUpdated);
+        }
+    }
+
+    /**
+     * Update every column of the contact with the given _ID through the pooled statement.
+     * Return the number of rows that were updated.
+     */
+    private int updateContactById(long id, ContentValues values) {
+        // Every column is present, so the checks are the same as for an insert
+        int gender = validateContact(values);
+
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        ContactStatementPool statements = getStatements(database);
+        SQLiteStatement statement = statements.acquire(ContactStatementPool.Shape.UPDATE_BY_ID);
+        int rowsUpdated;
+        try {
+            bindContact(statement, values, gender);
+            statement.bindLong(6, id);
+            rowsUpdated = statement.executeUpdateDelete();
+        } finally {
+            statements.release(ContactStatementPool.Shape.UPDATE_BY_ID, statement);
+        }
+
+        // Drop the updated row from the cache and notify its listeners
+        invalidateCache(id);
+        if (rowsUpdated != 0) {
+            ChangeSet changes = new ChangeSet();
+            changes.add(id);
+            notifyChange(changes);
+        }
+        return rowsUpdated;
+    }
+
+    /**
+     * Update pets in the database with the given content values. Apply the changes to the rows
+     * specified in the selection and selection arguments (which could be 0 or 1 or more pets).
+     * Return the number of rows that were successfully updated.
+     */
+    private int updateContact(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+        // If the {@link PetEntry#COLUMN_PET_NAME} key is present,
+        // check that the name value is not null.
+        if (values.containsKey(ContactEntry.COLUMN_CONTACT_NAME)) {
+            String name = values.getAsString(ContactEntry.COLUMN_CONTACT_NAME);
+            if (name == null) {
+                throw new IllegalArgumentException("Contact requires a name");
+            }
+        }
+
+        // If the {@link PetEntry#COLUMN_PET_GENDER} key is present,
+        // check that the gender value is valid.
+        if (values.containsKey(ContactEntry.COLUMN_CONTACT_GENDER)) {
+            Integer gender = values.getAsInteger(ContactEntry.COLUMN_CONTACT_GENDER);
+            if (gender == null || !ContactEntry.isValidGender(gender)) {
+                throw new IllegalArgumentException("Contact requires valid gender");
+            }
+        }
+
+        // If the {@link PetEntry#COLUMN_PET_WEIGHT} key is present,
+        // check that the weight value is valid.
+        if (values.containsKey(ContactEntry.COLUMN_CONTACT_NUMBER)) {
+            // Check that the weight is greater than or equal to 0 kg
+            String number = values.getAsString(ContactEntry.COLUMN_CONTACT_NUMBER);
+            if (number != null && number.length() != 10) {
+                throw new IllegalArgumentException("Contact requires valid number");
+            }
+        }
+
+        // No need to check the breed, any value is valid (including null).
+
+        checkNotDeleting(values);
+
+        // Keep the key of the number in step with the number, without touching the caller's values
+        if (values.containsKey(ContactEntry.COLUMN_CONTACT_NUMBER)
+                || values.containsKey(ContactEntry.COLUMN_CONTACT_NUMBER_KEY)) {
+            values = new ContentValues(values);
+            values.remove(ContactEntry.COLUMN_CONTACT_NUMBER_KEY);
+            if (values.containsKey(ContactEntry.COLUMN_CONTACT_NUMBER)) {
+                putNumberKey(values);
+            }
+        }
+
+        // If there are no values to update, then don't try to update the database
+        if (values.size() == 0) {
+            return 0;
+        }
+
+        // Otherwise, get writeable database to update the data. Deleted contacts can't be updated.
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        selection = DatabaseUtils.concatenateWhere(selection, SELECTION_LIVE);
+
+        // Find out which contacts are about to change, then perform the update on the database
+        // and get the number of rows affected
+        ChangeSet changes;
+        int rowsUpdated;
+        database.beginTransactionNonExclusive();
+        try {
+            changes = findChanges(database, uri, selection, selectionArgs);
+            rowsUpdated = database.update(ContactEntry.TABLE_NAME, values, selection, selectionArgs);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+
+        // Drop the updated rows from the cache
+        invalidateCache(changes);
+
+        // If 1 or more rows were updated, then notify all listeners that the data of the
+        // updated contacts has changed
+        if (rowsUpdated != 0) {
+            notifyChange(changes);
+        }
+
+        // Return the number of rows updated
+        return rowsUpdated;
+    }
+
+    /**
+     * Delete the data at the given selection and selection arguments.
+     */
+    @Override
+    public int delete(@NonNull Uri uri, String selection, String[] selectionArgs) {
+        long startTime = mStats.begin();
+        int match = sUriMatcher.match(uri);
+        int rowsDeleted = -1;
+        try {
+            rowsDeleted = delete(uri, match, selection, selectionArgs);
+            return rowsDeleted;
+        } finally {
+            mStats.end(Operation.DELETE, statsTarget(match), startTime, rowsDeleted);
+        }
+    }
+
+    /**
+     * Delete the data at the given selection and selection arguments, for the URI already
+     * matched to the given code.
+     */
+    private int delete(Uri uri, int match, String selection, String[] selectionArgs) {
+        // Groups and their members are deleted outright
+        switch (match) {
+            case GROUPS:
+                return deleteGroups(uri, selection, selectionArgs);
+            case GROUP_ID:
+                return deleteGroups(uri, GroupEntry._ID + "=?", new String[]{String.valueOf(ContentUris.parseId(uri))});
+            case GROUP_MEMBERS:
+                return deleteGroupMembers(uri, parseParentId(uri), selection, selectionArgs);
+            case GROUP_MEMBER:
+                return editGroupMembers(uri, parseParentId(uri), null, new long[]{ContentUris.parseId(uri)})[1];
+        }
+
+        // Get writeable database
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+
+        // Track the number of rows that were deleted, and which contacts they were
+        int rowsDeleted;
+        ChangeSet changes;
+
+        switch (match) {
+            case CONTACTS:
+                // Delete all rows that match the selection and selection args, unless they
+                // already are
+                selection = DatabaseUtils.concatenateWhere(selection, SELECTION_LIVE);
+                break;
+            case CONTACT_ID:
+                // Delete a single row given by the ID in the URI, through the pooled statement
+                return deleteContactById(database, ContentUris.parseId(uri));
+            default:
+                throw new IllegalArgumentException("Deletion is not supported for " + uri);
+        }
+
+        // Only flag the rows as deleted. That writes one small column and its index instead of
+        // every index and the search table, so even deleting every contact holds the write lock
+        // briefly; the purger removes the rows later, in small chunks.
+        ContentValues values = new ContentValues();
+        values.put(ContactEntry.COLUMN_DELETED, 1);
+        database.beginTransactionNonExclusive();
+        try {
+            changes = findChanges(database, uri, selection, selectionArgs);
+            rowsDeleted = database.update(ContactEntry.TABLE_NAME, values, selection, selectionArgs);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+
+        // Drop the deleted rows from the cache
+        invalidateCache(changes);
+
+        // If 1 or more rows were deleted, then notify all listeners that the data of the
+        // deleted contacts has changed, and have their rows purged
+        if (rowsDeleted != 0) {
+            notifyChange(changes);
+            mPurger.schedule();
+        }
+
+        // Return the number of rows deleted
+        return rowsDeleted;
+    }
+
+    /**
+     * Delete the contact with the given _ID through the pooled statement, which flags it for the
+     * purger. Return the number of rows that were deleted.
+     */
+    private int deleteContactById(SQLiteDatabase database, long id) {
+        ContactStatementPool statements = getStatements(database);
+        SQLiteStatement statement = statements.acquire(ContactStatementPool.Shape.DELETE_BY_ID);
+        int rowsDeleted;
+        try {
+            statement.bindLong(1, id);
+            rowsDeleted = statement.executeUpdateDelete();
+        } finally {
+            statements.release(ContactStatementPool.Shape.DELETE_BY_ID, statement);
+        }
+
+        // Drop the deleted row from the cache and notify its listeners
+        invalidateCache(id);
+        if (rowsDeleted != 0) {
+            ChangeSet changes = new ChangeSet();
+            changes.add(id);
+            notifyChange(changes);
+            mPurger.schedule();
+        }
+        return rowsDeleted;
+    }
+
+    /**
+     * Returns the contacts that a write through the given URI and selection is about to change.
+     * For the CONTACT_ID URI that's the contact in the URI; otherwise the matching _IDs are
+     * read, up to the point where there are too many to notify one by one. Must run inside the
+     * transaction of the write.
+     */
+    private static ChangeSet findChanges(SQLiteDatabase database, Uri uri, String selection,
+                                         String[] selectionArgs) {
+        ChangeSet changes = new ChangeSet();
+        if (sUriMatcher.match(uri) == CONTACT_ID) {
+            changes.add(ContentUris.parseId(uri));
+            return changes;
+        }
+
+        Cursor cursor = database.query(ContactEntry.TABLE_NAME, new String[]{ContactEntry._ID}, selection,
+                selectionArgs, null, null, null, String.valueOf(MAX_ROW_NOTIFICATIONS + 1));
+        try {
+            while (cursor.moveToNext()) {
+                changes.add(cursor.getLong(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return changes;
+    }
+
+    /**
+     * Drop the contact with the given _ID from the cache.
+     */
+    private void invalidateCache(long id) {
+        ChangeSet changes = new ChangeSet();
+        changes.add(id);
+        invalidateCache(changes);
+    }
+
+    /**
+     * Drop the changed contacts from the cache, or all of them if they aren't known one by one.
+     * Inside a batch they are dropped again once the batch has committed.
+     */
+    private void invalidateCache(ChangeSet changes) {
+        ChangeSet batchInvalidations = mBatchInvalidations.get();
+        if (batchInvalidations != null) {
+            batchInvalidations.addAll(changes);
+        }
+        if (changes.all) {
+            mCache.invalidateAll();
+            return;
+        }
+        for (long id : changes.ids) {
+            mCache.invalidate(id);
+        }
+    }
+
+    /**
+     * Check that the given values describe a valid contact, throwing an
+     * {@link IllegalArgumentException} otherwise. Returns the gender, so callers binding a
+     * compiled statement don't need to read it again.
+     */
+    static int validateContact(ContentValues values) {
+        // Check that the name is not null
+        String name = values.getAsString(ContactEntry.COLUMN_CONTACT_NAME);
+        if (name == null) {
+            throw new IllegalArgumentException("Contact requires a name");
+        }
+
+        checkNotDeleting(values);
+
+        // Read the gender as a primitive; only fall back to getAsInteger() for values that
+        // were not put in as a number
+        Object genderValue = values.get(ContactEntry.COLUMN_CONTACT_GENDER);
+        int gender;
+        if (genderValue instanceof Number) {
+            gender = ((Number) genderValue).intValue();
+        } else {
+            Integer parsedGender = values.getAsInteger(ContactEntry.COLUMN_CONTACT_GENDER);
+            if (parsedGender == null) {
+                throw new IllegalArgumentException("Contact requires valid gender");
+            }
+            gender = parsedGender;
+        }
+        if (!ContactEntry.isValidGender(gender)) {
+            throw new IllegalArgumentException("Contact requires valid gender");
+        }
+
+        // If the number is provided, check that it has 10 digits
+        String number = values.getAsString(ContactEntry.COLUMN_CONTACT_NUMBER);
+        if (number != null && number.length() != 10) {
+            throw new IllegalArgumentException("Contact requires valid number");
+        }
+
+        return gender;
+    }
+
+    /**
+     * Check that the given values don't set the deleted flag, which only delete() and the
+     * purger may change.
+     */
+    private static void checkNotDeleting(ContentValues values) {
+        if (values.containsKey(ContactEntry.COLUMN_DELETED)) {
+            throw new IllegalArgumentException("Contacts can only be deleted through delete()");
+        }
+    }
+
+    /**
+     * Returns the statement pool of the given writable database, creating it when the database
+     * is first used or has been reopened.
+     */
+    private synchronized ContactStatementPool getStatements(SQLiteDatabase database) {
+        if (mStatements == null || !mStatements.isFor(database)) {
+            mStatements = new ContactStatementPool(database);
+        }
+        return mStatements;
+    }
+
+    /**
+     * Returns whether the given values only hold contact columns, so they can be written through
+     * a pooled statement. Columns that are missing are written as NULL.
+     */
+    private static boolean isContactRow(ContentValues values) {
+        int columns = 0;
+        if (values.containsKey(ContactEntry.COLUMN_CONTACT_NAME)) {
+            columns++;
+        }
+        if (values.containsKey(ContactEntry.COLUMN_CONTACT_EMAIL)) {
+            columns++;
+        }
+        if (values.containsKey(ContactEntry.COLUMN_CONTACT_GENDER)) {
+            columns++;
+        }
+        if (values.containsKey(ContactEntry.COLUMN_CONTACT_NUMBER)) {
+            columns++;
+        }
+        if (values.containsKey(ContactEntry.COLUMN_CONTACT_NUMBER_KEY)) {
+            columns++;
+        }
+        return columns == values.size();
+    }
+
+    /**
+     * Returns whether the given values hold every column a contact has, so an update through
+     * them rewrites the whole row.
+     */
+    private static boolean hasAllContactColumns(ContentValues values) {
+        return values.containsKey(ContactEntry.COLUMN_CONTACT_NAME)
+                && values.containsKey(ContactEntry.COLUMN_CONTACT_EMAIL)
+                && values.containsKey(ContactEntry.COLUMN_CONTACT_GENDER)
+                && values.containsKey(ContactEntry.COLUMN_CONTACT_NUMBER);
+    }
+
+    /**
+     * Bind the name, email, gender, mobile number and its key to the first five parameters of
+     * a pooled INSERT or UPDATE_BY_ID statement. Any key in the values is ignored.
+     */
+    private static void bindContact(SQLiteStatement statement, ContentValues values, int gender) {
+        String number = values.getAsString(ContactEntry.COLUMN_CONTACT_NUMBER);
+        bindStringOrNull(statement, 1, values.getAsString(ContactEntry.COLUMN_CONTACT_NAME));
+        bindStringOrNull(statement, 2, values.getAsString(ContactEntry.COLUMN_CONTACT_EMAIL));
+        statement.bindLong(3, gender);
+        bindStringOrNull(statement, 4, number);
+        Long numberKey = ContactNumberKey.of(number);
+        if (numberKey == null) {
+            statement.bindNull(5);
+        } else {
+            statement.bindLong(5, numberKey);
+        }
+    }
+
+    /**
+     * Set the number key of the given values from their number, replacing any key the caller
+     * put in.
+     */
+    private static void putNumberKey(ContentValues values) {
+        Long numberKey = ContactNumberKey.of(values.getAsString(ContactEntry.COLUMN_CONTACT_NUMBER));
+        if (numberKey == null) {
+            values.putNull(ContactEntry.COLUMN_CONTACT_NUMBER_KEY);
+        } else {
+            values.put(ContactEntry.COLUMN_CONTACT_NUMBER_KEY, numberKey);
+        }
+    }
+
+    /**
+     * Bind the given value to the statement, binding NULL when there is no value.
+     */
+    private static void bindStringOrNull(SQLiteStatement statement, int index, String value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindString(index, value);
+        }
+    }
+
+    /**
+     * Notify all listeners that the given contacts have changed, with a single notification:
+     * the URI of the contact when only one has changed, the contacts URI with the _IDs in
+     * {@link ContactEntry#QUERY_PARAMETER_CHANGED_IDS} when a few have, or the contacts URI as
+     * is otherwise. Inside a batch the notification is deferred until the batch has committed.
+     * <p>
+     * The snapshot of the catalog's first screen is deleted first, so it never shows the
+     * contacts as they were before the change.
+     */
+    private void notifyChange(ChangeSet changes) {
+        ChangeSet batchChanges = mBatchChanges.get();
+        if (batchChanges != null) {
+            batchChanges.addAll(changes);
+            return;
+        }
+
+        boolean contactsChanged = changes.all || !changes.ids.isEmpty();
+        if (contactsChanged) {
+            ContactSnapshotFile.invalidate(mSnapshotFile);
+        }
+
+        ContentResolver contentResolver = getContext().getContentResolver();
+        if (changes.all) {
+            contentResolver.notifyChange(ContactEntry.CONTENT_URI, null);
+        } else if (changes.ids.size() == 1) {
+            contentResolver.notifyChange(ContentUris.withAppendedId(ContactEntry.CONTENT_URI,
+                    changes.ids.iterator().next()), null);
+        } else if (!changes.ids.isEmpty()) {
+            contentResolver.notifyChange(ContactEntry.CONTENT_URI.buildUpon().appendQueryParameter(
+                    ContactEntry.QUERY_PARAMETER_CHANGED_IDS, TextUtils.join(",", changes.ids)).build(), null);
+        }
+
+        // The members of the groups and their counts follow the contacts that are members
+        if (changes.groups || (contactsChanged && hasGroupMembers(changes))) {
+            contentResolver.notifyChange(GroupEntry.CONTENT_URI, null);
+        }
+    }
+
+    /**
+     * Returns whether any of the given contacts is a member of a group, through the index of
+     * the members by contact. New contacts never are. Deleted contacts keep their members rows
+     * until they are purged, so they are found too.
+     */
+    private boolean hasGroupMembers(ChangeSet changes) {
+        String selection = null;
+        if (!changes.all) {
+            selection = GroupEntry.COLUMN_MEMBER_CONTACT_ID + " IN (" + TextUtils.join(",", changes.ids) + ")";
+        }
+        try {
+            return DatabaseUtils.queryNumEntries(mDbHelper.getReadableDatabase(), GroupEntry.MEMBERS_TABLE_NAME,
+                    selection) != 0;
+        } catch (SQLException e) {
+            // Notify the groups anyway rather than leave them stale
+            Log.e(LOG_TAG, "Failed to look up the groups of changed contacts", e);
+            return true;
+        }
+    }
+
+    /**
+     * Handle the provider-specific methods defined in {@link ContactContract}.
+     */
+    @Override
+    public Bundle call(@NonNull String method, String arg, Bundle extras) {
+        if (ContactContract.METHOD_GET_CACHE_STATS.equals(method)) {
+            return mCache.getStats();
+        }
+        if (ContactContract.METHOD_SET_PROVIDER_STATS_ENABLED.equals(method)) {
+            mStats.setEnabled(Boolean.parseBoolean(arg));
+            return null;
+        }
+        if (ContactContract.METHOD_GET_PROVIDER_STATS.equals(method)) {
+            return mStats.getSnapshot();
+        }
+        if (ContactContract.METHOD_RESET_PROVIDER_STATS.equals(method)) {
+            mStats.reset();
+            return null;
+        }
+        if (ContactContract.METHOD_GET_CHANGE_SEQUENCES.equals(method)) {
+            return getChangeSequences();
+        }
+        if (ContactContract.METHOD_EDIT_GROUP_MEMBERS.equals(method)) {
+            return editGroupMembers(arg, extras);
+        }
+        if (ContactContract.METHOD_COMPACT_DATABASE.equals(method)) {
+            Bundle result = new Bundle();
+            result.putInt(ContactContract.COMPACT_DATABASES_REBUILT, mPurger.compact());
+            return result;
+        }
+        if (ContactContract.METHOD_MERGE_CONTACTS.equals(method)) {
+            Bundle result = new Bundle();
+            result.putInt(ContactContract.MERGE_ROWS_DELETED, mergeContacts(arg, extras));
+            return result;
+        }
+        return super.call(method, arg, extras);
+    }
+
+    /**
+     * Returns the range of sequence numbers the changes can be read from, as described by
+     * {@link ContactContract#METHOD_GET_CHANGE_SEQUENCES}.
+     */
+    private Bundle getChangeSequences() {
+        SQLiteDatabase database = mDbHelper.getReadableDatabase();
+        Bundle result = new Bundle();
+        // sqlite_sequence holds the largest sequence number handed out, even once it's pruned
+        result.putLong(ContactContract.CHANGES_LATEST_SEQUENCE, DatabaseUtils.longForQuery(database,
+                "SELECT IFNULL(MAX(seq), 0) FROM sqlite_sequence WHERE name=?",
+                new String[]{ContactEntry.CHANGES_TABLE_NAME}));
+        result.putLong(ContactContract.CHANGES_OLDEST_SEQUENCE, DatabaseUtils.longForQuery(database,
+                "SELECT " + ContactEntry.COLUMN_CHANGE_SEQUENCE + " FROM " + ContactEntry.CHANGES_HORIZON_TABLE_NAME,
+                null));
+        return result;
+    }
+
+    /**
+     * Merge the duplicates given in the extras into the contact with the _ID given as the
+     * argument, as described by {@link ContactContract#METHOD_MERGE_CONTACTS}. Return the number
+     * of duplicates that were deleted.
+     */
+    private int mergeContacts(String arg, Bundle extras) {
+        long keepId;
+        try {
+            keepId = Long.parseLong(arg);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid contact to keep " + arg);
+        }
+        long[] duplicateIds = extras == null ? null : extras.getLongArray(ContactContract.MERGE_DUPLICATE_IDS);
+        if (duplicateIds == null) {
+            throw new IllegalArgumentException("Merging requires " + ContactContract.MERGE_DUPLICATE_IDS);
+        }
+
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        String[] projection = {ContactEntry.COLUMN_CONTACT_EMAIL, ContactEntry.COLUMN_CONTACT_NUMBER};
+        ChangeSet changes = new ChangeSet();
+        int rowsDeleted = 0;
+
+        database.beginTransactionNonExclusive();
+        try {
+            String[] kept = readMergeColumns(database, keepId, projection);
+            if (kept == null) {
+                // Nothing to merge into
+                return 0;
+            }
+            String email = kept[0];
+            String number = kept[1];
+            boolean filled = false;
+
+            ContactStatementPool statements = getStatements(database);
+            SQLiteStatement delete = statements.acquire(ContactStatementPool.Shape.DELETE_BY_ID);
+            try {
+                for (long id : duplicateIds) {
+                    if (id == keepId) {
+                        continue;
+                    }
+
+                    // Only read the duplicate while the kept contact still misses something
+                    boolean needsEmail = TextUtils.isEmpty(email);
+                    boolean needsNumber = ContactNumberKey.of(number) == null;
+                    if (needsEmail || needsNumber) {
+                        String[] duplicate = readMergeColumns(database, id, projection);
+                        if (duplicate != null && needsEmail && !TextUtils.isEmpty(duplicate[0])) {
+                            email = duplicate[0];
+                            filled = true;
+                        }
+                        if (duplicate != null && needsNumber && ContactNumberKey.of(duplicate[1]) != null) {
+                            number = duplicate[1];
+                            filled = true;
+                        }
+                    }
+
+                    delete.bindLong(1, id);
+                    if (delete.executeUpdateDelete() != 0) {
+                        rowsDeleted++;
+                        changes.add(id);
+                        // The flagged duplicate keeps its members rows until the purge
+                        copyGroups(database, id, keepId);
+                    }
+                }
+            } finally {
+                statements.release(ContactStatementPool.Shape.DELETE_BY_ID, delete);
+            }
+
+            if (filled) {
+                ContentValues values = new ContentValues();
+                values.put(ContactEntry.COLUMN_CONTACT_EMAIL, email);
+                values.put(ContactEntry.COLUMN_CONTACT_NUMBER, number);
+                putNumberKey(values);
+                database.update(ContactEntry.TABLE_NAME, values, ContactEntry._ID + "=?",
+                        new String[]{String.valueOf(keepId)});
+                changes.add(keepId);
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+
+        invalidateCache(changes);
+        if (changes.all || !changes.ids.isEmpty()) {
+            notifyChange(changes);
+        }
+        if (rowsDeleted != 0) {
+            mPurger.schedule();
+        }
+        return rowsDeleted;
+    }
+
+    /**
+     * Add the contact with the _ID {@code toId} to every group of the contact with the _ID
+     * {@code fromId}. The unique index of the members by group ignores the groups it's already
+     * in, and the triggers count the new members.
+     */
+    private static void copyGroups(SQLiteDatabase database, long fromId, long toId) {
+        database.execSQL("INSERT OR IGNORE INTO " + GroupEntry.MEMBERS_TABLE_NAME + " ("
+                + GroupEntry.COLUMN_MEMBER_GROUP_ID + ", " + GroupEntry.COLUMN_MEMBER_CONTACT_ID + ") SELECT "
+                + GroupEntry.COLUMN_MEMBER_GROUP_ID + ", ? FROM " + GroupEntry.MEMBERS_TABLE_NAME + " WHERE "
+                + GroupEntry.COLUMN_MEMBER_CONTACT_ID + "=?", new Object[]{toId, fromId});
+    }
+
+    /**
+     * Returns the email and mobile number of the contact with the given _ID, or null if there
+     * is no such contact.
+     */
+    private static String[] readMergeColumns(SQLiteDatabase database, long id, String[] projection) {
+        Cursor cursor = database.query(ContactEntry.TABLE_NAME, projection,
+                ContactEntry._ID + "=? AND " + SELECTION_LIVE, new String[]{String.valueOf(id)}, null, null, null);
+        try {
+            if (!cursor.moveToFirst()) {
+                return null;
+            }
+            return new String[]{cursor.getString(0), cursor.getString(1)};
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Returns the _ID in the path of the given URI before its last segment, such as the group
+     * of {@code groups/2/members} or the contact of {@code contacts/3/groups}. The URI matcher
+     * has already checked that it is a number.
+     */
+    private static long parseParentId(Uri uri) {
+        return Long.parseLong(uri.getPathSegments().get(1));
+    }
+
+    /**
+     * Returns the contact _ID of values inserted into the members of a group.
+     */
+    private static long parseMemberContactId(ContentValues values) {
+        Long contactId = values.getAsLong(GroupEntry.COLUMN_MEMBER_CONTACT_ID);
+        if (contactId == null || values.size() != 1) {
+            throw new IllegalArgumentException("A member requires only a " + GroupEntry.COLUMN_MEMBER_CONTACT_ID);
+        }
+        return contactId;
+    }
+
+    /**
+     * Check that the given values of a group can be written: a title that isn't empty, which
+     * an insert requires, and no other column.
+     */
+    private static void validateGroup(ContentValues values, boolean inserting) {
+        if (values.containsKey(GroupEntry.COLUMN_GROUP_TITLE)) {
+            String title = values.getAsString(GroupEntry.COLUMN_GROUP_TITLE);
+            if (title == null || title.trim().isEmpty()) {
+                throw new IllegalArgumentException("Group requires a title");
+            }
+        } else if (inserting) {
+            throw new IllegalArgumentException("Group requires a title");
+        }
+        if (values.size() != (values.containsKey(GroupEntry.COLUMN_GROUP_TITLE) ? 1 : 0)) {
+            // The member count is kept by the triggers
+            throw new IllegalArgumentException("Only the title of a group can be written");
+        }
+    }
+
+    /**
+     * Insert a group with the given content values. Return the new content URI for it.
+     */
+    private Uri insertGroup(Uri uri, ContentValues values) {
+        validateGroup(values, true);
+        long id = mDbHelper.getWritableDatabase().insert(GroupEntry.TABLE_NAME, null, values);
+        if (id == -1) {
+            Log.e(LOG_TAG, "Failed to insert row for " + uri);
+            return null;
+        }
+        notifyChange(ChangeSet.forGroups());
+        return ContentUris.withAppendedId(uri, id);
+    }
+
+    /**
+     * Update the title of the groups the selection matches. Return the number of groups that
+     * were updated.
+     */
+    private int updateGroup(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+        validateGroup(values, false);
+        if (values.size() == 0) {
+            return 0;
+        }
+        int rowsUpdated = mDbHelper.getWritableDatabase().update(GroupEntry.TABLE_NAME, values,
+                selection, selectionArgs);
+        if (rowsUpdated != 0) {
+            notifyChange(ChangeSet.forGroups());
+        }
+        return rowsUpdated;
+    }
+
+    /**
+     * Delete the groups the selection matches. Their members go with them, through a trigger,
+     * but the contacts stay. Return the number of groups that were deleted.
+     */
+    private int deleteGroups(Uri uri, String selection, String[] selectionArgs) {
+        int rowsDeleted = mDbHelper.getWritableDatabase().delete(GroupEntry.TABLE_NAME,
+                selection, selectionArgs);
+        if (rowsDeleted != 0) {
+            notifyChange(ChangeSet.forGroups());
+        }
+        return rowsDeleted;
+    }
+
+    /**
+     * Remove the members of the given group that the selection on the members table matches,
+     * or all of them. Return the number of members removed.
+     */
+    private int deleteGroupMembers(Uri uri, long groupId, String selection, String[] selectionArgs) {
+        selection = DatabaseUtils.concatenateWhere(selection, GroupEntry.COLUMN_MEMBER_GROUP_ID + "=" + groupId);
+        int rowsDeleted = mDbHelper.getWritableDatabase().delete(GroupEntry.MEMBERS_TABLE_NAME,
+                selection, selectionArgs);
+        if (rowsDeleted != 0) {
+            notifyChange(ChangeSet.forGroups());
+        }
+        return rowsDeleted;
+    }
+
+    /**
+     * Edit the members of a group as described by {@link ContactContract#METHOD_EDIT_GROUP_MEMBERS}.
+     */
+    private Bundle editGroupMembers(String arg, Bundle extras) {
+        long groupId;
+        try {
+            groupId = Long.parseLong(arg);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid group " + arg);
+        }
+        long[] addIds = extras == null ? null : extras.getLongArray(ContactContract.GROUP_ADD_CONTACT_IDS);
+        long[] removeIds = extras == null ? null : extras.getLongArray(ContactContract.GROUP_REMOVE_CONTACT_IDS);
+
+        int[] edited = editGroupMembers(ContentUris.withAppendedId(GroupEntry.CONTENT_URI, groupId), groupId,
+                addIds, removeIds);
+        Bundle result = new Bundle();
+        result.putInt(ContactContract.GROUP_MEMBERS_ADDED, edited[0]);
+        result.putInt(ContactContract.GROUP_MEMBERS_REMOVED, edited[1]);
+        return result;
+    }
+
+    /**
+     * Add the given contacts to the given group and remove the others from it, in a single
+     * transaction, each through one compiled statement. Contacts that are deleted or already
+     * members aren't added, and none are added to a group that doesn't exist. Either array can
+     * be null. Returns the number of members added and the number removed.
+     */
+    private int[] editGroupMembers(Uri uri, long groupId, long[] addIds, long[] removeIds) {
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        int added = 0;
+        int removed = 0;
+
+        database.beginTransactionNonExclusive();
+        try {
+            if (addIds != null && addIds.length != 0) {
+                // The unique index of the members by group ignores the contacts already in it
+                SQLiteStatement insert = database.compileStatement("INSERT OR IGNORE INTO "
+                        + GroupEntry.MEMBERS_TABLE_NAME + " (" + GroupEntry.COLUMN_MEMBER_GROUP_ID + ", "
+                        + GroupEntry.COLUMN_MEMBER_CONTACT_ID + ") SELECT " + groupId + ", " + ContactEntry._ID
+                        + " FROM " + ContactEntry.TABLE_NAME + " WHERE " + ContactEntry._ID + "=? AND "
+                        + SELECTION_LIVE + " AND EXISTS (SELECT 1 FROM " + GroupEntry.TABLE_NAME + " WHERE "
+                        + GroupEntry._ID + "=" + groupId + ")");
+                try {
+                    for (long id : addIds) {
+                        insert.bindLong(1, id);
+                        added += insert.executeUpdateDelete();
+                    }
+                } finally {
+                    insert.close();
+                }
+            }
+            if (removeIds != null && removeIds.length != 0) {
+                SQLiteStatement delete = database.compileStatement("DELETE FROM " + GroupEntry.MEMBERS_TABLE_NAME
+                        + " WHERE " + GroupEntry.COLUMN_MEMBER_GROUP_ID + "=" + groupId + " AND "
+                        + GroupEntry.COLUMN_MEMBER_CONTACT_ID + "=?");
+                try {
+                    for (long id : removeIds) {
+                        delete.bindLong(1, id);
+                        removed += delete.executeUpdateDelete();
+                    }
+                } finally {
+                    delete.close();
+                }
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+
+        if (added != 0 || removed != 0) {
+            notifyChange(ChangeSet.forGroups());
+        }
+        return new int[]{added, removed};
+    }
+
+    /**
+     * Print the call statistics, for {@code adb shell dumpsys activity provider}.
+     */
+    @Override
+    public void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        mStats.dump(writer);
+    }
+
+    /**
+     * Returns the index in {@link #STATS_TARGETS} of the given URI matcher code.
+     */
+    private static int statsTarget(int match) {
+        switch (match) {
+            case CONTACTS:
+                return 0;
+            case CONTACT_ID:
+                return 1;
+            case CONTACT_SEARCH:
+                return 2;
+            case CONTACT_LOOKUP:
+                return 3;
+            case CONTACT_SECTIONS:
+                return 4;
+            case CONTACT_CHANGES:
+                return 5;
+            case CONTACT_GROUPS:
+                return 6;
+            case GROUPS:
+                return 7;
+            case GROUP_ID:
+                return 8;
+            case GROUP_MEMBERS:
+                return 9;
+            case GROUP_MEMBER:
+                return 10;
+            default:
+                return 11;
+        }
+    }
+
+    /**
+     * Returns the MIME type of data for the content URI.
+     */
+    @Override
+    public String getType(@NonNull Uri uri) {
+        final int match = sUriMatcher.match(uri);
+        switch (match) {
+            case CONTACTS:
+                return ContactEntry.CONTENT_LIST_TYPE;
+            case CONTACT_ID:
+                return ContactEntry.CONTENT_ITEM_TYPE;
+            case CONTACT_SEARCH:
+                return ContactEntry.CONTENT_LIST_TYPE;
+            case CONTACT_LOOKUP:
+                return ContactEntry.CONTENT_LIST_TYPE;
+            case CONTACT_SECTIONS:
+                return ContactEntry.CONTENT_LIST_TYPE;
+            case CONTACT_CHANGES:
+                return ContactEntry.CONTENT_LIST_TYPE;
+            case CONTACT_GROUPS:
+                return GroupEntry.CONTENT_LIST_TYPE;
+            case GROUPS:
+                return GroupEntry.CONTENT_LIST_TYPE;
+            case GROUP_ID:
+                return GroupEntry.CONTENT_ITEM_TYPE;
+            case GROUP_MEMBERS:
+                return ContactEntry.CONTENT_LIST_TYPE;
+            case GROUP_MEMBER:
+                return ContactEntry.CONTENT_ITEM_TYPE;
+            default:
+                throw new IllegalStateException("Unknown URI " + uri + " with match " + match);
+        }
+    }
+
+    /**
+     * The contacts changed by one write or one batch of writes. Once more than
+     * {@link #MAX_ROW_NOTIFICATIONS} contacts have changed, the individual _IDs are dropped and
+     * the change set stands for all contacts.
+     */
+    private static final class ChangeSet {
+        /**
+         * _IDs of the changed contacts, unless {@link #all} is set
+         */
+        final HashSet<Long> ids = new HashSet<>();
+
+        /**
+         * Whether too many contacts have changed to tell them apart
+         */
+        boolean all;
+
+        /**
+         * Whether groups or their members have changed
+         */
+        boolean groups;
+
+        /**
+         * Returns a change set for a change to the groups only.
+         */
+        static ChangeSet forGroups() {
+            ChangeSet changes = new ChangeSet();
+            changes.groups = true;
+            return changes;
+        }
+
+        void add(long id) {
+            if (all) {
+                return;
+            }
+            ids.add(id);
+            if (ids.size() > MAX_ROW_NOTIFICATIONS) {
+                all = true;
+                ids.clear();
+            }
+        }
+
+        void addAll(ChangeSet other) {
+            groups |= other.groups;
+            if (other.all) {
+                all = true;
+                ids.clear();
+                return;
+            }
+            for (long id : other.ids) {
+                add(id);
+            }
         }
     }
-}
\ No newline at end of file
+}
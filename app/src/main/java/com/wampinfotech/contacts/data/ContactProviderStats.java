@@ -0,0 +1,201 @@
+package com.wampinfotech.contacts.data;
+
+import android.os.Bundle;
+
+import java.io.PrintWriter;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Call counters and latency histograms of {@link ContactProvider}, kept per operation and per
+ * matched URI.
+ * <p>
+ * Recording is lock-free: every counter lives in one {@link AtomicLongArray}, so binder threads
+ * never wait on each other. When recording is off, {@link #begin()} is a single volatile read
+ * and the provider skips everything else, including reading the clock.
+ */
+final class ContactProviderStats {
+
+    /**
+     * The provider entry points that are recorded
+     */
+    enum Operation {
+        QUERY, INSERT, BULK_INSERT, UPDATE, DELETE, APPLY_BATCH
+    }
+
+    /**
+     * Returned by {@link #begin()} when recording is off
+     */
+    static final long NOT_RECORDING = Long.MIN_VALUE;
+
+    /**
+     * Number of histogram buckets. Bucket i holds calls of [2^i, 2^(i+1)) microseconds, so the
+     * last one starts at about 8 seconds.
+     */
+    private static final int HISTOGRAM_BUCKETS = 24;
+
+    // Layout of the counters of one operation and URI in mCounters
+    private static final int CALLS = 0;
+    private static final int ERRORS = 1;
+    private static final int ROWS = 2;
+    private static final int TOTAL_NANOS = 3;
+    private static final int MAX_NANOS = 4;
+    private static final int HISTOGRAM = 5;
+    private static final int SLOT_SIZE = HISTOGRAM + HISTOGRAM_BUCKETS;
+
+    /**
+     * Names of the URIs, indexed by the target passed to {@link #end}
+     */
+    private final String[] mTargets;
+
+    private final AtomicLongArray mCounters;
+
+    private volatile boolean mEnabled;
+
+    /**
+     * @param targets names of the URIs calls are recorded for, as they appear in snapshots
+     */
+    ContactProviderStats(String... targets) {
+        mTargets = targets;
+        mCounters = new AtomicLongArray(Operation.values().length * targets.length * SLOT_SIZE);
+    }
+
+    void setEnabled(boolean enabled) {
+        mEnabled = enabled;
+    }
+
+    /**
+     * Returns the start time of a call to pass to {@link #end}, or {@link #NOT_RECORDING} when
+     * recording is off.
+     */
+    long begin() {
+        return mEnabled ? System.nanoTime() : NOT_RECORDING;
+    }
+
+    /**
+     * Record a call that started at {@code startTime} and returned the given number of rows.
+     * A negative row count records a call that threw.
+     */
+    void end(Operation operation, int target, long startTime, int rows) {
+        if (startTime == NOT_RECORDING) {
+            return;
+        }
+        long nanos = System.nanoTime() - startTime;
+        int slot = (operation.ordinal() * mTargets.length + target) * SLOT_SIZE;
+
+        if (rows < 0) {
+            mCounters.incrementAndGet(slot + ERRORS);
+        } else {
+            mCounters.incrementAndGet(slot + CALLS);
+            mCounters.addAndGet(slot + ROWS, rows);
+        }
+        mCounters.addAndGet(slot + TOTAL_NANOS, nanos);
+        mCounters.incrementAndGet(slot + HISTOGRAM + bucketOf(nanos));
+
+        long max = mCounters.get(slot + MAX_NANOS);
+        while (nanos > max && !mCounters.compareAndSet(slot + MAX_NANOS, max, nanos)) {
+            max = mCounters.get(slot + MAX_NANOS);
+        }
+    }
+
+    /**
+     * Clear every counter. Calls in flight may still land partly before and partly after.
+     */
+    void reset() {
+        for (int i = 0; i < mCounters.length(); i++) {
+            mCounters.set(i, 0);
+        }
+    }
+
+    /**
+     * Returns a Bundle per operation and URI that has been called, keyed "operation/uri", with
+     * the PROVIDER_STATS_* keys of {@link ContactContract}.
+     */
+    Bundle getSnapshot() {
+        Bundle snapshot = new Bundle();
+        for (Operation operation : Operation.values()) {
+            for (int target = 0; target < mTargets.length; target++) {
+                int slot = (operation.ordinal() * mTargets.length + target) * SLOT_SIZE;
+                long calls = mCounters.get(slot + CALLS);
+                long errors = mCounters.get(slot + ERRORS);
+                if (calls == 0 && errors == 0) {
+                    continue;
+                }
+
+                long[] histogram = new long[HISTOGRAM_BUCKETS];
+                for (int i = 0; i < HISTOGRAM_BUCKETS; i++) {
+                    histogram[i] = mCounters.get(slot + HISTOGRAM + i);
+                }
+
+                Bundle stats = new Bundle();
+                stats.putLong(ContactContract.PROVIDER_STATS_CALLS, calls);
+                stats.putLong(ContactContract.PROVIDER_STATS_ERRORS, errors);
+                stats.putLong(ContactContract.PROVIDER_STATS_ROWS, mCounters.get(slot + ROWS));
+                stats.putLong(ContactContract.PROVIDER_STATS_TOTAL_MICROS, mCounters.get(slot + TOTAL_NANOS) / 1000);
+                stats.putLong(ContactContract.PROVIDER_STATS_MAX_MICROS, mCounters.get(slot + MAX_NANOS) / 1000);
+                stats.putLongArray(ContactContract.PROVIDER_STATS_HISTOGRAM, histogram);
+                snapshot.putBundle(keyOf(operation, target), stats);
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * Write a line per operation and URI that has been called, with its counters and the
+     * approximate median, 90th and 99th percentile latencies.
+     */
+    void dump(PrintWriter writer) {
+        writer.println("Provider stats (recording " + (mEnabled ? "on" : "off") + "):");
+        Bundle snapshot = getSnapshot();
+        for (String key : snapshot.keySet()) {
+            Bundle stats = snapshot.getBundle(key);
+            long calls = stats.getLong(ContactContract.PROVIDER_STATS_CALLS);
+            long errors = stats.getLong(ContactContract.PROVIDER_STATS_ERRORS);
+            long[] histogram = stats.getLongArray(ContactContract.PROVIDER_STATS_HISTOGRAM);
+            writer.println("  " + key
+                    + " calls=" + calls
+                    + " errors=" + errors
+                    + " rows=" + stats.getLong(ContactContract.PROVIDER_STATS_ROWS)
+                    + " avg=" + stats.getLong(ContactContract.PROVIDER_STATS_TOTAL_MICROS) / (calls + errors) + "us"
+                    + " p50<" + percentile(histogram, 0.50) + "us"
+                    + " p90<" + percentile(histogram, 0.90) + "us"
+                    + " p99<" + percentile(histogram, 0.99) + "us"
+                    + " max=" + stats.getLong(ContactContract.PROVIDER_STATS_MAX_MICROS) + "us");
+        }
+    }
+
+    private String keyOf(Operation operation, int target) {
+        return operation.name().toLowerCase(Locale.US) + "/" + mTargets[target];
+    }
+
+    /**
+     * Returns the histogram bucket of a call that took the given time.
+     */
+    private static int bucketOf(long nanos) {
+        long micros = nanos / 1000;
+        if (micros <= 1) {
+            return 0;
+        }
+        return Math.min(63 - Long.numberOfLeadingZeros(micros), HISTOGRAM_BUCKETS - 1);
+    }
+
+    /**
+     * Returns the upper bound, in microseconds, of the bucket holding the given fraction of the
+     * calls in the histogram.
+     */
+    private static long percentile(long[] histogram, double fraction) {
+        long total = 0;
+        for (long count : histogram) {
+            total += count;
+        }
+        long rank = (long) Math.ceil(total * fraction);
+        long seen = 0;
+        for (int i = 0; i < histogram.length; i++) {
+            seen += histogram[i];
+            if (seen >= rank) {
+                return 1L << (i + 1);
+            }
+        }
+        return 1L << histogram.length;
+    }
+}
@@ -0,0 +1,248 @@
+package com.wampinfotech.contacts.data;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import com.wampinfotech.contacts.data.ContactContract.ContactEntry;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Removes the rows of deleted contacts in the background.
+ * <p>
+ * {@link ContactProvider} deletes contacts by flagging them through
+ * {@link ContactEntry#COLUMN_DELETED}, which is quick even for the whole table. The purger
+ * then removes the flagged rows a chunk at a time, each chunk in its own short transaction, so
+ * other writers never wait long for the write lock. The change log is pruned the same way: a
+ * change superseded by a later change of the same contact is never read, so it's dropped, and
+ * changes older than {@link #CHANGE_RETENTION_SECONDS} are dropped behind the horizon in
+ * {@link ContactEntry#CHANGES_HORIZON_TABLE_NAME}. Once the rows are gone, the freed pages are
+ * handed back to the file system through incremental vacuum, again a few at a time.
+ * <p>
+ * Databases created before the purger have auto_vacuum turned off and can't free pages in
+ * steps. The routine purge leaves them as they are, and SQLite reuses their free pages for
+ * later rows; they are only rebuilt with incremental vacuum by {@link #compact()}, which the
+ * app calls through {@link ContactContract#METHOD_COMPACT_DATABASE} at a time it chooses.
+ */
+final class ContactPurger {
+
+    /**
+     * Tag for the log messages
+     */
+    private static final String LOG_TAG = ContactPurger.class.getSimpleName();
+
+    /**
+     * Value of SQLite's auto_vacuum setting that frees pages only when asked to
+     */
+    static final int AUTO_VACUUM_INCREMENTAL = 2;
+
+    /**
+     * Value of SQLite's auto_vacuum setting that never frees pages
+     */
+    private static final int AUTO_VACUUM_NONE = 0;
+
+    /**
+     * Time between a delete and the purge, so a burst of deletes is purged at once
+     */
+    private static final long PURGE_DELAY_MILLIS = 5000;
+
+    /**
+     * Number of rows removed per transaction
+     */
+    private static final int PURGE_CHUNK_SIZE = 500;
+
+    /**
+     * How long changes are kept in the change log: long enough for a nightly or weekly sync
+     * to miss a few runs
+     */
+    private static final long CHANGE_RETENTION_SECONDS = TimeUnit.DAYS.toSeconds(30);
+
+    /**
+     * Number of free pages handed back to the file system per transaction
+     */
+    private static final int VACUUM_CHUNK_PAGES = 256;
+
+    private final ContactDbHelper mDbHelper;
+
+    /**
+     * Runs the purges, one at a time
+     */
+    private final ScheduledExecutorService mExecutor = Executors.newSingleThreadScheduledExecutor();
+
+    /**
+     * Whether a purge is scheduled that hasn't started yet, guarded by {@code this}
+     */
+    private boolean mScheduled;
+
+    ContactPurger(ContactDbHelper dbHelper) {
+        mDbHelper = dbHelper;
+    }
+
+    /**
+     * Purge the deleted contacts after a short delay, unless a purge is already waiting to
+     * start. Deletes made while a purge runs schedule another one.
+     */
+    synchronized void schedule() {
+        if (mScheduled) {
+            return;
+        }
+        mScheduled = true;
+        mExecutor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (ContactPurger.this) {
+                    mScheduled = false;
+                }
+                try {
+                    purge(mDbHelper.getWritableDatabase());
+                } catch (SQLException e) {
+                    // The rows stay flagged, and the next purge picks them up
+                    Log.e(LOG_TAG, "Failed to purge deleted contacts", e);
+                }
+            }
+        }, PURGE_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Rebuild the database with incremental vacuum turned on if it can't free pages in steps,
+     * which also frees every page. The rebuild copies the whole database and holds the write
+     * lock until it's done. Returns the number of databases rebuilt, 1 or 0.
+     */
+    int compact() {
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        if (DatabaseUtils.longForQuery(database, "PRAGMA auto_vacuum", null) != AUTO_VACUUM_NONE) {
+            return 0;
+        }
+        database.execSQL("PRAGMA auto_vacuum=" + AUTO_VACUUM_INCREMENTAL);
+        database.execSQL("VACUUM");
+        return 1;
+    }
+
+    /**
+     * Remove every flagged row and prune the change log, then vacuum the pages they took up.
+     */
+    private static void purge(SQLiteDatabase database) {
+        int purged = purgeDeletedContacts(database) + pruneChanges(database);
+        if (purged != 0) {
+            vacuum(database);
+        }
+    }
+
+    /**
+     * Remove every row flagged as deleted. Returns the number of rows removed.
+     */
+    private static int purgeDeletedContacts(SQLiteDatabase database) {
+        SQLiteStatement purge = database.compileStatement("DELETE FROM " + ContactEntry.TABLE_NAME
+                + " WHERE " + ContactEntry._ID + " IN (SELECT " + ContactEntry._ID + " FROM "
+                + ContactEntry.TABLE_NAME + " WHERE " + ContactEntry.COLUMN_DELETED + "=1 LIMIT "
+                + PURGE_CHUNK_SIZE + ")");
+        int purged = 0;
+        try {
+            int rowsDeleted;
+            do {
+                database.beginTransactionNonExclusive();
+                try {
+                    rowsDeleted = purge.executeUpdateDelete();
+                    database.setTransactionSuccessful();
+                } finally {
+                    database.endTransaction();
+                }
+                purged += rowsDeleted;
+            } while (rowsDeleted == PURGE_CHUNK_SIZE);
+        } finally {
+            purge.close();
+        }
+        return purged;
+    }
+
+    /**
+     * Drop the superseded and the expired changes from the change log. Returns the number of
+     * changes dropped.
+     */
+    private static int pruneChanges(SQLiteDatabase database) {
+        String changes = ContactEntry.CHANGES_TABLE_NAME;
+        String sequence = ContactEntry.COLUMN_CHANGE_SEQUENCE;
+        String contactId = ContactEntry.COLUMN_CHANGE_CONTACT_ID;
+        long first = DatabaseUtils.longForQuery(database, "SELECT IFNULL(MIN(" + sequence + "), 0) FROM " + changes, null);
+        long last = DatabaseUtils.longForQuery(database, "SELECT IFNULL(MAX(" + sequence + "), 0) FROM " + changes, null);
+        if (last == 0) {
+            return 0;
+        }
+
+        // Changes are logged in time order, so the expired ones are all before the first one
+        // that isn't. Move the horizon past them before they go, so no reader misses them.
+        long expiryTime = System.currentTimeMillis() / 1000 - CHANGE_RETENTION_SECONDS;
+        long lastExpired = DatabaseUtils.longForQuery(database, "SELECT IFNULL((SELECT " + sequence + " FROM "
+                + changes + " WHERE " + ContactEntry.COLUMN_CHANGE_TIME + ">=? ORDER BY " + sequence
+                + " LIMIT 1), ?) - 1", new String[]{String.valueOf(expiryTime), String.valueOf(last + 1)});
+        int pruned = 0;
+        if (lastExpired >= first) {
+            database.execSQL("UPDATE " + ContactEntry.CHANGES_HORIZON_TABLE_NAME + " SET " + sequence + "=max("
+                    + sequence + ", ?)", new Object[]{lastExpired});
+            pruned += deleteChanges(database, "DELETE FROM " + changes + " WHERE " + sequence + ">? AND "
+                    + sequence + "<=?", first - 1, lastExpired);
+            first = lastExpired + 1;
+        }
+
+        // Then drop the changes that a later change of the same contact supersedes, found
+        // through the index by contact, which ends with the sequence
+        pruned += deleteChanges(database, "DELETE FROM " + changes + " WHERE " + sequence + ">? AND "
+                + sequence + "<=? AND EXISTS (SELECT 1 FROM " + changes + " AS later WHERE later." + contactId
+                + "=" + changes + "." + contactId + " AND later." + sequence + ">" + changes + "." + sequence + ")",
+                first - 1, last);
+        return pruned;
+    }
+
+    /**
+     * Run the given DELETE, whose two arguments bound a range of sequence numbers, over the
+     * range from {@code after} to {@code upTo}, one chunk of sequence numbers per transaction.
+     * Returns the number of changes deleted.
+     */
+    private static int deleteChanges(SQLiteDatabase database, String sql, long after, long upTo) {
+        SQLiteStatement delete = database.compileStatement(sql);
+        int deleted = 0;
+        try {
+            for (long from = after; from < upTo; from += PURGE_CHUNK_SIZE) {
+                database.beginTransactionNonExclusive();
+                try {
+                    delete.bindLong(1, from);
+                    delete.bindLong(2, Math.min(from + PURGE_CHUNK_SIZE, upTo));
+                    deleted += delete.executeUpdateDelete();
+                    database.setTransactionSuccessful();
+                } finally {
+                    database.endTransaction();
+                }
+            }
+        } finally {
+            delete.close();
+        }
+        return deleted;
+    }
+
+    /**
+     * Hand the free pages of the database back to the file system, if it frees pages in steps.
+     */
+    private static void vacuum(SQLiteDatabase database) {
+        if (DatabaseUtils.longForQuery(database, "PRAGMA auto_vacuum", null) != AUTO_VACUUM_INCREMENTAL) {
+            // Until compact() rebuilds it, the free pages stay in the file for later rows
+            return;
+        }
+
+        // Every incremental_vacuum statement is its own transaction
+        while (DatabaseUtils.longForQuery(database, "PRAGMA freelist_count", null) > 0) {
+            Cursor cursor = database.rawQuery("PRAGMA incremental_vacuum(" + VACUUM_CHUNK_PAGES + ")", null);
+            try {
+                // Stepping the statement to the end frees the pages
+                cursor.moveToFirst();
+            } finally {
+                cursor.close();
+            }
+        }
+    }
+}
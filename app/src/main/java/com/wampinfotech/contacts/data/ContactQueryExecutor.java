@@ -0,0 +1,97 @@
+package com.wampinfotech.contacts.data;
+
+import android.database.Cursor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs several queries at once on a fixed pool of threads, for the queries
+ * {@link ContactProvider} fans out: one per segment of the _IDs for
+ * {@link ContactContract.ContactEntry#QUERY_PARAMETER_PARALLEL}.
+ * <p>
+ * Every query runs on a thread of the pool and fills the window of its cursor there, so the
+ * rows of all of them are read in parallel. Queries on the same database read in parallel as
+ * long as it has write-ahead logging on, which gives it a pool of read connections.
+ */
+final class ContactQueryExecutor {
+
+    private final ExecutorService mExecutor;
+
+    /**
+     * Constructs an executor with the given number of threads, which is the number of queries
+     * that run at once.
+     */
+    ContactQueryExecutor(int threadCount) {
+        mExecutor = Executors.newFixedThreadPool(threadCount);
+    }
+
+    /**
+     * Run the given queries at once and return their cursors in the same order, with their
+     * first window already filled. If any query fails, the cursors of the others are closed and
+     * the failure is thrown.
+     */
+    Cursor[] queryAll(List<? extends Callable<Cursor>> queries) {
+        ArrayList<Future<Cursor>> results = new ArrayList<>(queries.size());
+        for (final Callable<Cursor> query : queries) {
+            results.add(mExecutor.submit(new Callable<Cursor>() {
+                @Override
+                public Cursor call() throws Exception {
+                    Cursor cursor = query.call();
+                    // Counting the rows fills the window on this thread, in parallel with the
+                    // other queries
+                    cursor.getCount();
+                    return cursor;
+                }
+            }));
+        }
+
+        Cursor[] cursors = new Cursor[results.size()];
+        RuntimeException failure = null;
+        for (int i = 0; i < cursors.length; i++) {
+            try {
+                cursors[i] = getUninterruptibly(results.get(i));
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = e.getCause() instanceof RuntimeException
+                            ? (RuntimeException) e.getCause() : new RuntimeException(e.getCause());
+                }
+            }
+        }
+        if (failure != null) {
+            for (Cursor cursor : cursors) {
+                if (cursor != null) {
+                    cursor.close();
+                }
+            }
+            throw failure;
+        }
+        return cursors;
+    }
+
+    /**
+     * Wait for the result of the given future, even if the calling thread is interrupted, which
+     * is then interrupted again once the result is in.
+     */
+    private static Cursor getUninterruptibly(Future<Cursor> future) throws ExecutionException {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return future.get();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package com.wampinfotech.contacts.data;
+
+import android.content.ContentValues;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Reads contacts one at a time from a stream, for {@link ContactImporter}.
+ */
+interface ContactReader extends Closeable {
+
+    /**
+     * Returns the values of the next contact, or null at the end of the stream. The values are
+     * not validated; that's up to the caller.
+     */
+    ContentValues read() throws IOException;
+}
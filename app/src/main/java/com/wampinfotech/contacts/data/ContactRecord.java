@@ -0,0 +1,108 @@
+package com.wampinfotech.contacts.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+
+import com.wampinfotech.contacts.data.ContactContract.ContactEntry;
+
+/**
+ * Immutable copy of one row of the contacts table, as kept by {@link ContactCache}.
+ */
+final class ContactRecord {
+
+    /**
+     * All columns of the contacts table, in the order they are read by {@link #fromCursor(Cursor)}
+     */
+    static final String[] COLUMNS = {
+            ContactEntry._ID,
+            ContactEntry.COLUMN_CONTACT_NAME,
+            ContactEntry.COLUMN_CONTACT_EMAIL,
+            ContactEntry.COLUMN_CONTACT_GENDER,
+            ContactEntry.COLUMN_CONTACT_NUMBER
+    };
+
+    final long id;
+    final String name;
+    final String email;
+    final int gender;
+    final String number;
+
+    private ContactRecord(long id, String name, String email, int gender, String number) {
+        this.id = id;
+        this.name = name;
+        this.email = email;
+        this.gender = gender;
+        this.number = number;
+    }
+
+    /**
+     * Read the record at the current position of a cursor over {@link #COLUMNS}.
+     */
+    static ContactRecord fromCursor(Cursor cursor) {
+        return new ContactRecord(cursor.getLong(0), cursor.getString(1), cursor.getString(2),
+                cursor.getInt(3), cursor.getString(4));
+    }
+
+    /**
+     * Returns whether every column of the given projection is a column of the record. A null
+     * projection means all columns.
+     */
+    static boolean canProject(String[] projection) {
+        if (projection == null) {
+            return true;
+        }
+        for (String column : projection) {
+            if (indexOf(column) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns a single-row cursor with the given columns of the record. The projection must
+     * pass {@link #canProject(String[])}.
+     */
+    Cursor toCursor(String[] projection) {
+        if (projection == null) {
+            projection = COLUMNS;
+        }
+
+        Object[] row = new Object[projection.length];
+        for (int i = 0; i < projection.length; i++) {
+            switch (indexOf(projection[i])) {
+                case 0:
+                    row[i] = id;
+                    break;
+                case 1:
+                    row[i] = name;
+                    break;
+                case 2:
+                    row[i] = email;
+                    break;
+                case 3:
+                    row[i] = gender;
+                    break;
+                default:
+                    row[i] = number;
+                    break;
+            }
+        }
+
+        MatrixCursor cursor = new MatrixCursor(projection, 1);
+        cursor.addRow(row);
+        return cursor;
+    }
+
+    /**
+     * Returns the index of the given column in {@link #COLUMNS}, or -1 if it isn't one of them.
+     */
+    private static int indexOf(String column) {
+        for (int i = 0; i < COLUMNS.length; i++) {
+            if (COLUMNS[i].equals(column)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
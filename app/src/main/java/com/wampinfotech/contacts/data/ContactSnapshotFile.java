@@ -0,0 +1,81 @@
+package com.wampinfotech.contacts.data;
+
+import android.content.Context;
+
+import java.io.File;
+
+/**
+ * The file the catalog keeps a snapshot of its first screen in, so the next launch can show it
+ * before the database is open, and the rules that keep the snapshot from going stale.
+ * <p>
+ * {@link ContactProvider} deletes the file whenever it notifies a change of the contacts, so no
+ * snapshot outlives a write. A load that started before a write may only finish after it,
+ * though, so a new snapshot is written to a temporary file and put in place through
+ * {@link #commit(File, File, long)}, which drops it if the provider has written since the load
+ * started. The provider isn't exported and runs in the app's process, so every write goes
+ * through this class's counter.
+ */
+public final class ContactSnapshotFile {
+
+    /**
+     * Name of the file in the cache directory
+     */
+    private static final String FILE_NAME = "catalog_snapshot";
+
+    /**
+     * Guards {@link #sWriteCount} and the renames and deletes of the file
+     */
+    private static final Object sLock = new Object();
+
+    /**
+     * Number of writes that invalidated the snapshot since the process started
+     */
+    private static long sWriteCount;
+
+    private ContactSnapshotFile() {
+    }
+
+    /**
+     * Returns the snapshot file.
+     */
+    public static File get(Context context) {
+        return new File(context.getCacheDir(), FILE_NAME);
+    }
+
+    /**
+     * Returns the number of writes so far, to be passed to {@link #commit(File, File, long)}.
+     * Read it before the load that the snapshot will be taken from.
+     */
+    public static long getWriteCount() {
+        synchronized (sLock) {
+            return sWriteCount;
+        }
+    }
+
+    /**
+     * Replace the snapshot file with the given temporary file, unless the contacts have been
+     * written since the given write count was read, in which case the temporary file is deleted.
+     * Returns whether the snapshot was put in place.
+     */
+    public static boolean commit(File temporaryFile, File file, long writeCount) {
+        synchronized (sLock) {
+            if (writeCount != sWriteCount) {
+                temporaryFile.delete();
+                return false;
+            }
+            return temporaryFile.renameTo(file);
+        }
+    }
+
+    /**
+     * Delete the snapshot, after a write has changed the contacts. Only called once the write
+     * has committed, so a load that reads the write count after this sees the write.
+     */
+    static void invalidate(File file) {
+        synchronized (sLock) {
+            sWriteCount++;
+            // Deleting a file that's already gone is a cheap failed system call
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package com.wampinfotech.contacts.data;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.wampinfotech.contacts.data.ContactContract.ContactEntry;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+
+/**
+ * Pool of compiled statements for the writes {@link ContactProvider} makes most often, so they
+ * don't build and compile their SQL on every call.
+ * <p>
+ * A compiled statement holds its bound arguments, so it can only serve one thread at a time:
+ * callers {@link #acquire} a statement, bind and execute it, then {@link #release} it. A few
+ * idle statements of every shape are kept for the next caller.
+ */
+final class ContactStatementPool {
+
+    /**
+     * The statements in the pool, with their SQL
+     */
+    enum Shape {
+        /**
+         * Insert of a full contact row. The bind order is name, email, gender, mobile,
+         * mobile key.
+         */
+        INSERT("INSERT INTO " + ContactEntry.TABLE_NAME + " ("
+                + ContactEntry.COLUMN_CONTACT_NAME + ", "
+                + ContactEntry.COLUMN_CONTACT_EMAIL + ", "
+                + ContactEntry.COLUMN_CONTACT_GENDER + ", "
+                + ContactEntry.COLUMN_CONTACT_NUMBER + ", "
+                + ContactEntry.COLUMN_CONTACT_NUMBER_KEY + ") VALUES (?, ?, ?, ?, ?)"),
+
+        /**
+         * Update of every column of one contact. The bind order is the one of {@link #INSERT},
+         * followed by the _ID.
+         */
+        UPDATE_BY_ID("UPDATE " + ContactEntry.TABLE_NAME + " SET "
+                + ContactEntry.COLUMN_CONTACT_NAME + "=?, "
+                + ContactEntry.COLUMN_CONTACT_EMAIL + "=?, "
+                + ContactEntry.COLUMN_CONTACT_GENDER + "=?, "
+                + ContactEntry.COLUMN_CONTACT_NUMBER + "=?, "
+                + ContactEntry.COLUMN_CONTACT_NUMBER_KEY + "=? WHERE "
+                + ContactEntry._ID + "=? AND " + ContactProvider.SELECTION_LIVE),
+
+        /**
+         * Delete of one contact by _ID. The row is only flagged as deleted, for
+         * {@link ContactPurger} to remove.
+         */
+        DELETE_BY_ID("UPDATE " + ContactEntry.TABLE_NAME + " SET " + ContactEntry.COLUMN_DELETED + "=1 WHERE "
+                + ContactEntry._ID + "=? AND " + ContactProvider.SELECTION_LIVE);
+
+        final String sql;
+
+        Shape(String sql) {
+            this.sql = sql;
+        }
+    }
+
+    /**
+     * Largest number of idle statements kept per shape, about the number of binder threads
+     * that write at the same time
+     */
+    private static final int MAX_IDLE_STATEMENTS = 4;
+
+    private final SQLiteDatabase mDatabase;
+
+    /**
+     * Idle statements by {@link Shape#ordinal()}, each queue guarded by itself
+     */
+    private final ArrayList<ArrayDeque<SQLiteStatement>> mIdleStatements = new ArrayList<>();
+
+    ContactStatementPool(SQLiteDatabase database) {
+        mDatabase = database;
+        for (int i = 0; i < Shape.values().length; i++) {
+            mIdleStatements.add(new ArrayDeque<SQLiteStatement>(MAX_IDLE_STATEMENTS));
+        }
+    }
+
+    /**
+     * Returns whether the pool compiles its statements for the given database.
+     */
+    boolean isFor(SQLiteDatabase database) {
+        return mDatabase == database;
+    }
+
+    /**
+     * Returns an idle statement of the given shape, or compiles a new one. The statement has no
+     * bound arguments and must be handed back through {@link #release}.
+     */
+    SQLiteStatement acquire(Shape shape) {
+        ArrayDeque<SQLiteStatement> idle = mIdleStatements.get(shape.ordinal());
+        SQLiteStatement statement;
+        synchronized (idle) {
+            statement = idle.pollFirst();
+        }
+        return statement != null ? statement : mDatabase.compileStatement(shape.sql);
+    }
+
+    /**
+     * Hand back a statement of the given shape once it has executed.
+     */
+    void release(Shape shape, SQLiteStatement statement) {
+        statement.clearBindings();
+        ArrayDeque<SQLiteStatement> idle = mIdleStatements.get(shape.ordinal());
+        synchronized (idle) {
+            if (idle.size() < MAX_IDLE_STATEMENTS) {
+                idle.addFirst(statement);
+                return;
+            }
+        }
+        statement.close();
+    }
+}
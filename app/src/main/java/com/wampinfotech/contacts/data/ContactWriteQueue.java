@@ -0,0 +1,228 @@
+package com.wampinfotech.contacts.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.text.TextUtils;
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs writes to the contact provider on a background thread, so the UI never waits on the
+ * database, and reports each write back on the main thread.
+ * <p>
+ * Writes run one at a time, in the order they were queued, so the writes of one contact are
+ * never reordered. An update of a single contact that is queued while an earlier update of the
+ * same contact is still waiting is merged into it: the waiting update takes the new values and
+ * reports its result to the callback of the latest update that has one, so a screen saving the
+ * same contact twice hears back once. Updates are only merged when no other write to the
+ * contact, and no write to the whole table, was queued in between.
+ */
+public final class ContactWriteQueue {
+
+    /**
+     * Tag for the log messages
+     */
+    private static final String LOG_TAG = ContactWriteQueue.class.getSimpleName();
+
+    private static ContactWriteQueue sInstance;
+
+    /**
+     * Receives the result of a queued write.
+     */
+    public interface Callback {
+        /**
+         * Called on the main thread once the write has run. A write the provider rejected is
+         * reported like one that changed nothing. An update merged into by a later update of
+         * the same contact isn't reported; the later one is.
+         *
+         * @param uri   the new contact for an insert, null if it failed; the written URI otherwise
+         * @param count number of rows inserted, updated or deleted
+         */
+        void onWriteComplete(Uri uri, int count);
+    }
+
+    private final ContentResolver mResolver;
+
+    /**
+     * Runs the writes, one at a time in queue order
+     */
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Single-contact updates that are queued but haven't started, by contact URI, guarded by
+     * {@code this}. Only these can take in later updates.
+     */
+    private final HashMap<Uri, Write> mPendingUpdates = new HashMap<>();
+
+    private ContactWriteQueue(ContentResolver resolver) {
+        mResolver = resolver;
+    }
+
+    /**
+     * Returns the queue shared by the whole app.
+     */
+    public static synchronized ContactWriteQueue getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new ContactWriteQueue(context.getApplicationContext().getContentResolver());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Queue an insert of the given values.
+     *
+     * @param callback notified with the URI of the new contact, may be null
+     */
+    public void insert(Uri uri, ContentValues values, Callback callback) {
+        enqueue(new Write(Write.INSERT, uri, new ContentValues(values), null, null), callback);
+    }
+
+    /**
+     * Queue an update of the given URI with the given values.
+     *
+     * @param callback notified with the number of rows updated, may be null
+     */
+    public void update(Uri uri, ContentValues values, String selection, String[] selectionArgs,
+                       Callback callback) {
+        enqueue(new Write(Write.UPDATE, uri, new ContentValues(values), selection, selectionArgs), callback);
+    }
+
+    /**
+     * Queue a delete of the given URI.
+     *
+     * @param callback notified with the number of rows deleted, may be null
+     */
+    public void delete(Uri uri, String selection, String[] selectionArgs, Callback callback) {
+        enqueue(new Write(Write.DELETE, uri, null, selection, selectionArgs), callback);
+    }
+
+    private void enqueue(final Write write, Callback callback) {
+        synchronized (this) {
+            boolean singleContact = write.selection == null && isContactUri(write.uri);
+            if (write.type == Write.UPDATE && singleContact) {
+                Write pending = mPendingUpdates.get(write.uri);
+                if (pending != null) {
+                    // The earlier update hasn't started yet, so it can write the new values too,
+                    // and its result is now the result of this update
+                    pending.values.putAll(write.values);
+                    if (callback != null) {
+                        pending.callback = callback;
+                    }
+                    return;
+                }
+                mPendingUpdates.put(write.uri, write);
+            } else if (write.type == Write.DELETE && singleContact) {
+                // Later updates of the contact must not be merged into one queued before this
+                mPendingUpdates.remove(write.uri);
+            } else if (write.type != Write.INSERT) {
+                // This write may touch any contact, so nothing queued before it takes in later updates
+                mPendingUpdates.clear();
+            }
+            write.callback = callback;
+        }
+
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                runWrite(write);
+            }
+        });
+    }
+
+    /**
+     * Run the given write on the queue's thread and post its result to the main thread.
+     */
+    private void runWrite(final Write write) {
+        final Callback callback;
+        synchronized (this) {
+            // From here on the write takes in no more updates
+            if (mPendingUpdates.get(write.uri) == write) {
+                mPendingUpdates.remove(write.uri);
+            }
+            callback = write.callback;
+        }
+
+        Uri resultUri = write.uri;
+        int count = 0;
+        try {
+            switch (write.type) {
+                case Write.INSERT:
+                    resultUri = mResolver.insert(write.uri, write.values);
+                    count = resultUri == null ? 0 : 1;
+                    break;
+                case Write.UPDATE:
+                    count = mResolver.update(write.uri, write.values, write.selection, write.selectionArgs);
+                    break;
+                case Write.DELETE:
+                    count = mResolver.delete(write.uri, write.selection, write.selectionArgs);
+                    break;
+            }
+        } catch (IllegalArgumentException e) {
+            Log.e(LOG_TAG, "Failed to write " + write.uri, e);
+            if (write.type == Write.INSERT) {
+                resultUri = null;
+            }
+        }
+
+        if (callback == null) {
+            return;
+        }
+        final Uri finalUri = resultUri;
+        final int finalCount = count;
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                callback.onWriteComplete(finalUri, finalCount);
+            }
+        });
+    }
+
+    /**
+     * Returns whether the URI is the URI of a single contact, content://.../contacts/&lt;id&gt;
+     */
+    private static boolean isContactUri(Uri uri) {
+        List<String> segments = uri.getPathSegments();
+        return segments.size() == 2
+                && ContactContract.PATH_CONTACTS.equals(segments.get(0))
+                && TextUtils.isDigitsOnly(segments.get(1));
+    }
+
+    /**
+     * One queued write
+     */
+    private static final class Write {
+        static final int INSERT = 0;
+        static final int UPDATE = 1;
+        static final int DELETE = 2;
+
+        final int type;
+        final Uri uri;
+        final ContentValues values;
+        final String selection;
+        final String[] selectionArgs;
+
+        /**
+         * Callback of this write, or of the latest update merged into it, may be null; guarded
+         * by the queue until the write starts
+         */
+        Callback callback;
+
+        Write(int type, Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+            this.type = type;
+            this.uri = uri;
+            this.values = values;
+            this.selection = selection;
+            this.selectionArgs = selectionArgs;
+        }
+    }
+}
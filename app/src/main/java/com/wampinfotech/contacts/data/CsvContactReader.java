@@ -0,0 +1,142 @@
+package com.wampinfotech.contacts.data;
+
+import android.content.ContentValues;
+
+import com.wampinfotech.contacts.data.ContactContract.ContactEntry;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+
+/**
+ * Reads contacts from CSV with the columns name, email, gender and mobile, in that order. An
+ * optional first line naming those columns is skipped. Fields may be quoted the RFC 4180 way,
+ * including line breaks and doubled quotes inside quotes. Only one record is held in memory at
+ * a time.
+ */
+final class CsvContactReader implements ContactReader {
+
+    private final Reader mReader;
+
+    /**
+     * Fields of the record being read, reused from record to record
+     */
+    private final ArrayList<String> mFields = new ArrayList<>();
+
+    private final StringBuilder mField = new StringBuilder();
+
+    private boolean mFirstRecord = true;
+
+    /**
+     * Constructs a new {@link CsvContactReader}. The reader should be buffered.
+     */
+    CsvContactReader(Reader reader) {
+        mReader = reader;
+    }
+
+    @Override
+    public ContentValues read() throws IOException {
+        while (readRecord()) {
+            if (mFirstRecord) {
+                mFirstRecord = false;
+                if (isHeader()) {
+                    continue;
+                }
+            }
+            // Skip blank lines
+            if (mFields.size() == 1 && mFields.get(0).isEmpty()) {
+                continue;
+            }
+            return toValues();
+        }
+        return null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mReader.close();
+    }
+
+    /**
+     * Read the next record into {@link #mFields}. Returns false at the end of the stream.
+     */
+    private boolean readRecord() throws IOException {
+        mFields.clear();
+        mField.setLength(0);
+
+        int c = mReader.read();
+        if (c == -1) {
+            return false;
+        }
+
+        boolean quoted = false;
+        while (true) {
+            if (quoted) {
+                if (c == -1) {
+                    // Unterminated quote, take what there is
+                    break;
+                } else if (c == '"') {
+                    c = mReader.read();
+                    if (c == '"') {
+                        // A doubled quote inside quotes is a literal quote
+                        mField.append('"');
+                    } else {
+                        quoted = false;
+                        continue;
+                    }
+                } else {
+                    mField.append((char) c);
+                }
+            } else if (c == -1 || c == '\n') {
+                break;
+            } else if (c == '\r') {
+                // Part of a \r\n line break
+            } else if (c == ',') {
+                mFields.add(mField.toString());
+                mField.setLength(0);
+            } else if (c == '"' && mField.length() == 0) {
+                quoted = true;
+            } else {
+                mField.append((char) c);
+            }
+            c = mReader.read();
+        }
+
+        mFields.add(mField.toString());
+        return true;
+    }
+
+    /**
+     * Returns whether the current record is a header naming the columns.
+     */
+    private boolean isHeader() {
+        return mFields.size() > 0
+                && mFields.get(0).trim().equalsIgnoreCase(ContactEntry.COLUMN_CONTACT_NAME);
+    }
+
+    /**
+     * Convert the current record to contact values.
+     */
+    private ContentValues toValues() {
+        ContentValues values = new ContentValues(4);
+        values.put(ContactEntry.COLUMN_CONTACT_NAME, emptyToNull(field(0)));
+        values.put(ContactEntry.COLUMN_CONTACT_EMAIL, emptyToNull(field(1)));
+        Integer gender = ContactImporter.parseGender(field(2));
+        if (gender != null) {
+            values.put(ContactEntry.COLUMN_CONTACT_GENDER, gender);
+        }
+        values.put(ContactEntry.COLUMN_CONTACT_NUMBER, ContactImporter.normalizeNumber(field(3)));
+        return values;
+    }
+
+    /**
+     * Returns the trimmed field at the given index, or an empty string if the record is shorter.
+     */
+    private String field(int index) {
+        return index < mFields.size() ? mFields.get(index).trim() : "";
+    }
+
+    private static String emptyToNull(String value) {
+        return value.isEmpty() ? null : value;
+    }
+}
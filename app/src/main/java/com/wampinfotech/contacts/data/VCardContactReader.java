@@ -0,0 +1,160 @@
+package com.wampinfotech.contacts.data;
+
+import android.content.ContentValues;
+
+import com.wampinfotech.contacts.data.ContactContract.ContactEntry;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+
+/**
+ * Reads contacts from vCard 2.1, 3.0 or 4.0 files. The name comes from FN (or N when there is
+ * no FN), and the first EMAIL and TEL of every card are used, along with GENDER (vCard 4.0) or
+ * X-GENDER. Folded lines are unfolded as they are read, so only one card is held in memory at
+ * a time.
+ */
+final class VCardContactReader implements ContactReader {
+
+    private final BufferedReader mReader;
+
+    /**
+     * Line read ahead while looking for folded continuation lines
+     */
+    private String mNextLine;
+
+    private final StringBuilder mLine = new StringBuilder();
+
+    VCardContactReader(BufferedReader reader) {
+        mReader = reader;
+    }
+
+    @Override
+    public ContentValues read() throws IOException {
+        ContentValues values = null;
+        String structuredName = null;
+
+        String line;
+        while ((line = readUnfoldedLine()) != null) {
+            int colon = line.indexOf(':');
+            if (colon < 0) {
+                continue;
+            }
+
+            // Split "EMAIL;TYPE=work:value" into the property name and its value
+            String property = line.substring(0, colon);
+            int semicolon = property.indexOf(';');
+            String name = (semicolon < 0 ? property : property.substring(0, semicolon)).trim();
+            // Drop a group prefix such as "item1."
+            name = name.substring(name.lastIndexOf('.') + 1);
+            String value = line.substring(colon + 1);
+
+            if (name.equalsIgnoreCase("BEGIN") && value.trim().equalsIgnoreCase("VCARD")) {
+                values = new ContentValues(4);
+                structuredName = null;
+            } else if (values == null) {
+                // Outside of a card
+            } else if (name.equalsIgnoreCase("END") && value.trim().equalsIgnoreCase("VCARD")) {
+                if (!values.containsKey(ContactEntry.COLUMN_CONTACT_NAME) && structuredName != null) {
+                    values.put(ContactEntry.COLUMN_CONTACT_NAME, structuredName);
+                }
+                // Most cards don't state a gender
+                if (!values.containsKey(ContactEntry.COLUMN_CONTACT_GENDER)) {
+                    values.put(ContactEntry.COLUMN_CONTACT_GENDER, ContactEntry.GENDER.UNKNOWN.ordinal());
+                }
+                return values;
+            } else if (name.equalsIgnoreCase("FN")) {
+                putFirst(values, ContactEntry.COLUMN_CONTACT_NAME, unescape(value));
+            } else if (name.equalsIgnoreCase("N")) {
+                structuredName = formatStructuredName(value);
+            } else if (name.equalsIgnoreCase("EMAIL")) {
+                putFirst(values, ContactEntry.COLUMN_CONTACT_EMAIL, unescape(value));
+            } else if (name.equalsIgnoreCase("TEL")) {
+                // vCard 4.0 may give the number as a "tel:" URI
+                String number = unescape(value);
+                if (number.regionMatches(true, 0, "tel:", 0, 4)) {
+                    number = number.substring(4);
+                }
+                putFirst(values, ContactEntry.COLUMN_CONTACT_NUMBER, ContactImporter.normalizeNumber(number));
+            } else if (name.equalsIgnoreCase("GENDER") || name.equalsIgnoreCase("X-GENDER")) {
+                // The sex component comes before any ';'
+                String sex = unescape(value);
+                int separator = sex.indexOf(';');
+                Integer gender = ContactImporter.parseGender(separator < 0 ? sex : sex.substring(0, separator));
+                if (gender != null) {
+                    values.put(ContactEntry.COLUMN_CONTACT_GENDER, gender);
+                }
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mReader.close();
+    }
+
+    /**
+     * Read the next logical line, joining the continuation lines that start with a space or tab.
+     */
+    private String readUnfoldedLine() throws IOException {
+        String line = mNextLine != null ? mNextLine : mReader.readLine();
+        mNextLine = null;
+        if (line == null) {
+            return null;
+        }
+
+        mLine.setLength(0);
+        mLine.append(line);
+        while ((line = mReader.readLine()) != null) {
+            if (!line.isEmpty() && (line.charAt(0) == ' ' || line.charAt(0) == '\t')) {
+                mLine.append(line, 1, line.length());
+            } else {
+                mNextLine = line;
+                break;
+            }
+        }
+        return mLine.toString();
+    }
+
+    /**
+     * Put the value unless the key already has one or the value is empty.
+     */
+    private static void putFirst(ContentValues values, String key, String value) {
+        if (value != null && !value.isEmpty() && !values.containsKey(key)) {
+            values.put(key, value);
+        }
+    }
+
+    /**
+     * Turn "Family;Given;Additional;Prefix;Suffix" into "Given Family".
+     */
+    private static String formatStructuredName(String value) {
+        String[] parts = value.split(";", -1);
+        String family = parts.length > 0 ? unescape(parts[0]) : "";
+        String given = parts.length > 1 ? unescape(parts[1]) : "";
+        String name = (given + " " + family).trim();
+        return name.isEmpty() ? null : name;
+    }
+
+    /**
+     * Undo the backslash escaping of vCard text values.
+     */
+    private static String unescape(String value) {
+        value = value.trim();
+        if (value.indexOf('\\') < 0) {
+            return value;
+        }
+
+        StringBuilder unescaped = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' && i + 1 < value.length()) {
+                char escaped = value.charAt(++i);
+                unescaped.append(escaped == 'n' || escaped == 'N' ? '\n' : escaped);
+            } else {
+                unescaped.append(c);
+            }
+        }
+        return unescaped.toString();
+    }
+}
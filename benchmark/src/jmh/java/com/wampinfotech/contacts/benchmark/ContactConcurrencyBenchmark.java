@@ -0,0 +1,160 @@
+package com.wampinfotech.contacts.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads of the catalog while an import writes: three reader threads query pages by name on
+ * read connections of their own, while a writer thread inserts batches of 500 contacts, one
+ * transaction each, as ContactImporter does. The sample time of the readers gives the read
+ * latency percentiles under write load, with the rollback journal the app used before and
+ * with write-ahead logging.
+ * <p>
+ * The readers keep SQLite's default settings, as the read connections Android pools do. Their
+ * latencies only mean something next to each other on the same machine, and are best read on
+ * one with at least four cores, so the threads don't also wait for each other's CPU.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ContactConcurrencyBenchmark {
+
+    @Param({"DELETE", "WAL"})
+    public String journalMode;
+
+    @Param({"100000"})
+    public int rowCount;
+
+    /**
+     * Rows per transaction of ContactImporter.DEFAULT_BATCH_SIZE
+     */
+    private static final int IMPORT_BATCH_SIZE = 500;
+
+    /**
+     * Rows of a page of the catalog, as ContactPagingSource asks for
+     */
+    private static final int PAGE_SIZE = 50;
+
+    /**
+     * Result code of SQLite for a lock held by another connection
+     */
+    private static final int SQLITE_BUSY = 5;
+
+    private static final String[] NAME_PREFIXES = {"A", "D", "I", "K", "M", "N", "P", "R", "S", "T", "V", "Z"};
+
+    private ContactDatabase mDatabase;
+
+    private PreparedStatement mInsert;
+
+    /**
+     * Generated contact number of the next contact the writer inserts
+     */
+    private int mNextContact;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        mDatabase = ContactDatabase.create(rowCount);
+        try (Statement statement = mDatabase.connection.createStatement()) {
+            statement.execute("PRAGMA journal_mode=" + journalMode);
+            statement.execute("PRAGMA busy_timeout=" + ContactDatabase.BUSY_TIMEOUT_MILLIS);
+        }
+        mInsert = mDatabase.connection.prepareStatement(ContactDatabase.SQL_INSERT);
+        mNextContact = rowCount;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        mInsert.close();
+        mDatabase.close();
+    }
+
+    /**
+     * Read connection of one reader thread
+     */
+    @State(Scope.Thread)
+    public static class Reader {
+
+        private Connection mConnection;
+
+        private PreparedStatement mPage;
+
+        @Setup(Level.Trial)
+        public void setUp(ContactConcurrencyBenchmark benchmark) throws Exception {
+            mConnection = benchmark.mDatabase.connect();
+            mPage = mConnection.prepareStatement("SELECT _id, name, email, mobile FROM contacts "
+                    + "WHERE name >= ? COLLATE NOCASE AND deleted=0 ORDER BY name COLLATE NOCASE, _id LIMIT "
+                    + PAGE_SIZE);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws Exception {
+            mPage.close();
+            mConnection.close();
+        }
+    }
+
+    /**
+     * Read a page of the catalog. A read that gives up waiting for the writer's lock is tried
+     * again, as the catalog would reload it, and the wait counts towards its latency.
+     */
+    @Benchmark
+    @Group("importing")
+    @GroupThreads(3)
+    public void readPage(Reader reader, Blackhole blackhole) throws Exception {
+        reader.mPage.setString(1, NAME_PREFIXES[ThreadLocalRandom.current().nextInt(NAME_PREFIXES.length)]);
+        while (true) {
+            try (ResultSet rows = reader.mPage.executeQuery()) {
+                while (rows.next()) {
+                    blackhole.consume(rows.getLong(1));
+                    blackhole.consume(rows.getString(2));
+                    blackhole.consume(rows.getString(3));
+                    blackhole.consume(rows.getString(4));
+                }
+                return;
+            } catch (SQLException e) {
+                if (e.getErrorCode() != SQLITE_BUSY) {
+                    throw e;
+                }
+                blackhole.consume(e);
+            }
+        }
+    }
+
+    @Benchmark
+    @Group("importing")
+    @GroupThreads(1)
+    public int writeBatch() throws Exception {
+        Connection connection = mDatabase.connection;
+        connection.setAutoCommit(false);
+        try {
+            for (int i = 0; i < IMPORT_BATCH_SIZE; i++) {
+                mDatabase.bindContact(mInsert, mNextContact++);
+                mInsert.addBatch();
+            }
+            int rows = mInsert.executeBatch().length;
+            connection.commit();
+            return rows;
+        } finally {
+            connection.setAutoCommit(true);
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package com.wampinfotech.contacts.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * A contacts database for the benchmarks, with the schema and connection settings of the app.
+ * <p>
+ * The app's data layer runs on Android's SQLite classes, which don't exist on the JVM, so the
+ * statements below mirror the ones in ContactDbHelper and ContactProvider. Keep them in sync
+ * when the schema or the provider's SQL changes.
+ */
+final class ContactDatabase implements AutoCloseable {
+
+    /**
+     * Schema of ContactDbHelper at DATABASE_VERSION 8
+     */
+    private static final String[] SCHEMA = {
+            "CREATE TABLE contacts (_id INTEGER PRIMARY KEY AUTOINCREMENT, name TEXT NOT NULL, "
+                    + "email TEXT, gender INTEGER NOT NULL, mobile TEXT NOT NULL, mobile_key INTEGER, "
+                    + "deleted INTEGER NOT NULL DEFAULT 0)",
+            "CREATE INDEX contacts_name_index ON contacts (name COLLATE NOCASE)",
+            "CREATE INDEX contacts_email_index ON contacts (email)",
+            "CREATE INDEX contacts_mobile_index ON contacts (mobile)",
+            "CREATE INDEX contacts_mobile_key_index ON contacts (mobile_key)",
+            "CREATE INDEX contacts_deleted_index ON contacts (deleted)",
+            "CREATE VIRTUAL TABLE contacts_search USING fts4(name, email, mobile, prefix=\"2,3\")",
+            "CREATE TRIGGER contacts_search_insert AFTER INSERT ON contacts BEGIN "
+                    + "INSERT INTO contacts_search (docid, name, email, mobile) "
+                    + "VALUES (new._id, new.name, new.email, new.mobile); END",
+            "CREATE TRIGGER contacts_search_update AFTER UPDATE OF name, email, mobile ON contacts BEGIN "
+                    + "UPDATE contacts_search SET name=new.name, email=new.email, mobile=new.mobile "
+                    + "WHERE docid=old._id; END",
+            "CREATE TRIGGER contacts_search_delete AFTER DELETE ON contacts BEGIN "
+                    + "DELETE FROM contacts_search WHERE docid=old._id; END",
+            "CREATE TABLE contacts_changes (sequence INTEGER PRIMARY KEY AUTOINCREMENT, "
+                    + "contact_id INTEGER NOT NULL, operation INTEGER NOT NULL, time INTEGER NOT NULL)",
+            "CREATE INDEX contacts_changes_contact_index ON contacts_changes (contact_id)",
+            "CREATE TABLE contacts_changes_horizon (sequence INTEGER NOT NULL)",
+            "INSERT INTO contacts_changes_horizon (sequence) VALUES (0)",
+            "CREATE TRIGGER contacts_changes_insert AFTER INSERT ON contacts BEGIN "
+                    + "INSERT INTO contacts_changes (contact_id, operation, time) "
+                    + "VALUES (new._id, 0, CAST(strftime('%s', 'now') AS INTEGER)); END",
+            "CREATE TRIGGER contacts_changes_update AFTER UPDATE OF name, email, gender, mobile ON contacts "
+                    + "WHEN new.deleted=0 BEGIN INSERT INTO contacts_changes (contact_id, operation, time) "
+                    + "VALUES (new._id, 1, CAST(strftime('%s', 'now') AS INTEGER)); END",
+            "CREATE TRIGGER contacts_changes_delete AFTER UPDATE OF deleted ON contacts "
+                    + "WHEN new.deleted=1 AND old.deleted=0 BEGIN "
+                    + "INSERT INTO contacts_changes (contact_id, operation, time) "
+                    + "VALUES (new._id, 2, CAST(strftime('%s', 'now') AS INTEGER)); END",
+            "CREATE TABLE contact_groups (_id INTEGER PRIMARY KEY AUTOINCREMENT, title TEXT NOT NULL, "
+                    + "member_count INTEGER NOT NULL DEFAULT 0)",
+            "CREATE INDEX contact_groups_title_index ON contact_groups (title COLLATE NOCASE)",
+            "CREATE TABLE contact_group_members (group_id INTEGER NOT NULL, contact_id INTEGER NOT NULL)",
+            "CREATE UNIQUE INDEX contact_group_members_group_index ON contact_group_members (group_id, contact_id)",
+            "CREATE INDEX contact_group_members_contact_index ON contact_group_members (contact_id, group_id)",
+            "CREATE TRIGGER contact_group_members_insert AFTER INSERT ON contact_group_members BEGIN "
+                    + "UPDATE contact_groups SET member_count=member_count+1 WHERE _id=new.group_id; END",
+            "CREATE TRIGGER contact_group_members_delete AFTER DELETE ON contact_group_members "
+                    + "WHEN (SELECT deleted FROM contacts WHERE _id=old.contact_id)=0 BEGIN "
+                    + "UPDATE contact_groups SET member_count=member_count-1 WHERE _id=old.group_id; END",
+            "CREATE TRIGGER contact_groups_delete AFTER DELETE ON contact_groups BEGIN "
+                    + "DELETE FROM contact_group_members WHERE group_id=old._id; END",
+            "CREATE TRIGGER contact_groups_contact_delete AFTER UPDATE OF deleted ON contacts "
+                    + "WHEN new.deleted=1 AND old.deleted=0 BEGIN "
+                    + "UPDATE contact_groups SET member_count=member_count-1 WHERE _id IN "
+                    + "(SELECT group_id FROM contact_group_members WHERE contact_id=new._id); END",
+            "CREATE TRIGGER contact_groups_contact_purge AFTER DELETE ON contacts BEGIN "
+                    + "DELETE FROM contact_group_members WHERE contact_id=old._id; END"
+    };
+
+    /**
+     * Connection settings of ContactDbConfig.DEFAULT
+     */
+    private static final String[] PRAGMAS = {
+            "PRAGMA auto_vacuum=INCREMENTAL",
+            "PRAGMA journal_mode=WAL",
+            "PRAGMA synchronous=NORMAL",
+            "PRAGMA cache_size=-2048",
+            "PRAGMA mmap_size=0"
+    };
+
+    /**
+     * Time Android's SQLiteConnection waits for a lock held by another connection
+     */
+    static final int BUSY_TIMEOUT_MILLIS = 2500;
+
+    static final String SQL_INSERT = "INSERT INTO contacts (name, email, gender, mobile, mobile_key) "
+            + "VALUES (?, ?, ?, ?, ?)";
+
+    private static final String[] FIRST_NAMES = {
+            "Aarav", "Aditi", "Arjun", "Diya", "Ishaan", "Kavya", "Meera", "Nikhil", "Priya", "Rahul",
+            "Riya", "Rohan", "Sanya", "Tara", "Vihaan", "Zara"
+    };
+
+    private static final String[] LAST_NAMES = {
+            "Agarwal", "Bose", "Chopra", "Das", "Gupta", "Iyer", "Joshi", "Kapoor", "Khan", "Mehta",
+            "Nair", "Patel", "Rao", "Shah", "Singh", "Verma"
+    };
+
+    private final Path mFile;
+
+    final Connection connection;
+
+    private ContactDatabase(Path file, Connection connection) {
+        mFile = file;
+        this.connection = connection;
+    }
+
+    /**
+     * Create a database in a temporary file, filled with the given number of contacts.
+     */
+    static ContactDatabase create(int rowCount) throws IOException, SQLException {
+        Path file = Files.createTempFile("contacts", ".db");
+        Connection connection = DriverManager.getConnection("jdbc:sqlite:" + file);
+        try (Statement statement = connection.createStatement()) {
+            for (String pragma : PRAGMAS) {
+                statement.execute(pragma);
+            }
+            for (String sql : SCHEMA) {
+                statement.execute(sql);
+            }
+        }
+
+        ContactDatabase database = new ContactDatabase(file, connection);
+        connection.setAutoCommit(false);
+        try (PreparedStatement insert = connection.prepareStatement(SQL_INSERT)) {
+            for (int i = 0; i < rowCount; i++) {
+                database.bindContact(insert, i);
+                insert.addBatch();
+                if (i % 10_000 == 9_999) {
+                    insert.executeBatch();
+                }
+            }
+            insert.executeBatch();
+        }
+        connection.commit();
+        connection.setAutoCommit(true);
+
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("ANALYZE");
+        }
+        return database;
+    }
+
+    /**
+     * Bind the generated contact number {@code i} to a statement whose first five parameters
+     * are name, email, gender, mobile and mobile key.
+     */
+    void bindContact(PreparedStatement statement, int i) throws SQLException {
+        String first = FIRST_NAMES[i % FIRST_NAMES.length];
+        String last = LAST_NAMES[(i / FIRST_NAMES.length) % LAST_NAMES.length];
+        statement.setString(1, first + " " + last + " " + i);
+        statement.setString(2, first.toLowerCase() + "." + last.toLowerCase() + i + "@example.com");
+        statement.setInt(3, i % 3);
+        // Ten digit numbers are their own key
+        statement.setString(4, String.valueOf(numberOf(i)));
+        statement.setLong(5, numberOf(i));
+    }
+
+    /**
+     * Returns the mobile number of the generated contact number {@code i}.
+     */
+    static long numberOf(int i) {
+        return 9_000_000_000L + i;
+    }
+
+    /**
+     * Open another connection to the database, like one of the read connections Android pools
+     * for a database with write-ahead logging. The caller closes it.
+     * <p>
+     * ContactDbHelper's PRAGMAs only reach the primary connection, so the pooled ones keep
+     * SQLite's defaults, apart from the journal mode kept in the file. Like every connection
+     * Android opens, it waits up to 2.5 seconds for a lock held by another connection.
+     */
+    Connection connect() throws SQLException {
+        Connection connection = DriverManager.getConnection("jdbc:sqlite:" + mFile);
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("PRAGMA busy_timeout=" + BUSY_TIMEOUT_MILLIS);
+        }
+        return connection;
+    }
+
+    @Override
+    public void close() throws Exception {
+        connection.close();
+        Files.deleteIfExists(mFile);
+        Files.deleteIfExists(mFile.resolveSibling(mFile.getFileName() + "-wal"));
+        Files.deleteIfExists(mFile.resolveSibling(mFile.getFileName() + "-shm"));
+    }
+}
@@ -0,0 +1,396 @@
+package com.wampinfotech.contacts.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A full search of ContactDuplicateFinder over 500,000 contacts, a third of which are
+ * duplicates: every contact comes in a block of three sharing a number key, one with the name
+ * typed differently and one with a typo in it, and the first two also share an email. The
+ * pass over the number keys and the pass over the emails read the blocks in key order and
+ * match them on a pool with one thread per core, with ContactNameMatcher's normalisation and
+ * Jaro-Winkler similarity, as the finder does. A search takes seconds, so it is timed once per
+ * iteration.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ContactDuplicateBenchmark {
+
+    @Param({"500000"})
+    public int rowCount;
+
+    /**
+     * ContactDuplicateFinder.BATCH_SIZE
+     */
+    private static final int BATCH_SIZE = 512;
+
+    /**
+     * ContactDuplicateFinder.MAX_FUZZY_NAMES
+     */
+    private static final int MAX_FUZZY_NAMES = 256;
+
+    /**
+     * ContactNameMatcher.MIN_SIMILARITY
+     */
+    private static final double MIN_SIMILARITY = 0.92;
+
+    private static final String[] FIRST_NAMES = {
+            "Aarav", "Aditi", "Arjun", "Diya", "Ishaan", "Kavya", "Meera", "Nikhil", "Priya", "Rahul"
+    };
+
+    private static final String[] LAST_NAMES = {
+            "Agarwal", "Bose", "Chopra", "Das", "Gupta", "Iyer", "Joshi", "Kapoor", "Khan", "Mehta"
+    };
+
+    private ContactDatabase mDatabase;
+
+    private PreparedStatement mNumberBlocks;
+
+    private PreparedStatement mEmailBlocks;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        mDatabase = ContactDatabase.create(0);
+        mDatabase.connection.setAutoCommit(false);
+        try (PreparedStatement insert = mDatabase.connection.prepareStatement(ContactDatabase.SQL_INSERT)) {
+            for (int i = 0; i < rowCount; i++) {
+                int person = i / 3;
+                String first = FIRST_NAMES[person % FIRST_NAMES.length];
+                String last = LAST_NAMES[(person / FIRST_NAMES.length) % LAST_NAMES.length] + person;
+                String name;
+                if (i % 3 == 0) {
+                    name = first + " " + last;
+                } else if (i % 3 == 1) {
+                    name = last.toUpperCase() + ", " + first;
+                } else {
+                    // Drop a letter of the first name
+                    name = first.substring(0, 2) + first.substring(3) + " " + last;
+                }
+                long number = ContactDatabase.numberOf(person);
+                insert.setString(1, name);
+                insert.setString(2, i % 3 == 2 ? null : (i % 3 == 1 ? " " : "") + first.toLowerCase() + "."
+                        + last.toLowerCase() + "@example.com");
+                insert.setInt(3, 0);
+                insert.setString(4, String.valueOf(number));
+                insert.setLong(5, number);
+                insert.addBatch();
+                if (i % 10_000 == 9_999) {
+                    insert.executeBatch();
+                }
+            }
+            insert.executeBatch();
+        }
+        mDatabase.connection.commit();
+        mDatabase.connection.setAutoCommit(true);
+        try (Statement statement = mDatabase.connection.createStatement()) {
+            statement.execute("ANALYZE");
+        }
+
+        mNumberBlocks = mDatabase.connection.prepareStatement("SELECT _id, name, mobile_key FROM contacts "
+                + "WHERE mobile_key IS NOT NULL AND deleted=0 ORDER BY mobile_key, _id");
+        mEmailBlocks = mDatabase.connection.prepareStatement("SELECT _id, name, lower(trim(email)) FROM contacts "
+                + "WHERE trim(email)!='' AND deleted=0 ORDER BY lower(trim(email)), _id");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        mNumberBlocks.close();
+        mEmailBlocks.close();
+        mDatabase.close();
+    }
+
+    /**
+     * Run a full search. Returns the number of groups found.
+     */
+    @Benchmark
+    public int findDuplicates() throws Exception {
+        int threads = Runtime.getRuntime().availableProcessors();
+        ThreadPoolExecutor matchers = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(threads * 2), new ThreadPoolExecutor.CallerRunsPolicy());
+        AtomicInteger groupCount = new AtomicInteger();
+        ConcurrentHashMap<Long, Integer> numberGroups = new ConcurrentHashMap<>();
+        try {
+            scan(mNumberBlocks, true, matchers, groupCount, numberGroups);
+            scan(mEmailBlocks, false, matchers, groupCount, numberGroups);
+        } finally {
+            matchers.shutdownNow();
+        }
+        return groupCount.get();
+    }
+
+    /**
+     * ContactDuplicateFinder.scan(): read the blocks in key order and match them on the pool,
+     * a batch of blocks at a time, then wait for every batch.
+     */
+    private static void scan(PreparedStatement query, boolean byNumber, ThreadPoolExecutor matchers,
+                             AtomicInteger groupCount, ConcurrentHashMap<Long, Integer> numberGroups)
+            throws Exception {
+        List<Future<?>> results = new ArrayList<>();
+        try (ResultSet rows = query.executeQuery()) {
+            List<Block> batch = new ArrayList<>();
+            int batchSize = 0;
+            Block block = new Block();
+            String blockKey = null;
+            while (rows.next()) {
+                String key = rows.getString(3);
+                if (!key.equals(blockKey)) {
+                    if (block.size > 1) {
+                        batch.add(block);
+                        batchSize += block.size;
+                        block = new Block();
+                        if (batchSize >= BATCH_SIZE) {
+                            results.add(matchers.submit(matchTask(batch, byNumber, groupCount, numberGroups)));
+                            batch = new ArrayList<>();
+                            batchSize = 0;
+                        }
+                    } else {
+                        block.size = 0;
+                    }
+                    blockKey = key;
+                }
+                block.add(rows.getLong(1), rows.getString(2));
+            }
+            if (block.size > 1) {
+                batch.add(block);
+            }
+            if (!batch.isEmpty()) {
+                results.add(matchers.submit(matchTask(batch, byNumber, groupCount, numberGroups)));
+            }
+        }
+        for (Future<?> result : results) {
+            result.get();
+        }
+    }
+
+    private static Runnable matchTask(List<Block> batch, boolean byNumber, AtomicInteger groupCount,
+                                      ConcurrentHashMap<Long, Integer> numberGroups) {
+        return () -> {
+            for (Block block : batch) {
+                match(block, byNumber, groupCount, numberGroups);
+            }
+        };
+    }
+
+    /**
+     * ContactDuplicateFinder.MatchTask.match(): equal normalised names are grouped through a
+     * map, and the distinct ones are joined pairwise through a union-find.
+     */
+    private static void match(Block block, boolean byNumber, AtomicInteger groupCount,
+                              ConcurrentHashMap<Long, Integer> numberGroups) {
+        HashMap<String, Integer> nameIndexes = new HashMap<>();
+        ArrayList<String> names = new ArrayList<>();
+        int[] contactNames = new int[block.size];
+        for (int i = 0; i < block.size; i++) {
+            String name = normalise(block.names[i]);
+            Integer index = nameIndexes.get(name);
+            if (index == null) {
+                index = names.size();
+                nameIndexes.put(name, index);
+                names.add(name);
+            }
+            contactNames[i] = index;
+        }
+
+        int nameCount = names.size();
+        int[] parents = new int[nameCount];
+        for (int i = 0; i < nameCount; i++) {
+            parents[i] = i;
+        }
+        if (nameCount <= MAX_FUZZY_NAMES) {
+            for (int i = 0; i < nameCount; i++) {
+                for (int j = i + 1; j < nameCount; j++) {
+                    String first = names.get(i);
+                    String second = names.get(j);
+                    if (!first.isEmpty() && !second.isEmpty() && similarity(first, second) >= MIN_SIMILARITY) {
+                        parents[find(parents, j)] = find(parents, i);
+                    }
+                }
+            }
+        }
+
+        HashMap<Integer, long[]> members = new HashMap<>();
+        int[] memberCounts = new int[nameCount];
+        int[] filled = new int[nameCount];
+        for (int i = 0; i < block.size; i++) {
+            if (!names.get(contactNames[i]).isEmpty()) {
+                memberCounts[find(parents, contactNames[i])]++;
+            }
+        }
+        for (int i = 0; i < block.size; i++) {
+            int root = find(parents, contactNames[i]);
+            if (memberCounts[root] < 2 || names.get(contactNames[i]).isEmpty()) {
+                continue;
+            }
+            long[] ids = members.get(root);
+            if (ids == null) {
+                ids = new long[memberCounts[root]];
+                members.put(root, ids);
+            }
+            ids[filled[root]++] = block.ids[i];
+        }
+
+        for (long[] ids : members.values()) {
+            if (!byNumber && isNumberGroup(ids, numberGroups)) {
+                continue;
+            }
+            int group = groupCount.incrementAndGet();
+            if (byNumber) {
+                for (long id : ids) {
+                    numberGroups.put(id, group);
+                }
+            }
+        }
+    }
+
+    private static boolean isNumberGroup(long[] ids, ConcurrentHashMap<Long, Integer> numberGroups) {
+        Integer group = numberGroups.get(ids[0]);
+        if (group == null) {
+            return false;
+        }
+        for (int i = 1; i < ids.length; i++) {
+            if (!group.equals(numberGroups.get(ids[i]))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int find(int[] parents, int index) {
+        while (parents[index] != index) {
+            parents[index] = parents[parents[index]];
+            index = parents[index];
+        }
+        return index;
+    }
+
+    /**
+     * ContactNameMatcher.normalise()
+     */
+    private static String normalise(String name) {
+        if (name == null) {
+            return "";
+        }
+        String decomposed = Normalizer.normalize(name, Normalizer.Form.NFD);
+        ArrayList<String> words = new ArrayList<>();
+        StringBuilder word = new StringBuilder(decomposed.length());
+        for (int i = 0; i < decomposed.length(); i++) {
+            char c = decomposed.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                word.append(Character.toLowerCase(c));
+            } else if (Character.isWhitespace(c) && word.length() > 0) {
+                words.add(word.toString());
+                word.setLength(0);
+            }
+        }
+        if (word.length() > 0) {
+            words.add(word.toString());
+        }
+        if (words.size() == 1) {
+            return words.get(0);
+        }
+        Collections.sort(words);
+        word.setLength(0);
+        for (String w : words) {
+            if (word.length() > 0) {
+                word.append(' ');
+            }
+            word.append(w);
+        }
+        return word.toString();
+    }
+
+    /**
+     * ContactNameMatcher.similarity(): the Jaro-Winkler similarity of the given strings.
+     */
+    private static double similarity(String first, String second) {
+        int firstLength = first.length();
+        int secondLength = second.length();
+        int window = Math.max(0, Math.max(firstLength, secondLength) / 2 - 1);
+        boolean[] firstMatched = new boolean[firstLength];
+        boolean[] secondMatched = new boolean[secondLength];
+        int matches = 0;
+        for (int i = 0; i < firstLength; i++) {
+            int end = Math.min(i + window + 1, secondLength);
+            for (int j = Math.max(0, i - window); j < end; j++) {
+                if (!secondMatched[j] && first.charAt(i) == second.charAt(j)) {
+                    firstMatched[i] = true;
+                    secondMatched[j] = true;
+                    matches++;
+                    break;
+                }
+            }
+        }
+        if (matches == 0) {
+            return 0;
+        }
+
+        int outOfOrder = 0;
+        for (int i = 0, j = 0; i < firstLength; i++) {
+            if (!firstMatched[i]) {
+                continue;
+            }
+            while (!secondMatched[j]) {
+                j++;
+            }
+            if (first.charAt(i) != second.charAt(j)) {
+                outOfOrder++;
+            }
+            j++;
+        }
+
+        double m = matches;
+        double jaro = (m / firstLength + m / secondLength + (m - outOfOrder / 2.0) / m) / 3;
+        int prefix = 0;
+        int maxPrefix = Math.min(4, Math.min(firstLength, secondLength));
+        while (prefix < maxPrefix && first.charAt(prefix) == second.charAt(prefix)) {
+            prefix++;
+        }
+        return jaro + prefix * 0.1 * (1 - jaro);
+    }
+
+    /**
+     * Contacts that share a number key or an email, in ascending _ID order.
+     */
+    private static final class Block {
+        long[] ids = new long[4];
+
+        String[] names = new String[4];
+
+        int size;
+
+        void add(long id, String name) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+                names = Arrays.copyOf(names, size * 2);
+            }
+            ids[size] = id;
+            names[size] = name;
+            size++;
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package com.wampinfotech.contacts.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The export of ContactExporter: every contact of a 1,000,000-row table, read in chunks of
+ * 1000 by _ID, written as CSV through a reused 64 KiB buffer to a file channel. Each export
+ * takes seconds, so it is timed once per iteration; divide the rows and the bytes by the time
+ * for their rates.
+ * <p>
+ * The fork runs with a 32 MiB heap, far below what the rows or the file take, so the export
+ * only completes if it holds no more than a chunk at a time. Run it with {@code -prof gc} to see
+ * the allocation per export and the collections it took.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(jvmArgsAppend = "-Xmx32m")
+public class ContactExportBenchmark {
+
+    @Param({"1000000"})
+    public int rowCount;
+
+    /**
+     * ContactExporter.DEFAULT_CHUNK_SIZE
+     */
+    private static final int CHUNK_SIZE = 1000;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final String[] GENDERS = {"UNKNOWN", "MALE", "FEMALE"};
+
+    private ContactDatabase mDatabase;
+
+    private PreparedStatement mChunk;
+
+    /**
+     * The file being written
+     */
+    private Path mFile;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        mDatabase = ContactDatabase.create(rowCount);
+        // The chunk query of the provider for QUERY_PARAMETER_AFTER_ID and QUERY_PARAMETER_LIMIT
+        mChunk = mDatabase.connection.prepareStatement("SELECT _id, name, email, gender, mobile FROM contacts "
+                + "WHERE _id>? AND deleted=0 ORDER BY _id LIMIT " + CHUNK_SIZE);
+        mFile = Files.createTempFile("contacts", ".csv");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        mChunk.close();
+        mDatabase.close();
+        Files.deleteIfExists(mFile);
+    }
+
+    /**
+     * Export every contact. Returns the number of bytes written.
+     */
+    @Benchmark
+    public long exportCsv() throws Exception {
+        try (FileChannel channel = FileChannel.open(mFile, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            Output output = new Output(channel);
+            StringBuilder record = new StringBuilder(256);
+            output.write("name,email,gender,mobile\r\n");
+
+            long lastId = 0;
+            int rows;
+            do {
+                rows = 0;
+                mChunk.setLong(1, lastId);
+                try (ResultSet chunk = mChunk.executeQuery()) {
+                    while (chunk.next()) {
+                        rows++;
+                        lastId = chunk.getLong(1);
+                        record.setLength(0);
+                        appendCsvField(record, chunk.getString(2));
+                        record.append(',');
+                        appendCsvField(record, chunk.getString(3));
+                        record.append(',').append(GENDERS[chunk.getInt(4)]).append(',');
+                        appendCsvField(record, chunk.getString(5));
+                        record.append("\r\n");
+                        output.write(record);
+                    }
+                }
+            } while (rows == CHUNK_SIZE);
+            return output.flush();
+        }
+    }
+
+    /**
+     * ContactExporter.appendCsvField()
+     */
+    private static void appendCsvField(StringBuilder record, String value) {
+        if (value == null) {
+            return;
+        }
+        boolean quote = false;
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            record.append(value);
+            return;
+        }
+
+        record.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') {
+                record.append('"');
+            }
+            record.append(c);
+        }
+        record.append('"');
+    }
+
+    /**
+     * The Output of ContactExporter: UTF-8 encoded into a reused buffer, which is written to
+     * the channel whenever it fills up.
+     */
+    private static final class Output {
+
+        private final FileChannel mChannel;
+
+        private final CharsetEncoder mEncoder = StandardCharsets.UTF_8.newEncoder();
+
+        private final ByteBuffer mBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+        private long mBytesWritten;
+
+        Output(FileChannel channel) {
+            mChannel = channel;
+        }
+
+        void write(CharSequence text) throws IOException {
+            CharBuffer chars = CharBuffer.wrap(text);
+            while (true) {
+                CoderResult result = mEncoder.encode(chars, mBuffer, false);
+                if (result.isOverflow()) {
+                    drain();
+                } else if (result.isError()) {
+                    result.throwException();
+                } else {
+                    break;
+                }
+            }
+        }
+
+        /**
+         * Write what's left in the buffer. Returns the number of bytes written in all.
+         */
+        long flush() throws IOException {
+            mEncoder.encode(CharBuffer.allocate(0), mBuffer, true);
+            drain();
+            return mBytesWritten;
+        }
+
+        private void drain() throws IOException {
+            mBuffer.flip();
+            while (mBuffer.hasRemaining()) {
+                mBytesWritten += mChannel.write(mBuffer);
+            }
+            mBuffer.clear();
+        }
+    }
+}
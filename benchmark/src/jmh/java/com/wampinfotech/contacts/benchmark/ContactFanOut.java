@@ -0,0 +1,118 @@
+package com.wampinfotech.contacts.benchmark;
+
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * The fan-out queries of ContactProvider: the same query run on several connections at once,
+ * through ContactQueryExecutor, and the sorted results merged the way ContactMergeCursor
+ * merges them. The queries select _ID, name, email and the rank of the first sort term.
+ */
+final class ContactFanOut {
+
+    /**
+     * NOCASE order of the generated names, which are all ASCII, with the _ID breaking ties
+     */
+    static final Comparator<Row> BY_NAME = new Comparator<Row>() {
+        @Override
+        public int compare(Row first, Row second) {
+            int comparison = String.CASE_INSENSITIVE_ORDER.compare(first.name, second.name);
+            return comparison != 0 ? comparison : Long.compare(first.id, second.id);
+        }
+    };
+
+    /**
+     * Order of ContactProvider's search: names starting with the first word first
+     */
+    static final Comparator<Row> BY_RANK = new Comparator<Row>() {
+        @Override
+        public int compare(Row first, Row second) {
+            int comparison = Long.compare(first.rank, second.rank);
+            return comparison != 0 ? comparison : String.CASE_INSENSITIVE_ORDER.compare(first.name, second.name);
+        }
+    };
+
+    private ContactFanOut() {
+    }
+
+    /**
+     * Run every query on the given pool and read every row, like ContactQueryExecutor fills the
+     * window of every cursor. Returns the rows of every query, in the order of the queries.
+     */
+    static List<List<Row>> queryAll(ExecutorService executor, PreparedStatement[] queries) throws Exception {
+        List<Future<List<Row>>> results = new ArrayList<>(queries.length);
+        for (PreparedStatement query : queries) {
+            results.add(executor.submit(() -> {
+                List<Row> rows = new ArrayList<>();
+                try (ResultSet resultSet = query.executeQuery()) {
+                    while (resultSet.next()) {
+                        rows.add(new Row(resultSet.getLong(1), resultSet.getString(2), resultSet.getString(3),
+                                resultSet.getLong(4)));
+                    }
+                }
+                return rows;
+            }));
+        }
+        List<List<Row>> rows = new ArrayList<>(queries.length);
+        for (Future<List<Row>> result : results) {
+            rows.add(result.get());
+        }
+        return rows;
+    }
+
+    /**
+     * Merge the sorted rows of every query into one sorted list of at most {@code limit} rows,
+     * taking the smallest of the next rows of every query each time, as ContactMergeCursor
+     * does.
+     */
+    static List<Row> merge(List<List<Row>> parts, Comparator<Row> order, int limit) {
+        int[] next = new int[parts.size()];
+        List<Row> merged = new ArrayList<>();
+        while (merged.size() < limit) {
+            int smallest = -1;
+            for (int i = 0; i < next.length; i++) {
+                if (next[i] < parts.get(i).size() && (smallest < 0
+                        || order.compare(parts.get(i).get(next[i]), parts.get(smallest).get(next[smallest])) < 0)) {
+                    smallest = i;
+                }
+            }
+            if (smallest < 0) {
+                break;
+            }
+            merged.add(parts.get(smallest).get(next[smallest]++));
+        }
+        return merged;
+    }
+
+    static void consume(List<Row> rows, Blackhole blackhole) {
+        for (Row row : rows) {
+            blackhole.consume(row.id);
+            blackhole.consume(row.name);
+            blackhole.consume(row.email);
+        }
+    }
+
+    /**
+     * A row of the result of one query, with the rank of its first sort term.
+     */
+    static final class Row {
+        final long id;
+        final String name;
+        final String email;
+        final long rank;
+
+        Row(long id, String name, String email, long rank) {
+            this.id = id;
+            this.name = name;
+            this.email = email;
+            this.rank = rank;
+        }
+    }
+}
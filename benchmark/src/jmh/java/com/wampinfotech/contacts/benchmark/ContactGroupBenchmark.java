@@ -0,0 +1,175 @@
+package com.wampinfotech.contacts.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The group URIs of ContactProvider, with every contact in 10 of 100 groups: 100,000 and
+ * 1,000,000 memberships. The list of groups reads the member counts the triggers keep, next to
+ * the count of the members by a join that the list would run without them. A page of the
+ * members of a group, the groups of a contact and the addition of 1000 contacts to a group in
+ * one transaction, as METHOD_EDIT_GROUP_MEMBERS makes it, complete the URIs.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ContactGroupBenchmark {
+
+    @Param({"10000", "100000"})
+    public int rowCount;
+
+    private static final int GROUP_COUNT = 100;
+
+    /**
+     * Groups every contact is in
+     */
+    private static final int GROUPS_PER_CONTACT = 10;
+
+    private static final int BULK_EDIT_SIZE = 1000;
+
+    /**
+     * Rows of a page of the catalog, as ContactPagingSource asks for
+     */
+    private static final int PAGE_SIZE = 50;
+
+    private ContactDatabase mDatabase;
+
+    private PreparedStatement mListGroups;
+
+    private PreparedStatement mListGroupsCounted;
+
+    private PreparedStatement mMembersPage;
+
+    private PreparedStatement mGroupsOfContact;
+
+    private PreparedStatement mAddMember;
+
+    /**
+     * The group without members the contacts are added to
+     */
+    private long mEmptyGroup;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        mDatabase = ContactDatabase.create(rowCount);
+        try (Statement statement = mDatabase.connection.createStatement()) {
+            for (int group = 0; group < GROUP_COUNT; group++) {
+                statement.execute("INSERT INTO contact_groups (title) VALUES ('Group " + group + "')");
+            }
+            // Every contact goes in every tenth group, starting from a group of its own
+            statement.execute("INSERT INTO contact_group_members (group_id, contact_id) "
+                    + "SELECT contact_groups._id, contacts._id FROM contacts, contact_groups "
+                    + "WHERE (contacts._id + contact_groups._id) % " + (GROUP_COUNT / GROUPS_PER_CONTACT) + "=0");
+            statement.execute("INSERT INTO contact_groups (title) VALUES ('Empty')");
+            try (ResultSet id = statement.executeQuery("SELECT last_insert_rowid()")) {
+                id.next();
+                mEmptyGroup = id.getLong(1);
+            }
+            statement.execute("ANALYZE");
+        }
+
+        mListGroups = mDatabase.connection.prepareStatement("SELECT _id, title, member_count FROM contact_groups "
+                + "ORDER BY title COLLATE NOCASE, _id");
+        mListGroupsCounted = mDatabase.connection.prepareStatement("SELECT contact_groups._id, title, "
+                + "COUNT(contacts._id) FROM contact_groups "
+                + "LEFT JOIN contact_group_members ON group_id=contact_groups._id "
+                + "LEFT JOIN contacts ON contacts._id=contact_id AND deleted=0 "
+                + "GROUP BY contact_groups._id ORDER BY title COLLATE NOCASE, contact_groups._id");
+        mMembersPage = mDatabase.connection.prepareStatement("SELECT _id, name, email FROM contacts "
+                + "WHERE _id IN (SELECT contact_id FROM contact_group_members WHERE group_id=?) AND deleted=0 "
+                + "ORDER BY name COLLATE NOCASE, _id LIMIT " + PAGE_SIZE);
+        mGroupsOfContact = mDatabase.connection.prepareStatement("SELECT _id, title, member_count FROM contact_groups "
+                + "WHERE _id IN (SELECT group_id FROM contact_group_members WHERE contact_id=?) "
+                + "ORDER BY title COLLATE NOCASE, _id");
+        mAddMember = mDatabase.connection.prepareStatement("INSERT OR IGNORE INTO contact_group_members "
+                + "(group_id, contact_id) SELECT ?, _id FROM contacts WHERE _id=? AND deleted=0 "
+                + "AND EXISTS (SELECT 1 FROM contact_groups WHERE _id=?)");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        mListGroups.close();
+        mListGroupsCounted.close();
+        mMembersPage.close();
+        mGroupsOfContact.close();
+        mAddMember.close();
+        mDatabase.close();
+    }
+
+    @Benchmark
+    public void listGroups(Blackhole blackhole) throws Exception {
+        consumeGroups(mListGroups, blackhole);
+    }
+
+    @Benchmark
+    public void listGroupsCounted(Blackhole blackhole) throws Exception {
+        consumeGroups(mListGroupsCounted, blackhole);
+    }
+
+    @Benchmark
+    public void membersPage(Blackhole blackhole) throws Exception {
+        mMembersPage.setLong(1, ThreadLocalRandom.current().nextInt(GROUP_COUNT) + 1);
+        try (ResultSet rows = mMembersPage.executeQuery()) {
+            while (rows.next()) {
+                blackhole.consume(rows.getLong(1));
+                blackhole.consume(rows.getString(2));
+                blackhole.consume(rows.getString(3));
+            }
+        }
+    }
+
+    @Benchmark
+    public void groupsOfContact(Blackhole blackhole) throws Exception {
+        mGroupsOfContact.setLong(1, ThreadLocalRandom.current().nextInt(rowCount) + 1);
+        consumeGroups(mGroupsOfContact, blackhole);
+    }
+
+    /**
+     * Add 1000 random contacts to the empty group in one transaction, which is rolled back so
+     * the group stays empty.
+     */
+    @Benchmark
+    @OperationsPerInvocation(BULK_EDIT_SIZE)
+    public int bulkAddMembers() throws Exception {
+        mDatabase.connection.setAutoCommit(false);
+        try {
+            int added = 0;
+            for (int i = 0; i < BULK_EDIT_SIZE; i++) {
+                mAddMember.setLong(1, mEmptyGroup);
+                mAddMember.setLong(2, ThreadLocalRandom.current().nextInt(rowCount) + 1);
+                mAddMember.setLong(3, mEmptyGroup);
+                added += mAddMember.executeUpdate();
+            }
+            return added;
+        } finally {
+            mDatabase.connection.rollback();
+            mDatabase.connection.setAutoCommit(true);
+        }
+    }
+
+    private static void consumeGroups(PreparedStatement query, Blackhole blackhole) throws Exception {
+        try (ResultSet rows = query.executeQuery()) {
+            while (rows.next()) {
+                blackhole.consume(rows.getLong(1));
+                blackhole.consume(rows.getString(2));
+                blackhole.consume(rows.getInt(3));
+            }
+        }
+    }
+}
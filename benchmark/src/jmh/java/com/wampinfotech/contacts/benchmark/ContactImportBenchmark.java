@@ -0,0 +1,247 @@
+package com.wampinfotech.contacts.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The import of ContactImporter: a generated CSV file of 1,000,000 contacts, written the way
+ * ContactExporter writes it, is read one record at a time, validated against the rules of
+ * ContactProvider.validateContact() and inserted in transactions of 500 rows through one
+ * compiled statement, as the provider's bulkInsert() does. Each import starts from an empty
+ * database, and takes seconds, so it is timed once per iteration; divide the row count by the
+ * time for rows per second. The same file is also only read and validated, to tell the
+ * parsing apart from the inserts.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ContactImportBenchmark {
+
+    @Param({"1000000"})
+    public int rowCount;
+
+    /**
+     * Rows per transaction of ContactImporter.DEFAULT_BATCH_SIZE
+     */
+    private static final int BATCH_SIZE = 500;
+
+    private static final String[] GENDERS = {"UNKNOWN", "MALE", "FEMALE"};
+
+    /**
+     * The CSV file being imported
+     */
+    private Path mFile;
+
+    private ContactDatabase mDatabase;
+
+    @Setup(Level.Trial)
+    public void writeFile() throws IOException {
+        mFile = Files.createTempFile("contacts", ".csv");
+        try (BufferedWriter writer = Files.newBufferedWriter(mFile, StandardCharsets.UTF_8)) {
+            writer.write("name,email,gender,mobile\r\n");
+            for (int i = 0; i < rowCount; i++) {
+                // Every hundredth name needs quoting, and numbers come formatted the way people
+                // type them
+                String number = String.valueOf(ContactDatabase.numberOf(i));
+                writer.write(i % 100 == 0 ? "\"Rao, Meera " + i + "\"" : "Meera Rao " + i);
+                writer.write(",meera.rao" + i + "@example.com," + GENDERS[i % GENDERS.length] + ",");
+                writer.write(number.substring(0, 5) + " " + number.substring(5) + "\r\n");
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteFile() throws IOException {
+        Files.deleteIfExists(mFile);
+    }
+
+    @Setup(Level.Iteration)
+    public void setUp() throws Exception {
+        mDatabase = ContactDatabase.create(0);
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws Exception {
+        mDatabase.close();
+    }
+
+    @Benchmark
+    public long importCsv() throws Exception {
+        long rowsImported = 0;
+        int batchCount = 0;
+        mDatabase.connection.setAutoCommit(false);
+        try (BufferedReader reader = Files.newBufferedReader(mFile, StandardCharsets.UTF_8);
+             PreparedStatement insert = mDatabase.connection.prepareStatement(ContactDatabase.SQL_INSERT)) {
+            CsvRecords records = new CsvRecords(reader);
+            // Skip the header
+            records.next();
+            while (records.next()) {
+                String name = records.field(0);
+                String email = records.field(1);
+                int gender = parseGender(records.field(2));
+                String number = normalizeNumber(records.field(3));
+                if (name.isEmpty() || gender < 0 || number == null || number.length() != 10) {
+                    continue;
+                }
+
+                insert.setString(1, name);
+                insert.setString(2, email.isEmpty() ? null : email);
+                insert.setInt(3, gender);
+                insert.setString(4, number);
+                insert.setLong(5, Long.parseLong(number));
+                insert.executeUpdate();
+                if (++batchCount == BATCH_SIZE) {
+                    mDatabase.connection.commit();
+                    rowsImported += batchCount;
+                    batchCount = 0;
+                }
+            }
+            mDatabase.connection.commit();
+            rowsImported += batchCount;
+        } finally {
+            mDatabase.connection.setAutoCommit(true);
+        }
+        return rowsImported;
+    }
+
+    /**
+     * Read and validate every record without inserting it. Returns the number of valid ones.
+     */
+    @Benchmark
+    public long parseCsv(Blackhole blackhole) throws Exception {
+        long rowsValid = 0;
+        try (BufferedReader reader = Files.newBufferedReader(mFile, StandardCharsets.UTF_8)) {
+            CsvRecords records = new CsvRecords(reader);
+            // Skip the header
+            records.next();
+            while (records.next()) {
+                String name = records.field(0);
+                blackhole.consume(records.field(1));
+                int gender = parseGender(records.field(2));
+                String number = normalizeNumber(records.field(3));
+                if (!name.isEmpty() && gender >= 0 && number != null && number.length() == 10) {
+                    rowsValid++;
+                }
+            }
+        }
+        return rowsValid;
+    }
+
+    /**
+     * Returns the ordinal of the given gender name, or -1 if it's none, as
+     * ContactImporter.parseGender() does for the names the exporter writes.
+     */
+    private static int parseGender(String value) {
+        for (int i = 0; i < GENDERS.length; i++) {
+            if (GENDERS[i].equalsIgnoreCase(value)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * ContactImporter.normalizeNumber()
+     */
+    private static String normalizeNumber(String value) {
+        StringBuilder number = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c != ' ' && c != '-' && c != '.' && c != '(' && c != ')') {
+                number.append(c);
+            }
+        }
+        return number.length() == 0 ? null : number.toString();
+    }
+
+    /**
+     * The record reader of CsvContactReader: RFC 4180 fields, one record in memory at a time.
+     */
+    private static final class CsvRecords {
+
+        private final Reader mReader;
+
+        private final ArrayList<String> mFields = new ArrayList<>();
+
+        private final StringBuilder mField = new StringBuilder();
+
+        CsvRecords(Reader reader) {
+            mReader = reader;
+        }
+
+        /**
+         * Returns the trimmed field at the given index, or an empty string if the record is
+         * shorter.
+         */
+        String field(int index) {
+            return index < mFields.size() ? mFields.get(index).trim() : "";
+        }
+
+        /**
+         * Read the next record. Returns false at the end of the stream.
+         */
+        boolean next() throws IOException {
+            mFields.clear();
+            mField.setLength(0);
+
+            int c = mReader.read();
+            if (c == -1) {
+                return false;
+            }
+
+            boolean quoted = false;
+            while (true) {
+                if (quoted) {
+                    if (c == -1) {
+                        break;
+                    } else if (c == '"') {
+                        c = mReader.read();
+                        if (c == '"') {
+                            mField.append('"');
+                        } else {
+                            quoted = false;
+                            continue;
+                        }
+                    } else {
+                        mField.append((char) c);
+                    }
+                } else if (c == -1 || c == '\n') {
+                    break;
+                } else if (c == '\r') {
+                    // Part of a \r\n line break
+                } else if (c == ',') {
+                    mFields.add(mField.toString());
+                    mField.setLength(0);
+                } else if (c == '"' && mField.length() == 0) {
+                    quoted = true;
+                } else {
+                    mField.append((char) c);
+                }
+                c = mReader.read();
+            }
+
+            mFields.add(mField.toString());
+            return true;
+        }
+    }
+}
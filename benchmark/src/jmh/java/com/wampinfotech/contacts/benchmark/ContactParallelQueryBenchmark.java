@@ -0,0 +1,133 @@
+package com.wampinfotech.contacts.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Comparator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Queries made with the parallel query parameter of ContactProvider: the _IDs are split into
+ * 1, 2, 4 or 8 ranges, which are queried at once on read connections of their own and merged.
+ * The scans measured are the unindexed LIKE on the email, and a page by name of contacts
+ * matching several unindexed conditions at once. The speed-up levels off at the number of
+ * cores of the machine, so run it where that number is known.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ContactParallelQueryBenchmark {
+
+    @Param({"1", "2", "4", "8"})
+    public int rangeCount;
+
+    @Param({"100000", "1000000"})
+    public int rowCount;
+
+    /**
+     * Rows of a page of the catalog, as ContactPagingSource asks for
+     */
+    private static final int PAGE_SIZE = 50;
+
+    /**
+     * Order of a query without a sort order: the ranges one after the other
+     */
+    private static final Comparator<ContactFanOut.Row> UNSORTED = (first, second) -> 0;
+
+    private ContactDatabase mDatabase;
+
+    /**
+     * Runs the ranges at once, like ContactQueryExecutor
+     */
+    private ExecutorService mExecutor;
+
+    /**
+     * Read connection of every range
+     */
+    private Connection[] mConnections;
+
+    private PreparedStatement[] mEmailLike;
+
+    private PreparedStatement[] mCombinedPage;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        mDatabase = ContactDatabase.create(rowCount);
+        mExecutor = Executors.newFixedThreadPool(rangeCount);
+        mConnections = new Connection[rangeCount];
+        for (int i = 0; i < rangeCount; i++) {
+            mConnections[i] = mDatabase.connect();
+        }
+        // The provider adds the terms of the sort order as extra columns to merge by
+        mEmailLike = prepare("SELECT _id, name, email, 0 FROM contacts WHERE email LIKE '%bose1%' AND deleted=0");
+        mCombinedPage = prepare("SELECT _id, name, email, 0 FROM contacts "
+                + "WHERE email LIKE '%.b%' AND gender=1 AND mobile LIKE '%7%' AND deleted=0 "
+                + "ORDER BY name COLLATE NOCASE, _id LIMIT " + PAGE_SIZE);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        mExecutor.shutdown();
+        for (int i = 0; i < rangeCount; i++) {
+            mEmailLike[i].close();
+            mCombinedPage[i].close();
+            mConnections[i].close();
+        }
+        mDatabase.close();
+    }
+
+    @Benchmark
+    public void emailLike(Blackhole blackhole) throws Exception {
+        ContactFanOut.consume(ContactFanOut.merge(ContactFanOut.queryAll(mExecutor, mEmailLike),
+                UNSORTED, Integer.MAX_VALUE), blackhole);
+    }
+
+    @Benchmark
+    public void combinedConditionsPage(Blackhole blackhole) throws Exception {
+        ContactFanOut.consume(ContactFanOut.merge(ContactFanOut.queryAll(mExecutor, mCombinedPage),
+                ContactFanOut.BY_NAME, PAGE_SIZE), blackhole);
+    }
+
+    /**
+     * Prepare the given query, which ends with its ORDER BY and LIMIT if it has any, on the
+     * connection of every range, restricted to the _IDs of the range the way ContactProvider
+     * splits them.
+     */
+    private PreparedStatement[] prepare(String sql) throws SQLException {
+        long first;
+        long last;
+        try (Statement statement = mDatabase.connection.createStatement();
+             ResultSet bounds = statement.executeQuery("SELECT IFNULL(MIN(_id), 0), IFNULL(MAX(_id), 0) FROM contacts")) {
+            bounds.next();
+            first = bounds.getLong(1);
+            last = bounds.getLong(2);
+        }
+        long span = last - first + 1;
+
+        int where = sql.indexOf(" WHERE ") + " WHERE ".length();
+        String rangeSql = sql.substring(0, where) + "_id>=? AND _id<? AND " + sql.substring(where);
+        PreparedStatement[] statements = new PreparedStatement[rangeCount];
+        for (int i = 0; i < rangeCount; i++) {
+            statements[i] = mConnections[i].prepareStatement(rangeSql);
+            statements[i].setLong(1, first + span * i / rangeCount);
+            statements[i].setLong(2, first + span * (i + 1) / rangeCount);
+        }
+        return statements;
+    }
+}
@@ -0,0 +1,224 @@
+package com.wampinfotech.contacts.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Read paths of ContactProvider: a single contact by _ID, a contact by phone number, the full
+ * scan the catalog used to do, a keyset page of the catalog, and the selection queries: an
+ * indexed name prefix, an unindexed LIKE on the email and a full-text search. The two ordered
+ * scans of ContactDuplicateFinder, by number key and by email, are measured too, and so is a
+ * read of the latest changes from the change log.
+ * <p>
+ * The lookups by name prefix and by number, and the search, are measured next to the queries
+ * they replaced, which scanned every row: the same lookups before the indexes, forced through
+ * NOT INDEXED, and the LIKE '%word%' selection over name, email and mobile that search used to
+ * take.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ContactQueryBenchmark {
+
+    @Param({"1000", "100000", "1000000"})
+    public int rowCount;
+
+    private ContactDatabase mDatabase;
+
+    private PreparedStatement mQueryById;
+
+    private PreparedStatement mLookup;
+
+    private PreparedStatement mLookupUnindexed;
+
+    private PreparedStatement mFullScan;
+
+    private PreparedStatement mPage;
+
+    private PreparedStatement mNamePrefix;
+
+    private PreparedStatement mNamePrefixUnindexed;
+
+    private PreparedStatement mEmailLike;
+
+    private PreparedStatement mSearch;
+
+    private PreparedStatement mSearchLike;
+
+    private PreparedStatement mNumberBlocks;
+
+    private PreparedStatement mEmailBlocks;
+
+    private PreparedStatement mChanges;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        mDatabase = ContactDatabase.create(rowCount);
+        mQueryById = prepare("SELECT _id, name, email, gender, mobile FROM contacts WHERE _id=? AND deleted=0");
+        mLookup = prepare("SELECT _id, name, email FROM contacts WHERE mobile_key=? AND deleted=0");
+        mLookupUnindexed = prepare("SELECT _id, name, email FROM contacts NOT INDEXED WHERE mobile=? AND deleted=0");
+        mFullScan = prepare("SELECT _id, name, email FROM contacts WHERE deleted=0");
+        mPage = prepare("SELECT _id, name, email FROM contacts "
+                + "WHERE name COLLATE NOCASE>=? AND (name COLLATE NOCASE>? OR _id>?) AND deleted=0 "
+                + "ORDER BY name COLLATE NOCASE, _id LIMIT 50");
+        mNamePrefix = prepare("SELECT _id, name, email FROM contacts "
+                + "WHERE name COLLATE NOCASE>=? AND name COLLATE NOCASE<? AND deleted=0");
+        mNamePrefixUnindexed = prepare("SELECT _id, name, email FROM contacts NOT INDEXED "
+                + "WHERE name LIKE ? AND deleted=0");
+        mEmailLike = prepare("SELECT _id, name, email FROM contacts WHERE email LIKE ? AND deleted=0");
+        mSearch = prepare("SELECT _id, name, email FROM contacts WHERE _id IN "
+                + "(SELECT docid FROM contacts_search WHERE contacts_search MATCH ?) AND deleted=0 "
+                + "ORDER BY CASE WHEN name LIKE ? THEN 0 ELSE 1 END, name COLLATE NOCASE");
+        mSearchLike = prepare("SELECT _id, name, email FROM contacts "
+                + "WHERE (name LIKE ?1 OR email LIKE ?1 OR mobile LIKE ?1) "
+                + "AND (name LIKE ?2 OR email LIKE ?2 OR mobile LIKE ?2) AND deleted=0");
+        mNumberBlocks = prepare("SELECT _id, name, mobile_key FROM contacts "
+                + "WHERE mobile_key IS NOT NULL AND deleted=0 ORDER BY mobile_key, _id");
+        mChanges = prepare("SELECT sequence, operation, _id, name, email FROM "
+                + "(SELECT log.sequence AS sequence, log.operation AS operation, log.contact_id AS _id, "
+                + "c.name AS name, c.email AS email FROM contacts_changes AS log "
+                + "LEFT JOIN contacts AS c ON c._id=log.contact_id AND c.deleted=0 "
+                + "WHERE log.sequence IN (SELECT MAX(sequence) FROM contacts_changes WHERE sequence>? "
+                + "GROUP BY contact_id)) ORDER BY sequence");
+        mEmailBlocks = prepare("SELECT _id, name, lower(trim(email)) FROM contacts "
+                + "WHERE trim(email)!='' AND deleted=0 ORDER BY lower(trim(email)), _id");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        mQueryById.close();
+        mLookup.close();
+        mLookupUnindexed.close();
+        mFullScan.close();
+        mPage.close();
+        mNamePrefix.close();
+        mNamePrefixUnindexed.close();
+        mEmailLike.close();
+        mSearch.close();
+        mSearchLike.close();
+        mNumberBlocks.close();
+        mEmailBlocks.close();
+        mChanges.close();
+        mDatabase.close();
+    }
+
+    @Benchmark
+    public void queryById(Blackhole blackhole) throws Exception {
+        mQueryById.setLong(1, ThreadLocalRandom.current().nextInt(rowCount) + 1);
+        consume(mQueryById, blackhole);
+    }
+
+    @Benchmark
+    public void lookupByNumber(Blackhole blackhole) throws Exception {
+        mLookup.setLong(1, ContactDatabase.numberOf(ThreadLocalRandom.current().nextInt(rowCount)));
+        consume(mLookup, blackhole);
+    }
+
+    @Benchmark
+    public void lookupByNumberUnindexed(Blackhole blackhole) throws Exception {
+        long number = ContactDatabase.numberOf(ThreadLocalRandom.current().nextInt(rowCount));
+        mLookupUnindexed.setString(1, String.valueOf(number));
+        consume(mLookupUnindexed, blackhole);
+    }
+
+    @Benchmark
+    public void fullScan(Blackhole blackhole) throws Exception {
+        consume(mFullScan, blackhole);
+    }
+
+    @Benchmark
+    public void keysetPage(Blackhole blackhole) throws Exception {
+        mPage.setString(1, "Meera");
+        mPage.setString(2, "Meera");
+        mPage.setLong(3, 0);
+        consume(mPage, blackhole);
+    }
+
+    @Benchmark
+    public void namePrefix(Blackhole blackhole) throws Exception {
+        mNamePrefix.setString(1, "meera b");
+        mNamePrefix.setString(2, "meera c");
+        consume(mNamePrefix, blackhole);
+    }
+
+    @Benchmark
+    public void namePrefixUnindexed(Blackhole blackhole) throws Exception {
+        mNamePrefixUnindexed.setString(1, "meera b%");
+        consume(mNamePrefixUnindexed, blackhole);
+    }
+
+    @Benchmark
+    public void emailLike(Blackhole blackhole) throws Exception {
+        mEmailLike.setString(1, "%bose1%");
+        consume(mEmailLike, blackhole);
+    }
+
+    @Benchmark
+    public void search(Blackhole blackhole) throws Exception {
+        mSearch.setString(1, "\"meera*\" \"bos*\"");
+        mSearch.setString(2, "meera%");
+        consume(mSearch, blackhole);
+    }
+
+    @Benchmark
+    public void searchLike(Blackhole blackhole) throws Exception {
+        mSearchLike.setString(1, "%meera%");
+        mSearchLike.setString(2, "%bos%");
+        consume(mSearchLike, blackhole);
+    }
+
+    @Benchmark
+    public void duplicateBlocksByNumber(Blackhole blackhole) throws Exception {
+        consume(mNumberBlocks, blackhole);
+    }
+
+    @Benchmark
+    public void duplicateBlocksByEmail(Blackhole blackhole) throws Exception {
+        consume(mEmailBlocks, blackhole);
+    }
+
+    @Benchmark
+    public void changesSince(Blackhole blackhole) throws Exception {
+        // The last 50 contacts inserted, like a sync that runs often
+        mChanges.setLong(1, rowCount - 50);
+        try (ResultSet rows = mChanges.executeQuery()) {
+            while (rows.next()) {
+                blackhole.consume(rows.getLong(1));
+                blackhole.consume(rows.getLong(3));
+                blackhole.consume(rows.getString(4));
+            }
+        }
+    }
+
+    private PreparedStatement prepare(String sql) throws SQLException {
+        return mDatabase.connection.prepareStatement(sql);
+    }
+
+    /**
+     * Run the query and read every row, like a cursor being filled.
+     */
+    private static void consume(PreparedStatement query, Blackhole blackhole) throws SQLException {
+        try (ResultSet rows = query.executeQuery()) {
+            while (rows.next()) {
+                blackhole.consume(rows.getLong(1));
+                blackhole.consume(rows.getString(2));
+                blackhole.consume(rows.getString(3));
+            }
+        }
+    }
+}
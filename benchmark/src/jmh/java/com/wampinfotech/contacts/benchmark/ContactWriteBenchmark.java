@@ -0,0 +1,242 @@
+package com.wampinfotech.contacts.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.sql.PreparedStatement;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Write paths of ContactProvider: insert(), bulkInsert(), update() and delete() of one contact
+ * by _ID, and delete() of every contact. bulkInsert() is measured next to the path it replaced,
+ * where every row was compiled from its own SQL text and committed on its own. Each write
+ * commits on its own, like the provider's, except for the deletes, which are rolled back so the
+ * table keeps its size. The provider's deletes only flag the rows; the purge that removes them
+ * later is measured in chunks of the size ContactPurger uses, next to the hard delete of every
+ * row the provider used to run.
+ * <p>
+ * insert() and update() by _ID, which run on ContactStatementPool's compiled statements, are
+ * also measured the way SQLiteDatabase.insert() and update() run them: the SQL built from the
+ * ContentValues, a fresh String[] of selection arguments and a statement compiled and closed
+ * on every call. Run them with {@code -prof gc} for the allocation per write.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ContactWriteBenchmark {
+
+    private static final int BULK_INSERT_SIZE = 1000;
+
+    @Param({"1000", "100000", "1000000"})
+    public int rowCount;
+
+    private ContactDatabase mDatabase;
+
+    private PreparedStatement mInsert;
+
+    private PreparedStatement mUpdate;
+
+    private PreparedStatement mDelete;
+
+    private PreparedStatement mDeleteAll;
+
+    private PreparedStatement mHardDeleteAll;
+
+    private PreparedStatement mPurgeChunk;
+
+    private int mNextContact;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        mDatabase = ContactDatabase.create(rowCount);
+        mInsert = mDatabase.connection.prepareStatement(ContactDatabase.SQL_INSERT);
+        mUpdate = mDatabase.connection.prepareStatement(
+                "UPDATE contacts SET name=?, email=?, gender=?, mobile=?, mobile_key=? WHERE _id=? AND deleted=0");
+        mDelete = mDatabase.connection.prepareStatement("UPDATE contacts SET deleted=1 WHERE _id=? AND deleted=0");
+        mDeleteAll = mDatabase.connection.prepareStatement("UPDATE contacts SET deleted=1 WHERE deleted=0");
+        mHardDeleteAll = mDatabase.connection.prepareStatement("DELETE FROM contacts");
+        mPurgeChunk = mDatabase.connection.prepareStatement("DELETE FROM contacts WHERE _id IN "
+                + "(SELECT _id FROM contacts WHERE deleted=1 LIMIT 500)");
+        mNextContact = rowCount;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        mInsert.close();
+        mUpdate.close();
+        mDelete.close();
+        mDeleteAll.close();
+        mHardDeleteAll.close();
+        mPurgeChunk.close();
+        mDatabase.close();
+    }
+
+    @Benchmark
+    public int insert() throws Exception {
+        mDatabase.bindContact(mInsert, mNextContact++);
+        return mInsert.executeUpdate();
+    }
+
+    @Benchmark
+    public int insertGeneric() throws Exception {
+        Map<String, Object> values = contactValues(mNextContact++);
+        StringBuilder sql = new StringBuilder(120);
+        sql.append("INSERT INTO contacts (");
+        StringBuilder placeholders = new StringBuilder(values.size() * 2);
+        Object[] bindArgs = new Object[values.size()];
+        int i = 0;
+        for (Map.Entry<String, Object> value : values.entrySet()) {
+            sql.append(i > 0 ? "," : "").append(value.getKey());
+            placeholders.append(i > 0 ? ",?" : "?");
+            bindArgs[i++] = value.getValue();
+        }
+        sql.append(") VALUES (").append(placeholders).append(')');
+        return executeGeneric(sql.toString(), bindArgs);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BULK_INSERT_SIZE)
+    public int bulkInsert() throws Exception {
+        mDatabase.connection.setAutoCommit(false);
+        try {
+            for (int i = 0; i < BULK_INSERT_SIZE; i++) {
+                mDatabase.bindContact(mInsert, mNextContact++);
+                mInsert.addBatch();
+            }
+            int[] counts = mInsert.executeBatch();
+            mDatabase.connection.commit();
+            return counts.length;
+        } finally {
+            mDatabase.connection.setAutoCommit(true);
+        }
+    }
+
+    /**
+     * The rows of a bulk insert as the provider wrote them before bulkInsert() was overridden:
+     * one insert() each, which compiles the statement again and commits the row on its own.
+     */
+    @Benchmark
+    @OperationsPerInvocation(BULK_INSERT_SIZE)
+    public int bulkInsertPerRow() throws Exception {
+        int rows = 0;
+        for (int i = 0; i < BULK_INSERT_SIZE; i++) {
+            try (PreparedStatement insert = mDatabase.connection.prepareStatement(ContactDatabase.SQL_INSERT)) {
+                mDatabase.bindContact(insert, mNextContact++);
+                rows += insert.executeUpdate();
+            }
+        }
+        return rows;
+    }
+
+    @Benchmark
+    public int updateById() throws Exception {
+        int contact = ThreadLocalRandom.current().nextInt(rowCount);
+        mDatabase.bindContact(mUpdate, contact + 1);
+        mUpdate.setLong(6, contact + 1);
+        return mUpdate.executeUpdate();
+    }
+
+    @Benchmark
+    public int updateByIdGeneric() throws Exception {
+        int contact = ThreadLocalRandom.current().nextInt(rowCount);
+        Map<String, Object> values = contactValues(contact + 1);
+        String[] whereArgs = new String[]{String.valueOf(contact + 1)};
+        StringBuilder sql = new StringBuilder(120);
+        sql.append("UPDATE contacts SET ");
+        Object[] bindArgs = new Object[values.size() + whereArgs.length];
+        int i = 0;
+        for (Map.Entry<String, Object> value : values.entrySet()) {
+            sql.append(i > 0 ? "," : "").append(value.getKey()).append("=?");
+            bindArgs[i++] = value.getValue();
+        }
+        System.arraycopy(whereArgs, 0, bindArgs, i, whereArgs.length);
+        sql.append(" WHERE _id=? AND deleted=0");
+        return executeGeneric(sql.toString(), bindArgs);
+    }
+
+    @Benchmark
+    public int deleteById() throws Exception {
+        mDatabase.connection.setAutoCommit(false);
+        try {
+            mDelete.setLong(1, ThreadLocalRandom.current().nextInt(rowCount) + 1);
+            return mDelete.executeUpdate();
+        } finally {
+            mDatabase.connection.rollback();
+            mDatabase.connection.setAutoCommit(true);
+        }
+    }
+
+    @Benchmark
+    public int deleteAll() throws Exception {
+        return rolledBack(mDeleteAll);
+    }
+
+    @Benchmark
+    public int hardDeleteAll() throws Exception {
+        return rolledBack(mHardDeleteAll);
+    }
+
+    @Benchmark
+    public int purgeChunk() throws Exception {
+        mDatabase.connection.setAutoCommit(false);
+        try {
+            mDeleteAll.executeUpdate();
+            return mPurgeChunk.executeUpdate();
+        } finally {
+            mDatabase.connection.rollback();
+            mDatabase.connection.setAutoCommit(true);
+        }
+    }
+
+    /**
+     * Returns the values of the generated contact number {@code i}, as the ContentValues the
+     * provider gets.
+     */
+    private static Map<String, Object> contactValues(int i) {
+        Map<String, Object> values = new LinkedHashMap<>();
+        values.put("name", "Meera Rao " + i);
+        values.put("email", "meera.rao" + i + "@example.com");
+        values.put("gender", i % 3);
+        values.put("mobile", String.valueOf(ContactDatabase.numberOf(i)));
+        values.put("mobile_key", ContactDatabase.numberOf(i));
+        return values;
+    }
+
+    /**
+     * Compile the given SQL, bind the arguments, run it and close it, as SQLiteDatabase does
+     * for every insert() and update().
+     */
+    private int executeGeneric(String sql, Object[] bindArgs) throws Exception {
+        try (PreparedStatement statement = mDatabase.connection.prepareStatement(sql)) {
+            for (int i = 0; i < bindArgs.length; i++) {
+                statement.setObject(i + 1, bindArgs[i]);
+            }
+            return statement.executeUpdate();
+        }
+    }
+
+    /**
+     * Run the given write in a transaction that is rolled back.
+     */
+    private int rolledBack(PreparedStatement write) throws Exception {
+        mDatabase.connection.setAutoCommit(false);
+        try {
+            return write.executeUpdate();
+        } finally {
+            mDatabase.connection.rollback();
+            mDatabase.connection.setAutoCommit(true);
+        }
+    }
+}